@@ -0,0 +1,223 @@
+package aut.ap.bench;
+
+import aut.ap.api.ApiServer;
+import aut.ap.api.Json;
+import aut.ap.list.DistributionListService;
+import aut.ap.mail.AddressResolver;
+import aut.ap.mail.MailService;
+import aut.ap.search.MailSearchIndex;
+import aut.ap.tools.GeneratedData;
+import aut.ap.tools.MailboxDataGenerator;
+import aut.ap.user.UserDirectory;
+import aut.ap.user.UserService;
+import aut.ap.util.HibernateUtil;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+// Closed-loop load on the HTTP API: `clients` threads, each signed in as its own user, send
+// requests back to back for `seconds` and record every latency. The mix is 70% inbox pages,
+// 20% opening a mail from the inbox and 10% sending to another user. Prints requests/sec and
+// latency percentiles per request type. Starts the server in-process on the benchmark database
+// with generated data, unless milou.hibernate.config says otherwise.
+//
+// Usage: ApiLoadTest [clients=32] [seconds=30] [users=2000] [mails=50000]
+public final class ApiLoadTest {
+    private static final String[] OPERATIONS = {"inbox", "open", "send"};
+
+    private ApiLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int users = args.length > 2 ? Integer.parseInt(args[2]) : 2_000;
+        int mails = args.length > 3 ? Integer.parseInt(args[3]) : 50_000;
+        if (System.getProperty("milou.hibernate.config") == null) {
+            System.setProperty("milou.hibernate.config", "hibernate-bench.cfg.xml");
+        }
+        if (System.getProperty("milou.index.dir") == null) {
+            System.setProperty("milou.index.dir", Files.createTempDirectory("milou-index").toString());
+        }
+
+        GeneratedData data = MailboxDataGenerator.builder().users(users).mails(mails).build().generate();
+        UserService userService = new UserService();
+        try (ApiServer server = new ApiServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                HibernateUtil.getSessionFactory(), new MailService(MailSearchIndex.getDefault()), userService,
+                new AddressResolver(new UserDirectory(), new DistributionListService()), 64)) {
+            server.start();
+            String base = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/api/";
+            HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+            long[][][] latencies = new long[clients][][];
+            Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+            CountDownLatch ready = new CountDownLatch(clients);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            long[] window = new long[2];
+            for (int c = 0; c < clients; c++) {
+                int client = c;
+                Thread thread = new Thread(() -> {
+                    try {
+                        latencies[client] = runClient(http, base, data, client, ready, start, window, statuses);
+                    } catch (Exception e) {
+                        throw new RuntimeException("Client " + client + " failed", e);
+                    }
+                }, "load-client-" + c);
+                threads.add(thread);
+                thread.start();
+            }
+
+            ready.await();
+            window[0] = System.nanoTime();
+            window[1] = window[0] + Duration.ofSeconds(seconds).toNanos();
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            double elapsedSeconds = (System.nanoTime() - window[0]) / 1e9;
+
+            System.out.printf("%d clients, %d s, statuses %s%n", clients, seconds, statuses);
+            System.out.printf("%-6s %9s %9s %9s %9s %9s %9s %9s%n",
+                    "op", "requests", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+            long[] all = new long[0];
+            for (int op = 0; op <= OPERATIONS.length; op++) {
+                long[] merged = new long[0];
+                for (long[][] perClient : latencies) {
+                    if (perClient == null) {
+                        continue;
+                    }
+                    for (int o = 0; o < OPERATIONS.length; o++) {
+                        if (op == OPERATIONS.length || op == o) {
+                            merged = concat(merged, perClient[o]);
+                        }
+                    }
+                }
+                if (op == OPERATIONS.length) {
+                    all = merged;
+                } else {
+                    print(OPERATIONS[op], merged, elapsedSeconds);
+                }
+            }
+            print("all", all, elapsedSeconds);
+        } finally {
+            MailSearchIndex.shutdownDefault();
+            HibernateUtil.shutdown();
+        }
+    }
+
+    // Returns the latencies in nanoseconds, one array per operation
+    private static long[][] runClient(HttpClient http, String base, GeneratedData data, int client,
+                                      CountDownLatch ready, CountDownLatch start, long[] window,
+                                      Map<Integer, LongAdder> statuses) throws Exception {
+        Random random = new Random(client);
+        int userId = data.getFirstUserId() + client % data.getUserCount();
+        String token;
+        // Counted down even when the login fails, so one refused client cannot hang the run
+        try {
+            HttpResponse<String> login = http.send(json(base + "sessions", null, Map.of(
+                    "email", MailboxDataGenerator.email(userId),
+                    "password", MailboxDataGenerator.PASSWORD)), HttpResponse.BodyHandlers.ofString());
+            if (login.statusCode() != 201) {
+                throw new IllegalStateException("Login failed: " + login.body());
+            }
+            token = (String) Json.parseObject(login.body()).get("token");
+        } finally {
+            ready.countDown();
+        }
+
+        long[][] latencies = new long[OPERATIONS.length][1024];
+        int[] counts = new int[OPERATIONS.length];
+        List<String> codes = new ArrayList<>();
+        start.await();
+
+        while (System.nanoTime() < window[1]) {
+            int roll = random.nextInt(100);
+            int op = roll < 70 || (roll < 90 && codes.isEmpty()) ? 0 : roll < 90 ? 1 : 2;
+            HttpRequest request;
+            if (op == 0) {
+                request = authorized(HttpRequest.newBuilder(URI.create(base + "folders/inbox?pageSize=20")), token)
+                        .GET().build();
+            } else if (op == 1) {
+                request = authorized(HttpRequest.newBuilder(
+                        URI.create(base + "mails/" + codes.get(random.nextInt(codes.size())))), token).GET().build();
+            } else {
+                int recipient = data.getFirstUserId() + random.nextInt(data.getUserCount());
+                if (recipient == userId) {
+                    continue;
+                }
+                request = json(base + "mails", token, Map.of(
+                        "to", List.of(MailboxDataGenerator.email(recipient)),
+                        "subject", "Load test",
+                        "body", "Sent by ApiLoadTest client " + client));
+            }
+
+            long started = System.nanoTime();
+            HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+            long latency = System.nanoTime() - started;
+            statuses.computeIfAbsent(response.statusCode(), status -> new LongAdder()).increment();
+            if (counts[op] == latencies[op].length) {
+                latencies[op] = Arrays.copyOf(latencies[op], counts[op] * 2);
+            }
+            latencies[op][counts[op]++] = latency;
+
+            if (op == 0 && response.statusCode() == 200 && codes.size() < 200) {
+                for (Object mail : (List<?>) Json.parseObject(response.body()).get("mails")) {
+                    codes.add((String) ((Map<?, ?>) mail).get("code"));
+                }
+            }
+        }
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            latencies[op] = Arrays.copyOf(latencies[op], counts[op]);
+        }
+        return latencies;
+    }
+
+    private static HttpRequest json(String uri, String token, Object body) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(uri))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(Json.write(body)));
+        return (token != null ? authorized(builder, token) : builder).build();
+    }
+
+    private static HttpRequest.Builder authorized(HttpRequest.Builder builder, String token) {
+        return builder.header("Authorization", "Bearer " + token);
+    }
+
+    private static long[] concat(long[] a, long[] b) {
+        long[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static void print(String op, long[] latencies, double elapsedSeconds) {
+        if (latencies.length == 0) {
+            System.out.printf("%-6s %9d%n", op, 0);
+            return;
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-6s %9d %9.0f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                op, latencies.length, latencies.length / elapsedSeconds,
+                percentile(latencies, 0.50), percentile(latencies, 0.90), percentile(latencies, 0.99),
+                percentile(latencies, 0.999), latencies[latencies.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
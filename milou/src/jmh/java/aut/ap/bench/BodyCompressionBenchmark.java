@@ -0,0 +1,73 @@
+package aut.ap.bench;
+
+import aut.ap.mail.CompressedTextConverter;
+import aut.ap.tools.SyntheticText;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// CPU cost of writing and reading one body through CompressedTextConverter. The shortest
+// size stays under the compression threshold and measures the plain path. No database is involved.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BodyCompressionBenchmark {
+    private static final int BODIES = 64;
+
+    @Param({"40", "400", "1500"})
+    public int words;
+
+    private final CompressedTextConverter converter = new CompressedTextConverter();
+    private final String[] bodies = new String[BODIES];
+    private final byte[][] stored = new byte[BODIES][];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void createBodies() {
+        Random random = new Random(42L);
+        long textBytes = 0;
+        long storedBytes = 0;
+        for (int i = 0; i < BODIES; i++) {
+            bodies[i] = SyntheticText.body(random, words);
+            stored[i] = converter.convertToDatabaseColumn(bodies[i]);
+            textBytes += bodies[i].getBytes(StandardCharsets.UTF_8).length;
+            storedBytes += stored[i].length;
+        }
+        System.out.printf("%n%d words: %d bytes of text stored in %d (ratio %.3f)%n",
+                words, textBytes / BODIES, storedBytes / BODIES, (double) storedBytes / textBytes);
+    }
+
+    @TearDown(Level.Trial)
+    public void printMetrics() {
+        System.out.println(CompressedTextConverter.metrics());
+    }
+
+    @Benchmark
+    public byte[] write() {
+        next = (next + 1) % BODIES;
+        return converter.convertToDatabaseColumn(bodies[next]);
+    }
+
+    @Benchmark
+    public String read() {
+        next = (next + 1) % BODIES;
+        return converter.convertToEntityAttribute(stored[next]);
+    }
+}
@@ -0,0 +1,125 @@
+package aut.ap.bench;
+
+import aut.ap.mail.CompressedTextConverter;
+import aut.ap.mail.MailBody;
+import aut.ap.tools.GeneratedData;
+import aut.ap.tools.MailboxDataGenerator;
+import aut.ap.util.HibernateUtil;
+import org.hibernate.Session;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Generates the same corpus at several forward ratios and compares the bytes mail_bodies
+// holds, shared and compressed, with what the old schema, one full uncompressed body per mail,
+// would have stored. Runs against the in-memory benchmark database unless
+// milou.hibernate.config says otherwise, and empties the mail tables before every run.
+//
+// Usage: BodyStorageReport [mails=100000] [users=5000] [forward ratios=0,0.05,0.15,0.3]
+public final class BodyStorageReport {
+    // id, next_id, ref_count and the hash, ignoring the storage engine's own row overhead
+    private static final int ROW_METADATA_BYTES = 8 + 8 + 4 + MailBody.HASH_LENGTH;
+
+    private BodyStorageReport() {
+    }
+
+    public static void main(String[] args) {
+        int mails = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 5_000;
+        String[] ratios = (args.length > 2 ? args[2] : "0,0.05,0.15,0.3").split(",");
+        if (System.getProperty("milou.hibernate.config") == null) {
+            System.setProperty("milou.hibernate.config", "hibernate-bench.cfg.xml");
+        }
+
+        try {
+            System.out.printf("%8s %9s %10s %12s %12s %8s%n",
+                    "forward", "mails", "body rows", "inline MB", "stored MB", "saved");
+            for (String ratio : ratios) {
+                double forwardRatio = Double.parseDouble(ratio.trim());
+                clear();
+                GeneratedData data = MailboxDataGenerator.builder()
+                        .users(users)
+                        .mails(mails)
+                        .forwardRatio(forwardRatio)
+                        .build()
+                        .generate();
+
+                try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+                    Map<Long, Long> chainBytes = chainBytes(session);
+                    long inline = 0;
+                    for (Object[] row : session.createNativeQuery(
+                            "SELECT body_id, COUNT(*) FROM mails GROUP BY body_id", Object[].class).getResultList()) {
+                        inline += ((Number) row[1]).longValue() * chainBytes.get(((Number) row[0]).longValue());
+                    }
+                    Object[] stored = session.createNativeQuery(
+                            "SELECT COUNT(*), COALESCE(SUM(OCTET_LENGTH(body)), 0) FROM mail_bodies", Object[].class)
+                            .getSingleResult();
+                    long rows = ((Number) stored[0]).longValue();
+                    long storedBytes = ((Number) stored[1]).longValue() + rows * ROW_METADATA_BYTES;
+
+                    System.out.printf("%8.2f %9d %10d %12.1f %12.1f %7.1f%%%n",
+                            forwardRatio, data.getMailCount(), rows, inline / 1e6, storedBytes / 1e6,
+                            100.0 * (inline - storedBytes) / inline);
+                }
+            }
+            System.out.println(CompressedTextConverter.metrics());
+        } finally {
+            HibernateUtil.shutdown();
+        }
+    }
+
+    // Full text size of every body row, i.e. its own UTF-8 bytes plus those of the rows it continues in
+    private static Map<Long, Long> chainBytes(Session session) {
+        CompressedTextConverter converter = new CompressedTextConverter();
+        Map<Long, Long> ownBytes = new HashMap<>();
+        Map<Long, Long> nextIds = new HashMap<>();
+        for (Object[] row : session.createNativeQuery(
+                "SELECT id, body, next_id FROM mail_bodies", Object[].class).getResultList()) {
+            long id = ((Number) row[0]).longValue();
+            String text = converter.convertToEntityAttribute((byte[]) row[1]);
+            ownBytes.put(id, (long) text.getBytes(StandardCharsets.UTF_8).length);
+            if (row[2] != null) {
+                nextIds.put(id, ((Number) row[2]).longValue());
+            }
+        }
+
+        Map<Long, Long> total = new HashMap<>();
+        for (Long id : ownBytes.keySet()) {
+            // Memoized, so forwards of forwards do not walk the same chain again
+            long bytes = 0;
+            List<Long> pending = new ArrayList<>();
+            Long current = id;
+            while (current != null && !total.containsKey(current)) {
+                pending.add(current);
+                current = nextIds.get(current);
+            }
+            if (current != null) {
+                bytes = total.get(current);
+            }
+            for (int i = pending.size() - 1; i >= 0; i--) {
+                bytes += ownBytes.get(pending.get(i));
+                total.put(pending.get(i), bytes);
+            }
+        }
+        return total;
+    }
+
+    private static void clear() {
+        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+            session.beginTransaction();
+            for (String sql : new String[]{
+                    "DELETE FROM mail_recipients",
+                    "DELETE FROM mailbox_counters",
+                    "DELETE FROM mails",
+                    "UPDATE mail_bodies SET next_id = NULL",
+                    "DELETE FROM mail_bodies",
+                    "DELETE FROM users"}) {
+                session.createNativeQuery(sql).executeUpdate();
+            }
+            session.getTransaction().commit();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package aut.ap.bench;
+
+import aut.ap.mail.MailDto;
+import aut.ap.mail.MailService;
+import aut.ap.tools.GeneratedData;
+import aut.ap.tools.MailboxDataGenerator;
+import aut.ap.user.User;
+import aut.ap.util.HibernateUtil;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Session-per-operation latency under contention. SampleTime keeps the distribution, so
+// compare p99 between HikariCP and Hibernate's built-in pool, not just the mean.
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Threads(32)
+@Fork(value = 1, jvmArgsAppend = "-Dmilou.hibernate.config=hibernate-bench.cfg.xml")
+@State(Scope.Benchmark)
+public class ConnectionPoolBenchmark {
+    private static final String BUILTIN_POOL_CONFIG = "hibernate-bench-builtin-pool.cfg.xml";
+
+    @Param({"hikari", "builtin"})
+    public String pool;
+
+    private final MailService mailService = new MailService();
+    private SessionFactory sessionFactory;
+    private User probe;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if ("hikari".equals(pool)) {
+            sessionFactory = HibernateUtil.getSessionFactory();
+        } else {
+            // Each @Param value runs in its own fork, so the two pools never share a JVM
+            sessionFactory = new Configuration().configure(BUILTIN_POOL_CONFIG).buildSessionFactory();
+        }
+        GeneratedData data = MailboxDataGenerator.builder()
+                .users(500)
+                .mails(2_200)
+                .probeMailboxSize(200)
+                .build()
+                .generate(sessionFactory);
+        try (Session session = sessionFactory.openSession()) {
+            probe = session.get(User.class, data.getProbeUserId());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if ("hikari".equals(pool)) {
+            System.out.println(HibernateUtil.getPoolMetrics());
+            HibernateUtil.shutdown();
+        } else {
+            sessionFactory.close();
+        }
+    }
+
+    @Benchmark
+    public List<MailDto> inboxPageUnderContention() {
+        try (Session session = sessionFactory.openSession()) {
+            return mailService.getInboxPage(probe, null, 20, session).getMails();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package aut.ap.bench;
+
+import aut.ap.list.DistributionList;
+import aut.ap.list.DistributionListService;
+import aut.ap.mail.MailService;
+import aut.ap.mail.OutboxDispatcher;
+import aut.ap.tools.GeneratedData;
+import aut.ap.tools.MailboxDataGenerator;
+import aut.ap.user.User;
+import aut.ap.util.HibernateUtil;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+import java.time.Duration;
+import java.util.List;
+
+// Sends one mail to a list of `members` users and times OutboxDispatcher expanding it, once
+// per chunk size. Runs against the in-memory benchmark database unless milou.hibernate.config
+// says otherwise, and empties the mail tables before every run. In-memory H2 has no network
+// round trips, disk flushes or lock waits, so its numbers compare chunk sizes with each
+// other; point milou.hibernate.config at MySQL for production throughput.
+//
+// Usage: ListFanOutReport [members=100000] [chunk sizes=1000,5000,20000]
+public final class ListFanOutReport {
+    private ListFanOutReport() {
+    }
+
+    public static void main(String[] args) {
+        int members = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        String[] chunkSizes = (args.length > 1 ? args[1] : "1000,5000,20000").split(",");
+        if (System.getProperty("milou.hibernate.config") == null) {
+            System.setProperty("milou.hibernate.config", "hibernate-bench.cfg.xml");
+        }
+
+        try {
+            SessionFactory sessionFactory = HibernateUtil.getSessionFactory();
+            clear(true);
+            // One more user than members: the first one owns the list and sends to it
+            GeneratedData data = MailboxDataGenerator.builder()
+                    .users(members + 1)
+                    .mails(0)
+                    .build()
+                    .generate();
+
+            DistributionList list;
+            User sender;
+            try (Session session = sessionFactory.openSession()) {
+                sender = session.get(User.class, data.getFirstUserId());
+                list = new DistributionListService().createList(sender, "fanout@milou.com", "Fan-out", session);
+                session.beginTransaction();
+                session.createNativeQuery(
+                                "INSERT INTO distribution_list_members (list_id, user_id) " +
+                                        "SELECT :listId, id FROM users WHERE id <> :senderId")
+                        .setParameter("listId", list.getId())
+                        .setParameter("senderId", sender.getId())
+                        .executeUpdate();
+                session.getTransaction().commit();
+            }
+
+            System.out.printf("%8s %10s %10s %12s %12s%n", "chunk", "rows", "total ms", "rows/s", "ms/chunk");
+            for (String value : chunkSizes) {
+                int chunkSize = Integer.parseInt(value.trim());
+                clear(false);
+                try (Session session = sessionFactory.openSession()) {
+                    MailService mailService = new MailService();
+                    mailService.sendMail(sender, List.of(), List.of(list), "Fan-out", "Hello, everyone.", session);
+                }
+
+                try (OutboxDispatcher dispatcher = new OutboxDispatcher(
+                        sessionFactory, 100, 4, chunkSize, Duration.ofSeconds(1))) {
+                    long started = System.nanoTime();
+                    dispatcher.drain();
+                    long elapsedNanos = System.nanoTime() - started;
+
+                    long rows = dispatcher.getMetrics().getDeliveredRows();
+                    int chunks = (int) ((rows + chunkSize - 1) / chunkSize) + 1;
+                    System.out.printf("%8d %10d %10d %12.0f %12.1f%n",
+                            chunkSize, rows, elapsedNanos / 1_000_000,
+                            rows / (elapsedNanos / 1e9), elapsedNanos / 1e6 / chunks);
+                }
+            }
+        } finally {
+            HibernateUtil.shutdown();
+        }
+    }
+
+    private static void clear(boolean everything) {
+        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+            session.beginTransaction();
+            for (String sql : new String[]{
+                    "DELETE FROM mail_outbox",
+                    "DELETE FROM mail_recipients",
+                    "DELETE FROM mail_lists",
+                    "UPDATE mailbox_counters SET inbox_count = 0, unread_count = 0",
+                    "DELETE FROM mails",
+                    "UPDATE mail_bodies SET next_id = NULL",
+                    "DELETE FROM mail_bodies"}) {
+                session.createNativeQuery(sql).executeUpdate();
+            }
+            if (everything) {
+                for (String sql : new String[]{
+                        "DELETE FROM distribution_list_members",
+                        "DELETE FROM distribution_lists",
+                        "DELETE FROM mailbox_counters",
+                        "DELETE FROM users"}) {
+                    session.createNativeQuery(sql).executeUpdate();
+                }
+            }
+            session.getTransaction().commit();
+        }
+    }
+}
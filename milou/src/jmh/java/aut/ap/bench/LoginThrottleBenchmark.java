@@ -0,0 +1,85 @@
+package aut.ap.bench;
+
+import aut.ap.user.LoginThrottle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// What LoginThrottle adds to a login, on one thread and with all cores hitting the same
+// counters: the check every attempt makes, and the count a failed one adds. Limits are high
+// enough that nothing is rejected; rejectedClient measures a client already over its limit.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoginThrottleBenchmark {
+    @Param({"1024", "65536"})
+    public int width;
+
+    private LoginThrottle throttle;
+    private LoginThrottle exhausted;
+    private String[] emails;
+    private String[] clients;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        throttle = new LoginThrottle(Integer.MAX_VALUE, Integer.MAX_VALUE, Duration.ofMinutes(10), width);
+        exhausted = new LoginThrottle(1, 1, Duration.ofMinutes(10), width);
+        exhausted.recordFailure("someone@milou.com", "10.0.0.1");
+        emails = new String[4096];
+        clients = new String[256];
+        for (int i = 0; i < emails.length; i++) {
+            emails[i] = "generated.user" + i + "@milou.com";
+        }
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = "10.0." + (i / 256) + "." + (i % 256);
+        }
+    }
+
+    @Benchmark
+    public boolean tryAcquire() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return throttle.tryAcquire(emails[random.nextInt(emails.length)], clients[random.nextInt(clients.length)]);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean tryAcquireAllCores() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return throttle.tryAcquire(emails[random.nextInt(emails.length)], clients[random.nextInt(clients.length)]);
+    }
+
+    @Benchmark
+    public void recordFailure() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        throttle.recordFailure(emails[random.nextInt(emails.length)], clients[random.nextInt(clients.length)]);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void recordFailureAllCores() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        throttle.recordFailure(emails[random.nextInt(emails.length)], clients[random.nextInt(clients.length)]);
+    }
+
+    @Benchmark
+    public boolean rejectedClient() {
+        return exhausted.tryAcquire(emails[ThreadLocalRandom.current().nextInt(emails.length)], "10.0.0.1");
+    }
+}
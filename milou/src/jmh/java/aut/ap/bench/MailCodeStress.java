@@ -0,0 +1,99 @@
+package aut.ap.bench;
+
+import aut.ap.mail.SnowflakeCodeGenerator;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Generates codes from many threads against one generator and proves there are no
+// duplicates. Every code is case-folded, as mails.code compares it, decoded back to its id
+// and its (millisecond, sequence) slot is claimed in a concurrent bitmap, so 100M codes need
+// tens of megabytes, not gigabytes.
+//
+// Usage: MailCodeStress [codes=100000000] [threads=available processors]
+public final class MailCodeStress {
+    private static final int SEQUENCE_BITS = 12;
+    private static final int NODE_AND_SEQUENCE_BITS = 22;
+    private static final int CHUNK_BITS = 26;
+
+    private MailCodeStress() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long codes = args.length > 0 ? Long.parseLong(args[0]) : 100_000_000L;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        SnowflakeCodeGenerator generator = new SnowflakeCodeGenerator(1);
+        long firstMillis = SnowflakeCodeGenerator.decode(generator.nextCode()) >>> NODE_AND_SEQUENCE_BITS;
+        ConcurrentBitmap seen = new ConcurrentBitmap();
+        AtomicLong duplicates = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+
+        for (int t = 0; t < threads; t++) {
+            long share = codes / threads + (t < codes % threads ? 1 : 0);
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (long i = 0; i < share; i++) {
+                    long id = SnowflakeCodeGenerator.decode(generator.nextCode().toLowerCase(Locale.ROOT));
+                    long millis = id >>> NODE_AND_SEQUENCE_BITS;
+                    long slot = ((millis - firstMillis) << SEQUENCE_BITS) | (id & ((1L << SEQUENCE_BITS) - 1));
+                    if (!seen.setIfAbsent(slot)) {
+                        duplicates.incrementAndGet();
+                    }
+                }
+            }, "code-stress-" + t);
+            workers[t].start();
+        }
+
+        long started = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+
+        System.out.printf("%,d codes on %d threads in %.1f s (%,.0f codes/s), %d duplicates%n",
+                codes, threads, seconds, codes / seconds, duplicates.get());
+        if (duplicates.get() > 0) {
+            System.exit(1);
+        }
+    }
+
+    // Bitmap split into lazily allocated chunks so its size need not be known up front
+    private static final class ConcurrentBitmap {
+        private final AtomicReferenceArray<AtomicLongArray> chunks = new AtomicReferenceArray<>(1 << 16);
+
+        boolean setIfAbsent(long bit) {
+            AtomicLongArray chunk = chunk((int) (bit >>> CHUNK_BITS));
+            int word = (int) ((bit & ((1L << CHUNK_BITS) - 1)) >>> 6);
+            long mask = 1L << (bit & 63);
+            while (true) {
+                long current = chunk.get(word);
+                if ((current & mask) != 0) {
+                    return false;
+                }
+                if (chunk.compareAndSet(word, current, current | mask)) {
+                    return true;
+                }
+            }
+        }
+
+        private AtomicLongArray chunk(int index) {
+            AtomicLongArray chunk = chunks.get(index);
+            if (chunk == null) {
+                chunks.compareAndSet(index, null, new AtomicLongArray(1 << (CHUNK_BITS - 6)));
+                chunk = chunks.get(index);
+            }
+            return chunk;
+        }
+    }
+}
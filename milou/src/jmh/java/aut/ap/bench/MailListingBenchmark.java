@@ -0,0 +1,125 @@
+package aut.ap.bench;
+
+import aut.ap.mail.Mail;
+import aut.ap.mail.MailDto;
+import aut.ap.mail.MailPage;
+import aut.ap.mail.MailService;
+import aut.ap.tools.GeneratedData;
+import aut.ap.tools.MailboxDataGenerator;
+import aut.ap.user.User;
+import aut.ap.util.HibernateUtil;
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Folder listing cost against mailbox size: the single-query projection, its first
+// keyset page, and the pre-projection entity walk with one is_read lookup per mail.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dmilou.hibernate.config=hibernate-bench.cfg.xml")
+@State(Scope.Benchmark)
+public class MailListingBenchmark {
+    @Param({"10", "1000", "50000"})
+    public int mailboxSize;
+
+    private final MailService mailService = new MailService();
+    private User probe;
+    private Session session;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        GeneratedData data = MailboxDataGenerator.builder()
+                .users(2_000)
+                .mails(mailboxSize + 20_000)
+                .probeMailboxSize(mailboxSize)
+                .build()
+                .generate();
+        try (Session setupSession = HibernateUtil.getSessionFactory().openSession()) {
+            probe = setupSession.get(User.class, data.getProbeUserId());
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void openSession() {
+        session = HibernateUtil.getSessionFactory().openSession();
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeSession() {
+        session.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        HibernateUtil.shutdown();
+    }
+
+    @Benchmark
+    public List<MailDto> inboxProjection(StatementCounter counter) {
+        return mailService.getInboxDtos(probe, session);
+    }
+
+    @Benchmark
+    public MailPage inboxFirstPage(StatementCounter counter) {
+        return mailService.getInboxPage(probe, null, 50, session);
+    }
+
+    @Benchmark
+    public List<MailDto> inboxLegacyEntities(StatementCounter counter) {
+        List<MailDto> dtos = new ArrayList<>();
+        for (Mail mail : legacyInbox(probe, session)) {
+            boolean isRead = true;
+            if (mail.getRecipients().contains(probe)) {
+                isRead = legacyIsRead(mail.getId(), probe.getId(), session);
+            }
+            dtos.add(MailDto.builder()
+                    .id(mail.getId())
+                    .code(mail.getCode())
+                    .subject(mail.getSubject())
+                    .senderName(mail.getSender().getName())
+                    .senderEmail(mail.getSender().getEmail())
+                    .sentDate(mail.getSentDate())
+                    .isRead(isRead)
+                    .isDeleted(mail.isDeleted())
+                    .build());
+        }
+        return dtos;
+    }
+
+    // The entity queries the folder listings used before the projections, kept as the baseline
+    private static List<Mail> legacyInbox(User user, Session session) {
+        return session.createQuery(
+                        "SELECT DISTINCT mr.mail FROM MailRecipient mr " +
+                                "WHERE mr.recipient = :user AND mr.mail.isDeleted = false " +
+                                "ORDER BY mr.mail.sentDate DESC", Mail.class)
+                .setParameter("user", user)
+                .getResultList();
+    }
+
+    private static boolean legacyIsRead(int mailId, int userId, Session session) {
+        Boolean isRead = session.createQuery(
+                        "SELECT mr.isRead FROM MailRecipient mr " +
+                                "WHERE mr.mail.id = :mailId AND mr.recipient.id = :userId", Boolean.class)
+                .setParameter("mailId", mailId)
+                .setParameter("userId", userId)
+                .uniqueResult();
+        return isRead != null && isRead;
+    }
+}
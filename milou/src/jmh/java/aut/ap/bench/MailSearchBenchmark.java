@@ -0,0 +1,92 @@
+package aut.ap.bench;
+
+import aut.ap.search.MailSearchIndex;
+import aut.ap.search.SearchHits;
+import aut.ap.tools.MailboxDataGenerator;
+import aut.ap.tools.SyntheticText;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Query latency of the Lucene index alone, on a synthetic corpus written straight into a
+// temporary directory. No database is involved.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MailSearchBenchmark {
+    private static final int OWNERS = 1_000;
+
+    @Param({"100000", "1000000"})
+    public int corpusSize;
+
+    private Path indexDirectory;
+    private MailSearchIndex index;
+    private final Random random = new Random(5L);
+
+    @Setup(Level.Trial)
+    public void buildCorpus() throws IOException {
+        indexDirectory = Files.createTempDirectory("milou-search-bench");
+        index = new MailSearchIndex(indexDirectory);
+        Random corpusRandom = new Random(42L);
+        for (int mailId = 1; mailId <= corpusSize; mailId++) {
+            int sender = 1 + corpusRandom.nextInt(OWNERS);
+            List<Integer> owners = List.of(sender,
+                    1 + corpusRandom.nextInt(OWNERS), 1 + corpusRandom.nextInt(OWNERS));
+            index.index(mailId, SyntheticText.subject(corpusRandom),
+                    SyntheticText.body(corpusRandom, 40 + corpusRandom.nextInt(200)),
+                    "Generated User " + sender, MailboxDataGenerator.email(sender),
+                    owners);
+        }
+        index.commit();
+        index.refresh();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteCorpus() throws IOException {
+        index.close();
+        try (Stream<Path> files = Files.walk(indexDirectory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public SearchHits commonTerm() {
+        return index.search(nextOwner(), SyntheticText.commonWord(), 0, 50);
+    }
+
+    @Benchmark
+    public SearchHits rareTerm() {
+        return index.search(nextOwner(), SyntheticText.rareWord(), 0, 50);
+    }
+
+    @Benchmark
+    public SearchHits twoTermsSecondPage() {
+        return index.search(nextOwner(), SyntheticText.commonWord() + " " + SyntheticText.rareWord(), 50, 50);
+    }
+
+    private int nextOwner() {
+        return 1 + random.nextInt(OWNERS);
+    }
+}
@@ -0,0 +1,114 @@
+package aut.ap.bench;
+
+import aut.ap.mail.Mail;
+import aut.ap.mail.MailService;
+import aut.ap.mail.OutboxDispatcher;
+import aut.ap.tools.GeneratedData;
+import aut.ap.tools.MailboxDataGenerator;
+import aut.ap.user.User;
+import aut.ap.util.HibernateUtil;
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// End-to-end MailService calls on a seeded database: sending, opening by code and a
+// trash round trip. sendMail is what the sender waits for (mail plus outbox entry);
+// sendAndDeliver adds the dispatcher's fan-out to the recipients. Statement counts come
+// from Hibernate statistics.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dmilou.hibernate.config=hibernate-bench.cfg.xml")
+@State(Scope.Benchmark)
+public class MailServiceBenchmark {
+    @Param({"1", "10", "50"})
+    public int recipients;
+
+    private final MailService mailService = new MailService();
+    private final Random random = new Random(7L);
+    private GeneratedData data;
+    private User probe;
+    private List<User> recipientUsers;
+    private Session session;
+    private OutboxDispatcher dispatcher;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        data = MailboxDataGenerator.builder()
+                .users(1_000)
+                .mails(11_000)
+                .probeMailboxSize(1_000)
+                .build()
+                .generate();
+        try (Session setupSession = HibernateUtil.getSessionFactory().openSession()) {
+            probe = setupSession.get(User.class, data.getProbeUserId());
+            recipientUsers = setupSession.createQuery("FROM User u WHERE u.id <> :probeId ORDER BY u.id", User.class)
+                    .setParameter("probeId", probe.getId())
+                    .setMaxResults(recipients)
+                    .getResultList();
+        }
+        // Not started: sendAndDeliver drains it on the benchmark thread
+        dispatcher = new OutboxDispatcher(HibernateUtil.getSessionFactory(), 100, 4, Duration.ofMillis(200));
+    }
+
+    @Setup(Level.Invocation)
+    public void openSession() {
+        session = HibernateUtil.getSessionFactory().openSession();
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeSession() {
+        session.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        dispatcher.close();
+        HibernateUtil.shutdown();
+    }
+
+    @Benchmark
+    public Mail sendMail(StatementCounter counter) {
+        return mailService.sendMail(probe, recipientUsers, "Benchmark subject",
+                "Benchmark body for the send path.", session);
+    }
+
+    @Benchmark
+    public int sendAndDeliver(StatementCounter counter) {
+        mailService.sendMail(probe, recipientUsers, "Benchmark subject",
+                "Benchmark body for the send path.", session);
+        return dispatcher.drain();
+    }
+
+    @Benchmark
+    public Optional<Mail> getMailByCode(StatementCounter counter) {
+        List<String> codes = data.getProbeMailCodes();
+        return mailService.getMailByCode(codes.get(random.nextInt(codes.size())), probe, session);
+    }
+
+    @Benchmark
+    public void trashRoundTrip(StatementCounter counter) {
+        List<Integer> mailIds = data.getProbeMailIds();
+        int mailId = mailIds.get(random.nextInt(mailIds.size()));
+        mailService.moveToTrash(mailId, probe, session);
+        mailService.restoreFromTrash(mailId, probe, session);
+    }
+}
@@ -0,0 +1,102 @@
+package aut.ap.bench;
+
+import aut.ap.user.LegacySha256PasswordEngine;
+import aut.ap.user.PasswordHasher;
+import aut.ap.user.Pbkdf2PasswordEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Password checks per second. The single-threaded methods are logins/sec on one core; the
+// Threads.MAX ones divided by the number of cores show how far that scales. pooledVerify goes
+// through PasswordHasher's bounded pool as UserService.loginUser does, so with more benchmark
+// threads than cores it measures the queueing as well.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PasswordHashBenchmark {
+    private static final String PASSWORD = "Generated1";
+
+    @Param({"210000", "600000"})
+    public int iterations;
+
+    private Pbkdf2PasswordEngine engine;
+    private ThreadPoolExecutor pool;
+    private PasswordHasher pooled;
+    private String pbkdf2Hash;
+    private String legacyHash;
+    private final LegacySha256PasswordEngine legacy = new LegacySha256PasswordEngine();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        engine = new Pbkdf2PasswordEngine(iterations);
+        pbkdf2Hash = engine.hash(PASSWORD.toCharArray());
+        // Built the way the old PasswordHasher did
+        byte[] salt = new byte[16];
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(salt);
+        legacyHash = Base64.getEncoder().encodeToString(salt) + ":"
+                + Base64.getEncoder().encodeToString(digest.digest(PASSWORD.getBytes()));
+        pool = newPool();
+        pooled = new PasswordHasher(engine, pool);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    private static ThreadPoolExecutor newPool() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 32), runnable -> {
+            Thread thread = new Thread(runnable, "password-hasher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean verifySingleThread() {
+        return engine.verify(PASSWORD.toCharArray(), pbkdf2Hash);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean verifyAllCores() {
+        return engine.verify(PASSWORD.toCharArray(), pbkdf2Hash);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean pooledVerify() {
+        return pooled.verifyPassword(PASSWORD, pbkdf2Hash);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean legacyVerify() {
+        return legacy.verify(PASSWORD.toCharArray(), legacyHash);
+    }
+}
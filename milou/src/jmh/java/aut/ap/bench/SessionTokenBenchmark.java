@@ -0,0 +1,72 @@
+package aut.ap.bench;
+
+import aut.ap.user.SessionToken;
+import aut.ap.user.SessionTokenService;
+import aut.ap.user.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Token checks against an in-memory store of `sessions` live sessions, valid and tampered.
+// Run with -prof gc to see the allocation per check.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionTokenBenchmark {
+    @Param({"1000", "100000"})
+    public int sessions;
+
+    private SessionTokenService service;
+    private String[] tokens;
+    private String[] tampered;
+
+    @Setup(Level.Trial)
+    public void issue() {
+        byte[] key = new byte[32];
+        ThreadLocalRandom.current().nextBytes(key);
+        service = new SessionTokenService(null, key, Duration.ofHours(12));
+        tokens = new String[sessions];
+        tampered = new String[sessions];
+        for (int i = 0; i < sessions; i++) {
+            User user = new User("User " + i, "user" + i + "@milou.com", "");
+            String token = service.issue(user, null).getToken();
+            tokens[i] = token;
+            // Same id, last character changed: found in the store, rejected by the comparison
+            char last = token.charAt(token.length() - 1);
+            tampered[i] = token.substring(0, token.length() - 1) + (last == 'A' ? 'B' : 'A');
+        }
+    }
+
+    @Benchmark
+    public SessionToken validate() {
+        return service.validate(tokens[ThreadLocalRandom.current().nextInt(sessions)]);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public SessionToken validateAllCores() {
+        return service.validate(tokens[ThreadLocalRandom.current().nextInt(sessions)]);
+    }
+
+    @Benchmark
+    public SessionToken rejectTampered() {
+        return service.validate(tampered[ThreadLocalRandom.current().nextInt(sessions)]);
+    }
+}
@@ -0,0 +1,237 @@
+package aut.ap.bench;
+
+import aut.ap.search.MailSearchIndex;
+import aut.ap.smtp.SmtpServer;
+import aut.ap.tools.GeneratedData;
+import aut.ap.tools.MailboxDataGenerator;
+import aut.ap.tools.SyntheticText;
+import aut.ap.user.UserService;
+import aut.ap.util.HibernateUtil;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+// Closed-loop SMTP load: `clients` connections, each signed in with AUTH PLAIN as its own
+// generated user and sending messages back to back for `seconds`. Every message is one pipelined MAIL/RCPT.../DATA group followed by the content,
+// so a message costs two round trips however many recipients it has. Prints messages/sec,
+// latency percentiles from the first command to the final reply, and how often each final
+// reply code came back (451 is the server shedding load). Starts SmtpServer in-process on the
+// benchmark database with generated users, unless milou.hibernate.config says otherwise.
+//
+// Usage: SmtpLoadGenerator [clients=32] [seconds=30] [recipients=3] [body words=300] [users=2000]
+public final class SmtpLoadGenerator {
+    private SmtpLoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int recipients = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        int bodyWords = args.length > 3 ? Integer.parseInt(args[3]) : 300;
+        int users = args.length > 4 ? Integer.parseInt(args[4]) : 2_000;
+        if (System.getProperty("milou.hibernate.config") == null) {
+            System.setProperty("milou.hibernate.config", "hibernate-bench.cfg.xml");
+        }
+        if (System.getProperty("milou.index.dir") == null) {
+            System.setProperty("milou.index.dir", Files.createTempDirectory("milou-index").toString());
+        }
+
+        GeneratedData data = MailboxDataGenerator.builder().users(users).mails(0).build().generate();
+        UserService userService = new UserService();
+        try (SmtpServer server = SmtpServer.builder()
+                .address(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+                .userService(userService)
+                .maxConnections(Math.max(clients, 1))
+                .build()) {
+            server.start();
+            InetSocketAddress address = server.getAddress();
+
+            long[][] latencies = new long[clients][];
+            Map<String, LongAdder> replies = new ConcurrentHashMap<>();
+            CountDownLatch ready = new CountDownLatch(clients);
+            CountDownLatch start = new CountDownLatch(1);
+            long[] deadline = new long[1];
+            List<Thread> threads = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                int client = c;
+                Thread thread = new Thread(() -> {
+                    try {
+                        latencies[client] = runClient(address, data, client, recipients, bodyWords,
+                                ready, start, deadline, replies);
+                    } catch (Exception e) {
+                        throw new RuntimeException("Client " + client + " failed", e);
+                    }
+                }, "smtp-client-" + c);
+                threads.add(thread);
+                thread.start();
+            }
+
+            ready.await();
+            long started = System.nanoTime();
+            deadline[0] = started + seconds * 1_000_000_000L;
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            double elapsedSeconds = (System.nanoTime() - started) / 1e9;
+
+            long[] all = new long[0];
+            for (long[] perClient : latencies) {
+                if (perClient != null) {
+                    int length = all.length;
+                    all = Arrays.copyOf(all, length + perClient.length);
+                    System.arraycopy(perClient, 0, all, length, perClient.length);
+                }
+            }
+            Arrays.sort(all);
+            System.out.printf("%d clients, %d recipients, %d body words, %d s%n", clients, recipients, bodyWords, seconds);
+            System.out.printf("final replies %s%n", new TreeMap<>(replies));
+            if (all.length > 0) {
+                System.out.printf("%9s %9s %9s %9s %9s %9s %9s%n",
+                        "messages", "msg/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+                System.out.printf("%9d %9.0f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                        all.length, all.length / elapsedSeconds,
+                        percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99),
+                        percentile(all, 0.999), all[all.length - 1] / 1e6);
+            }
+        } finally {
+            MailSearchIndex.shutdownDefault();
+            HibernateUtil.shutdown();
+        }
+    }
+
+    // Returns one latency in nanoseconds per message that got a final reply
+    private static long[] runClient(InetSocketAddress address, GeneratedData data, int client, int recipients,
+                                    int bodyWords, CountDownLatch ready, CountDownLatch start, long[] deadline,
+                                    Map<String, LongAdder> replies) throws Exception {
+        Random random = new Random(client);
+        int senderId = data.getFirstUserId() + client % data.getUserCount();
+        byte[] content = message(client, SyntheticText.subject(random), SyntheticText.body(random, bodyWords));
+
+        long[] latencies = new long[1024];
+        int count = 0;
+        Socket socket;
+        try {
+            socket = new Socket(address.getAddress(), address.getPort());
+        } catch (IOException e) {
+            ready.countDown();
+            throw e;
+        }
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            OutputStream out = socket.getOutputStream();
+            // Counted down even when the setup fails, so one refused client cannot hang the run
+            try {
+                expect(in, "220");
+                out.write(("EHLO load-client-" + client + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                expect(in, "250");
+                String credentials = "\0" + MailboxDataGenerator.email(senderId) + "\0" + MailboxDataGenerator.PASSWORD;
+                out.write(("AUTH PLAIN " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8))
+                        + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                expect(in, "235");
+            } finally {
+                ready.countDown();
+            }
+            start.await();
+
+            while (System.nanoTime() < deadline[0]) {
+                StringBuilder envelope = new StringBuilder(64 * (recipients + 2));
+                envelope.append("MAIL FROM:<").append(MailboxDataGenerator.email(senderId))
+                        .append("> SIZE=").append(content.length).append("\r\n");
+                for (int r = 0; r < recipients; r++) {
+                    int recipientId = senderId;
+                    while (recipientId == senderId) {
+                        recipientId = data.getFirstUserId() + random.nextInt(data.getUserCount());
+                    }
+                    envelope.append("RCPT TO:<").append(MailboxDataGenerator.email(recipientId)).append(">\r\n");
+                }
+                envelope.append("DATA\r\n");
+
+                long started = System.nanoTime();
+                out.write(envelope.toString().getBytes(StandardCharsets.ISO_8859_1));
+                String last = null;
+                for (int r = 0; r < recipients + 2; r++) {
+                    last = in.readLine();
+                }
+                String reply;
+                if (last != null && last.startsWith("354")) {
+                    out.write(content);
+                    reply = in.readLine();
+                } else {
+                    // Refused before DATA; start the next message from a clean transaction
+                    reply = last;
+                    out.write("RSET\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                    in.readLine();
+                }
+                long latency = System.nanoTime() - started;
+                if (reply == null) {
+                    throw new IOException("Server closed the connection");
+                }
+                replies.computeIfAbsent(reply.substring(0, 3), code -> new LongAdder()).increment();
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = latency;
+            }
+            out.write("QUIT\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            in.readLine();
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    // Headers, body wrapped to 76 columns and dot-stuffed, and the terminating dot
+    private static byte[] message(int client, String subject, String body) {
+        StringBuilder text = new StringBuilder(body.length() + 256);
+        text.append("From: load-client-").append(client).append("\r\n");
+        text.append("Subject: ").append(subject).append("\r\n\r\n");
+        int lineStart = text.length();
+        for (String word : body.split(" ")) {
+            if (text.length() - lineStart + word.length() > 76) {
+                text.append("\r\n");
+                lineStart = text.length();
+            } else if (text.length() > lineStart) {
+                text.append(' ');
+            }
+            if (text.length() == lineStart && word.startsWith(".")) {
+                text.append('.');
+            }
+            text.append(word);
+        }
+        text.append("\r\n.\r\n");
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void expect(BufferedReader in, String code) throws IOException {
+        String line;
+        do {
+            line = in.readLine();
+            if (line == null || !line.startsWith(code)) {
+                throw new IOException("Expected " + code + " but got " + line);
+            }
+        } while (line.length() > 3 && line.charAt(3) == '-');
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
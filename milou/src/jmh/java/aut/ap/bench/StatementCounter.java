@@ -0,0 +1,28 @@
+package aut.ap.bench;
+
+import aut.ap.util.HibernateUtil;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// Reports JDBC statements per operation next to the timing. Only meaningful with one
+// benchmark thread, since Hibernate statistics are factory-wide.
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class StatementCounter {
+    public long statements;
+    private long before;
+
+    @Setup(Level.Invocation)
+    public void mark() {
+        before = HibernateUtil.getStatistics().getPrepareStatementCount();
+    }
+
+    @TearDown(Level.Invocation)
+    public void record() {
+        statements += HibernateUtil.getStatistics().getPrepareStatementCount() - before;
+    }
+}
@@ -0,0 +1,150 @@
+package aut.ap.bench;
+
+import aut.ap.mail.Mail;
+import aut.ap.mail.MailboxCounterRepository;
+import aut.ap.mail.MailService;
+import aut.ap.tools.GeneratedData;
+import aut.ap.tools.MailboxDataGenerator;
+import aut.ap.user.User;
+import aut.ap.util.HibernateUtil;
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Trashing `batch` inbox mails: the former load-authorize-select-update path once per mail,
+// the set-based single-mail call once per mail, and one bulk call for all of them.
+// Every invocation starts from an untouched inbox.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dmilou.hibernate.config=hibernate-bench.cfg.xml")
+@State(Scope.Benchmark)
+public class TrashBenchmark {
+    @Param({"1", "50"})
+    public int batch;
+
+    private final MailService mailService = new MailService();
+    private final MailboxCounterRepository counterRepository = new MailboxCounterRepository();
+    private User probe;
+    private List<Integer> mailIds;
+    private Session session;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        GeneratedData data = MailboxDataGenerator.builder()
+                .users(1_000)
+                .mails(10_000)
+                .probeMailboxSize(500)
+                .build()
+                .generate();
+        mailIds = data.getProbeMailIds().subList(0, batch);
+        try (Session setupSession = HibernateUtil.getSessionFactory().openSession()) {
+            probe = setupSession.get(User.class, data.getProbeUserId());
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void restoreInbox() {
+        session = HibernateUtil.getSessionFactory().openSession();
+        session.beginTransaction();
+        session.createNativeQuery(
+                        "UPDATE mail_recipients SET is_deleted = false, deleted_at = NULL " +
+                                "WHERE recipient_id = :userId AND mail_id IN (:mailIds)")
+                .setParameter("userId", probe.getId())
+                .setParameterList("mailIds", mailIds)
+                .executeUpdate();
+        counterRepository.reconcile(probe.getId(), session);
+        session.getTransaction().commit();
+        session.clear();
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeSession() {
+        session.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        HibernateUtil.shutdown();
+    }
+
+    @Benchmark
+    public void loadThenUpdate(StatementCounter counter) {
+        session.beginTransaction();
+        for (Integer mailId : mailIds) {
+            legacyMoveToTrash(mailId);
+        }
+        session.getTransaction().commit();
+    }
+
+    @Benchmark
+    public void setBasedPerMail(StatementCounter counter) {
+        session.beginTransaction();
+        for (Integer mailId : mailIds) {
+            mailService.moveToTrash(mailId, probe, session);
+        }
+        session.getTransaction().commit();
+    }
+
+    @Benchmark
+    public int setBasedBulk(StatementCounter counter) {
+        return mailService.moveToTrash(mailIds, probe, session);
+    }
+
+    // The path MailService.moveToTrash took before it became set-based
+    private void legacyMoveToTrash(int mailId) {
+        Mail mail = session.get(Mail.class, mailId);
+        boolean isSender = mail.getSender().getId() == probe.getId();
+        boolean isRecipient = mail.getRecipients().stream().anyMatch(r -> r.getId() == probe.getId());
+        if (!isSender && !isRecipient) {
+            throw new SecurityException("No access to mail " + mailId);
+        }
+
+        counterRepository.beforeTrash(probe.getId(), List.of(mailId), session);
+        Integer recipientRow = session.createNativeQuery(
+                        "SELECT 1 FROM mail_recipients WHERE mail_id = :mailId AND recipient_id = :userId", Integer.class)
+                .setParameter("mailId", mailId)
+                .setParameter("userId", probe.getId())
+                .uniqueResult();
+        if (recipientRow != null) {
+            session.createNativeQuery(
+                            "UPDATE mail_recipients SET is_deleted = true, deleted_at = NOW() " +
+                                    "WHERE mail_id = :mailId AND recipient_id = :userId AND is_deleted = false")
+                    .addSynchronizedEntityClass(Mail.class)
+                    .setParameter("mailId", mailId)
+                    .setParameter("userId", probe.getId())
+                    .executeUpdate();
+        }
+
+        Integer sentRow = session.createNativeQuery(
+                        "SELECT 1 FROM mails WHERE id = :mailId AND sender_id = :userId", Integer.class)
+                .setParameter("mailId", mailId)
+                .setParameter("userId", probe.getId())
+                .uniqueResult();
+        if (sentRow != null) {
+            session.createNativeQuery(
+                            "UPDATE mails SET is_deleted = true, deleted_at = NOW(), deleted_by_id = :userId " +
+                                    "WHERE id = :mailId AND is_deleted = false")
+                    .addSynchronizedEntityClass(Mail.class)
+                    .setParameter("mailId", mailId)
+                    .setParameter("userId", probe.getId())
+                    .executeUpdate();
+        }
+        session.flush();
+    }
+}
@@ -0,0 +1,91 @@
+package aut.ap.bench;
+
+import aut.ap.mail.MailValidation;
+import aut.ap.tools.GeneratedData;
+import aut.ap.tools.MailboxDataGenerator;
+import aut.ap.user.PasswordHasher;
+import aut.ap.user.User;
+import aut.ap.user.UserService;
+import aut.ap.util.HibernateUtil;
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dmilou.hibernate.config=hibernate-bench.cfg.xml")
+@State(Scope.Benchmark)
+public class UserBenchmark {
+    private final UserService userService = new UserService();
+    private final PasswordHasher passwordHasher = new PasswordHasher();
+    private final Random random = new Random(11L);
+    private GeneratedData data;
+    private String storedHash;
+    private List<User> recipientList;
+    private Session session;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        data = MailboxDataGenerator.builder().users(5_000).mails(1_000).build().generate();
+        storedHash = passwordHasher.hashPassword(MailboxDataGenerator.PASSWORD);
+        recipientList = new ArrayList<>();
+        for (int userId = 1; userId <= 20; userId++) {
+            recipientList.add(new User("User " + userId, MailboxDataGenerator.email(userId), storedHash));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void openSession() {
+        session = HibernateUtil.getSessionFactory().openSession();
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeSession() {
+        session.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdown() {
+        HibernateUtil.shutdown();
+    }
+
+    @Benchmark
+    public Optional<User> loginUser(StatementCounter counter) {
+        String email = MailboxDataGenerator.email(data.getFirstUserId() + random.nextInt(data.getUserCount()));
+        return userService.loginUser(email, MailboxDataGenerator.PASSWORD, session);
+    }
+
+    @Benchmark
+    public String hashPassword() {
+        return passwordHasher.hashPassword(MailboxDataGenerator.PASSWORD);
+    }
+
+    @Benchmark
+    public boolean verifyPassword() {
+        return passwordHasher.verifyPassword(MailboxDataGenerator.PASSWORD, storedHash);
+    }
+
+    @Benchmark
+    public List<User> validateRecipients() {
+        MailValidation.validateRecipients(recipientList);
+        return recipientList;
+    }
+}
@@ -1,14 +1,39 @@
 package aut.ap;
 
+import aut.ap.api.ApiServer;
 import aut.ap.graphic.Application;
+import aut.ap.mail.MailPurger;
+import aut.ap.mail.MailboxCounterReconciler;
+import aut.ap.mail.OutboxDispatcher;
+import aut.ap.search.MailSearchIndex;
+import aut.ap.smtp.SmtpServer;
+import aut.ap.user.PasswordHasher;
+import aut.ap.user.SessionTokenService;
 import aut.ap.user.User;
 import aut.ap.util.HibernateUtil;
 import org.hibernate.Session;
 
 import javax.swing.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class Main {
+    private static final long COUNTER_RECONCILE_HOURS = 6;
+    private static final long PURGE_HOURS = 24;
+    private static final int TRASH_RETENTION_DAYS = 30;
+    private static final long SESSION_PURGE_HOURS = 1;
+    private static final long INDEX_CATCH_UP_MINUTES = 10;
+    private static volatile OutboxDispatcher outboxDispatcher;
+    private static volatile ApiServer apiServer;
+    private static volatile SmtpServer smtpServer;
+
+    // With --api [port] and/or --smtp [port], serves the HTTP API or accepts mail over SMTP
+    // instead of opening the desktop client
     public static void main(String[] args) {
+        int apiPort = portOption(args, "--api", ApiServer.DEFAULT_PORT);
+        int smtpPort = portOption(args, "--smtp", SmtpServer.DEFAULT_PORT);
+        boolean headless = apiPort >= 0 || smtpPort >= 0;
         try {
             // Initialize Hibernate
             Session session = HibernateUtil.getSessionFactory().openSession();
@@ -21,6 +46,52 @@ public class Main {
                 session.close();
             }
 
+            // Mails are indexed as they are sent; the catch-up indexes everything on first start and
+            // afterwards whatever a crash or a failed write left out
+            MailSearchIndex searchIndex = MailSearchIndex.getDefault();
+            Runnable indexCatchUp = () -> {
+                try (Session indexSession = HibernateUtil.getSessionFactory().openSession()) {
+                    searchIndex.catchUp(indexSession);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            };
+
+            // Catch the search index up, repair any drift in the denormalized folder counters and
+            // empty old trash
+            ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "mailbox-maintenance");
+                thread.setDaemon(true);
+                return thread;
+            });
+            maintenance.scheduleWithFixedDelay(indexCatchUp, 0, INDEX_CATCH_UP_MINUTES, TimeUnit.MINUTES);
+            maintenance.scheduleWithFixedDelay(new MailboxCounterReconciler(),
+                    COUNTER_RECONCILE_HOURS, COUNTER_RECONCILE_HOURS, TimeUnit.HOURS);
+            maintenance.scheduleWithFixedDelay(new MailPurger(TRASH_RETENTION_DAYS, searchIndex),
+                    PURGE_HOURS, PURGE_HOURS, TimeUnit.HOURS);
+            SessionTokenService sessionTokens = SessionTokenService.getDefault();
+            maintenance.scheduleWithFixedDelay(sessionTokens::purgeExpired,
+                    SESSION_PURGE_HOURS, SESSION_PURGE_HOURS, TimeUnit.HOURS);
+
+            // Tune password hashing to this machine before the first sign-in needs it
+            PasswordHasher.defaultEngine();
+
+            // Deliver sent mails to their recipients; only one running client dispatches at a time
+            outboxDispatcher = new OutboxDispatcher();
+            outboxDispatcher.start();
+
+            if (headless) {
+                if (apiPort >= 0) {
+                    apiServer = ApiServer.create(apiPort);
+                    apiServer.start();
+                }
+                if (smtpPort >= 0) {
+                    smtpServer = SmtpServer.create(smtpPort);
+                    smtpServer.start();
+                }
+                return;
+            }
+
             // Start the application
             SwingUtilities.invokeLater(() -> {
                 Application app = new Application();
@@ -29,6 +100,9 @@ public class Main {
 
         } catch (Exception e) {
             e.printStackTrace();
+            if (headless) {
+                System.exit(1);
+            }
             JOptionPane.showMessageDialog(null,
                     "Failed to start application: " + e.getMessage(),
                     "Error", JOptionPane.ERROR_MESSAGE);
@@ -36,11 +110,33 @@ public class Main {
         } finally {
             // Ensure Hibernate is properly shutdown on exit
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                if (smtpServer != null) {
+                    smtpServer.close();
+                }
+                if (apiServer != null) {
+                    apiServer.close();
+                }
+                if (outboxDispatcher != null) {
+                    outboxDispatcher.close();
+                }
+                MailSearchIndex.shutdownDefault();
                 HibernateUtil.shutdown();
             }));
         }
     }
 
+    // The port after the flag, the default if none follows, or -1 without the flag
+    private static int portOption(String[] args, String flag, int defaultPort) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals(flag)) {
+                return i + 1 < args.length && !args[i + 1].startsWith("--")
+                        ? Integer.parseInt(args[i + 1])
+                        : defaultPort;
+            }
+        }
+        return -1;
+    }
+
     private static void insertTestData(Session session) {
         try {
             Long count = (Long) session.createQuery("SELECT COUNT(*) FROM User").uniqueResult();
@@ -0,0 +1,417 @@
+package aut.ap.api;
+
+import aut.ap.list.DistributionList;
+import aut.ap.list.DistributionListService;
+import aut.ap.mail.AddressResolver;
+import aut.ap.mail.Mail;
+import aut.ap.mail.MailDto;
+import aut.ap.mail.MailPage;
+import aut.ap.mail.MailService;
+import aut.ap.search.MailSearchIndex;
+import aut.ap.user.SessionToken;
+import aut.ap.user.TooManyAttemptsException;
+import aut.ap.user.User;
+import aut.ap.user.UserDirectory;
+import aut.ap.user.UserService;
+import aut.ap.util.HibernateUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// HTTP/JSON access to MailService and UserService for scripts, other services and load tests.
+// Each request runs on its own virtual thread (platform threads before JDK 21) with its own
+// Hibernate session, closed when the response is sent. Requests beyond maxInFlight wait
+// briefly and are then answered 503, so a burst queues here and not in the connection pool.
+//
+//   POST   /api/sessions                 {"email", "password"} -> {"token", "expiresAt", "user"}
+//   DELETE /api/sessions                 revokes the presented token
+//   GET    /api/folders/{folder}         inbox, sent, unread or trash; ?pageToken=&pageSize=
+//   POST   /api/mails                    {"to": [...], "subject", "body"} -> {"code"}
+//   GET    /api/mails/{code}
+//   POST   /api/mails/{code}/read | trash | restore
+//
+// Everything but POST /api/sessions needs "Authorization: Bearer <token>".
+public class ApiServer implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(ApiServer.class.getName());
+    public static final int DEFAULT_PORT = 8080;
+    public static final String HOST_PROPERTY = "milou.api.host";
+    private static final String PREFIX = "/api/";
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_REQUEST_BYTES = 1 << 20;
+    private static final long QUEUE_WAIT_MILLIS = 2_000;
+    private static final int STOP_DELAY_SECONDS = 2;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final SessionFactory sessionFactory;
+    private final MailService mailService;
+    private final UserService userService;
+    private final AddressResolver addressResolver;
+    private final Semaphore inFlight;
+
+    public ApiServer(InetSocketAddress address, SessionFactory sessionFactory, MailService mailService,
+                     UserService userService, AddressResolver addressResolver, int maxInFlight) throws IOException {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive.");
+        }
+        this.sessionFactory = sessionFactory;
+        this.mailService = mailService;
+        this.userService = userService;
+        this.addressResolver = addressResolver;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.executor = newRequestExecutor();
+        this.server = HttpServer.create(address, 0);
+        this.server.createContext(PREFIX, this::handle);
+        this.server.setExecutor(executor);
+    }
+
+    // Listens on the loopback interface unless -Dmilou.api.host names another
+    public static ApiServer create(int port) throws IOException {
+        String host = System.getProperty(HOST_PROPERTY);
+        InetSocketAddress address = host != null
+                ? new InetSocketAddress(host, port)
+                : new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        return new ApiServer(address, HibernateUtil.getSessionFactory(),
+                new MailService(MailSearchIndex.getDefault()), new UserService(),
+                new AddressResolver(new UserDirectory(), new DistributionListService()), 64);
+    }
+
+    public void start() {
+        server.start();
+        logger.info("API listening on " + server.getAddress());
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    // Virtual threads where the JDK has them, without making JDK 21 a build requirement
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            logger.info("Virtual threads are not available, serving the API on platform threads");
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "milou-api");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void handle(HttpExchange exchange) {
+        try {
+            Response response;
+            boolean admitted = false;
+            try {
+                admitted = inFlight.tryAcquire(QUEUE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                if (!admitted) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    response = Response.error(503, "Server busy, try again shortly.");
+                } else {
+                    try (Session session = sessionFactory.openSession()) {
+                        response = route(exchange, session);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                response = Response.error(503, "Server shutting down.");
+            } catch (Exception e) {
+                response = toResponse(e);
+            } finally {
+                if (admitted) {
+                    inFlight.release();
+                }
+            }
+            send(exchange, response);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Failed to send API response", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Response route(HttpExchange exchange, Session session) throws IOException {
+        String method = exchange.getRequestMethod();
+        String[] path = exchange.getRequestURI().getPath().substring(PREFIX.length()).split("/");
+
+        if (path.length == 1 && path[0].equals("sessions")) {
+            if (method.equals("POST")) {
+                return login(exchange, session);
+            }
+            if (method.equals("DELETE")) {
+                userService.endSession(bearerToken(exchange));
+                return new Response(204, null);
+            }
+            throw new ApiException(405, "Method not allowed.");
+        }
+
+        User user = authenticate(exchange);
+        if (path.length == 2 && path[0].equals("folders") && method.equals("GET")) {
+            return listFolder(path[1], user, queryParameters(exchange), session);
+        }
+        if (path.length == 1 && path[0].equals("mails") && method.equals("POST")) {
+            return send(readJson(exchange), user, session);
+        }
+        if (path.length == 2 && path[0].equals("mails") && method.equals("GET")) {
+            Mail mail = mailService.getMailByCode(path[1], user, session)
+                    .orElseThrow(() -> new ApiException(404, "Mail not found."));
+            return new Response(200, mailJson(mail));
+        }
+        if (path.length == 3 && path[0].equals("mails") && method.equals("POST")) {
+            int mailId = mailService.findMailIdByCode(path[1], user, session)
+                    .orElseThrow(() -> new ApiException(404, "Mail not found."));
+            switch (path[2]) {
+                case "read":
+                    mailService.markAsRead(mailId, user.getId(), session);
+                    return new Response(204, null);
+                case "trash":
+                    mailService.moveToTrash(mailId, user, session);
+                    return new Response(204, null);
+                case "restore":
+                    mailService.restoreFromTrash(mailId, user, session);
+                    return new Response(204, null);
+                default:
+                    throw new ApiException(404, "Not found.");
+            }
+        }
+        throw new ApiException(404, "Not found.");
+    }
+
+    private Response login(HttpExchange exchange, Session session) throws IOException {
+        Map<String, Object> request = readJson(exchange);
+        String clientId = exchange.getRemoteAddress().getAddress().getHostAddress();
+        Optional<SessionToken> token = userService.startSession(
+                requireString(request, "email"), requireString(request, "password"), clientId, session);
+        if (token.isEmpty()) {
+            throw new ApiException(401, "Invalid email or password.");
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("token", token.get().getToken());
+        body.put("expiresAt", Instant.ofEpochMilli(token.get().getExpiresAtMillis()));
+        body.put("user", userJson(token.get().getUser()));
+        return new Response(201, body);
+    }
+
+    private Response listFolder(String folder, User user, Map<String, String> query, Session session) {
+        String pageToken = query.get("pageToken");
+        int pageSize = query.containsKey("pageSize") ? parseInt(query.get("pageSize"), "pageSize") : DEFAULT_PAGE_SIZE;
+        MailPage page;
+        switch (folder) {
+            case "inbox": page = mailService.getInboxPage(user, pageToken, pageSize, session); break;
+            case "sent": page = mailService.getSentPage(user, pageToken, pageSize, session); break;
+            case "unread": page = mailService.getUnreadPage(user, pageToken, pageSize, session); break;
+            case "trash": page = mailService.getTrashPage(user, pageToken, pageSize, session); break;
+            default: throw new ApiException(404, "Unknown folder: " + folder);
+        }
+
+        List<Object> mails = new ArrayList<>();
+        for (MailDto dto : page.getMails()) {
+            Map<String, Object> mail = new LinkedHashMap<>();
+            mail.put("code", dto.getCode());
+            mail.put("subject", dto.getSubject());
+            mail.put("sender", Map.of("name", dto.getSenderName(), "email", dto.getSenderEmail()));
+            mail.put("sentDate", dto.getSentDate());
+            mail.put("read", dto.isRead());
+            mails.add(mail);
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("mails", mails);
+        body.put("nextPageToken", page.hasMore() ? page.getNextPageToken() : null);
+        return new Response(200, body);
+    }
+
+    private Response send(Map<String, Object> request, User sender, Session session) {
+        Object to = request.get("to");
+        if (!(to instanceof List) || ((List<?>) to).isEmpty()) {
+            throw new IllegalArgumentException("\"to\" must be a non-empty array of addresses.");
+        }
+        List<String> emails = new ArrayList<>();
+        for (Object address : (List<?>) to) {
+            if (!(address instanceof String)) {
+                throw new IllegalArgumentException("\"to\" must contain addresses.");
+            }
+            emails.add(((String) address).trim());
+        }
+        AddressResolver.Addressees addressees = addressResolver.resolve(emails, session);
+        Mail mail = mailService.sendMail(sender, addressees.getUsers(), addressees.getLists(),
+                requireString(request, "subject"), requireString(request, "body"), session);
+        return new Response(201, Map.of("code", mail.getCode()));
+    }
+
+    private User authenticate(HttpExchange exchange) {
+        return userService.resumeSession(bearerToken(exchange))
+                .orElseThrow(() -> new ApiException(401, "Missing, expired or revoked session token."));
+    }
+
+    private static String bearerToken(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        return header != null && header.startsWith("Bearer ") ? header.substring(7).trim() : null;
+    }
+
+    private static Map<String, Object> mailJson(Mail mail) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("code", mail.getCode());
+        body.put("subject", mail.getSubject());
+        body.put("sender", userJson(mail.getSender()));
+        List<Object> to = new ArrayList<>();
+        for (User recipient : mail.getDirectRecipients()) {
+            to.add(recipient.getEmail());
+        }
+        for (DistributionList list : mail.getLists()) {
+            to.add(list.getAddress());
+        }
+        body.put("to", to);
+        body.put("sentDate", mail.getSentDate());
+        body.put("body", mail.getBody());
+        return body;
+    }
+
+    private static Map<String, Object> userJson(User user) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("id", user.getId());
+        body.put("name", user.getName());
+        body.put("email", user.getEmail());
+        return body;
+    }
+
+    private static Map<String, Object> readJson(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+                if (bytes.size() > MAX_REQUEST_BYTES) {
+                    throw new ApiException(413, "Request body too large.");
+                }
+            }
+        }
+        return Json.parseObject(bytes.toString(StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, String> queryParameters(HttpExchange exchange) {
+        Map<String, String> parameters = new LinkedHashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static String requireString(Map<String, Object> request, String name) {
+        Object value = request.get(name);
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException("\"" + name + "\" is required.");
+        }
+        return (String) value;
+    }
+
+    private static int parseInt(String value, String name) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number.");
+        }
+    }
+
+    // Services wrap their errors; the first recognised cause decides the status
+    private static Response toResponse(Exception e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ApiException) {
+                return Response.error(((ApiException) cause).status, cause.getMessage());
+            }
+            if (cause instanceof IllegalArgumentException) {
+                return Response.error(400, cause.getMessage());
+            }
+            if (cause instanceof SecurityException) {
+                return Response.error(403, cause.getMessage());
+            }
+            if (cause instanceof TooManyAttemptsException) {
+                return Response.error(429, cause.getMessage());
+            }
+        }
+        logger.log(Level.SEVERE, "API request failed", e);
+        return Response.error(500, "Internal error.");
+    }
+
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        if (response.body == null) {
+            exchange.sendResponseHeaders(response.status, -1);
+            return;
+        }
+        byte[] bytes = Json.write(response.body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(response.status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // Stops accepting, gives requests in progress a moment to finish, then stops their threads
+    @Override
+    public void close() {
+        server.stop(STOP_DELAY_SECONDS);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(STOP_DELAY_SECONDS, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Response {
+        final int status;
+        final Object body;
+
+        Response(int status, Object body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        static Response error(int status, String message) {
+            return new Response(status, Map.of("error", message == null ? "" : message));
+        }
+    }
+
+    private static final class ApiException extends RuntimeException {
+        final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package aut.ap.graphic;
+
+import aut.ap.user.DirectoryEntry;
+import aut.ap.user.UserDirectory;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.util.List;
+
+// Pops up directory matches for the address being typed after the last comma of a
+// "To" field. Suggestions come from UserDirectory's in-memory snapshot on the EDT.
+class AddressAutocomplete {
+    private static final int MAX_SUGGESTIONS = 8;
+    private static final int DELAY_MS = 120;
+
+    private final JTextField field;
+    private final UserDirectory directory;
+    private final JPopupMenu popup = new JPopupMenu();
+    private final Timer timer;
+
+    private AddressAutocomplete(JTextField field, UserDirectory directory) {
+        this.field = field;
+        this.directory = directory;
+        popup.setFocusable(false);
+        timer = new Timer(DELAY_MS, e -> showSuggestions());
+        timer.setRepeats(false);
+
+        field.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                timer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                timer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+        field.addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusLost(FocusEvent e) {
+                popup.setVisible(false);
+            }
+        });
+        field.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+                    popup.setVisible(false);
+                }
+            }
+        });
+    }
+
+    static void attach(JTextField field, UserDirectory directory) {
+        new AddressAutocomplete(field, directory);
+    }
+
+    private void showSuggestions() {
+        popup.setVisible(false);
+        popup.removeAll();
+        if (!field.isShowing()) {
+            return;
+        }
+        String text = field.getText();
+        String prefix = text.substring(text.lastIndexOf(',') + 1).trim();
+        List<DirectoryEntry> suggestions = directory.suggest(prefix, MAX_SUGGESTIONS);
+        if (suggestions.isEmpty()) {
+            return;
+        }
+        for (DirectoryEntry entry : suggestions) {
+            JMenuItem item = new JMenuItem(entry.toString());
+            item.addActionListener(e -> complete(entry.getEmail()));
+            popup.add(item);
+        }
+        popup.show(field, 0, field.getHeight());
+    }
+
+    // Replaces the address being typed and leaves the field ready for the next one
+    private void complete(String email) {
+        String text = field.getText();
+        int start = text.lastIndexOf(',') + 1;
+        field.setText(text.substring(0, start) + (start > 0 ? " " : "") + email + ", ");
+        popup.setVisible(false);
+        field.requestFocusInWindow();
+    }
+}
@@ -1,8 +1,11 @@
 package aut.ap.graphic;
 
+import aut.ap.list.DistributionList;
+import aut.ap.list.DistributionListService;
 import aut.ap.mail.*;
+import aut.ap.search.MailSearchIndex;
 import aut.ap.user.*;
-import aut.ap.util.HibernateUtil;
+import org.hibernate.Hibernate;
 import org.hibernate.Session;
 
 import javax.swing.*;
@@ -10,23 +13,39 @@ import java.awt.*;
 import java.awt.event.*;
 import java.util.*;
 import java.util.List;
+import java.util.function.BiFunction;
 import java.util.logging.*;
+import java.util.stream.Collectors;
 
 public class Application extends JFrame {
     private final MailService mailService;
     private final UserService userService;
+    private final UserDirectory userDirectory;
+    private final AddressResolver addressResolver;
     private User currentUser;
+    private String sessionToken;
     private SidebarPanel sidebarPanel;
     private ContentPanel contentPanel;
     private JPanel loginPanel;
     private JTextField emailField;
     private JPasswordField passwordField;
     private JTextField nameField;
+    private final JProgressBar progressBar = new JProgressBar();
+    private final BackgroundTaskRunner taskRunner;
     private static final Logger logger = Logger.getLogger(Application.class.getName());
+    private static final int PAGE_SIZE = 50;
+    private static final int SCROLL_PREFETCH_PX = 200;
+    private static final int WELCOME_UNREAD_LIMIT = 10;
+    // Tasks that replace the content panel supersede each other
+    private static final String CONTENT_CHANNEL = "content";
+    private static final String PAGE_CHANNEL = "page";
 
     public Application() {
-        this.mailService = new MailService();
+        this.mailService = new MailService(MailSearchIndex.getDefault());
         this.userService = new UserService();
+        this.userDirectory = new UserDirectory();
+        this.addressResolver = new AddressResolver(userDirectory, new DistributionListService());
+        this.taskRunner = new BackgroundTaskRunner(this, progressBar);
 
         try {
             setupLogger();
@@ -87,6 +106,7 @@ public class Application extends JFrame {
         loginPanel.add(tabbedPane, gbc);
 
         add(loginPanel);
+        add(progressBar, BorderLayout.SOUTH);
         setVisible(true);
     }
 
@@ -180,10 +200,10 @@ public class Application extends JFrame {
             return;
         }
 
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            Optional<User> user = userService.loginUser(email, password, session);
-            if (user.isPresent()) {
-                currentUser = user.get();
+        taskRunner.submit("login", session -> userService.startSession(email, password, session), token -> {
+            if (token.isPresent()) {
+                currentUser = token.get().getUser();
+                sessionToken = token.get().getToken();
                 initializeMainApplication();
                 showWelcomeMessage();
             } else {
@@ -191,12 +211,12 @@ public class Application extends JFrame {
                         "Invalid email or password",
                         "Login Failed", JOptionPane.ERROR_MESSAGE);
             }
-        } catch (Exception e) {
+        }, e -> {
             logger.log(Level.SEVERE, "Login error", e);
             JOptionPane.showMessageDialog(this,
                     "Error during login: " + e.getMessage(),
                     "Error", JOptionPane.ERROR_MESSAGE);
-        }
+        });
     }
 
     private void handleSignup(String name, String emailInput, String password) {
@@ -209,8 +229,8 @@ public class Application extends JFrame {
             return;
         }
 
-        try {
-            User newUser = userService.registerUser(name, email, password);
+        taskRunner.submit(session -> userService.registerUser(name, email, password), newUser -> {
+            userDirectory.invalidate(newUser.getEmail());
             JOptionPane.showMessageDialog(this,
                     "Your new account is created.\nGo ahead and login!",
                     "Success", JOptionPane.INFORMATION_MESSAGE);
@@ -218,16 +238,18 @@ public class Application extends JFrame {
             nameField.setText("");
             emailField.setText(email);
             passwordField.setText("");
-        } catch (IllegalArgumentException e) {
-            JOptionPane.showMessageDialog(this,
-                    e.getMessage(),
-                    "Registration Failed", JOptionPane.ERROR_MESSAGE);
-        } catch (Exception e) {
+        }, e -> {
+            if (e instanceof IllegalArgumentException) {
+                JOptionPane.showMessageDialog(this,
+                        e.getMessage(),
+                        "Registration Failed", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
             logger.log(Level.SEVERE, "Registration error", e);
             JOptionPane.showMessageDialog(this,
                     "Registration failed: " + e.getMessage(),
                     "Error", JOptionPane.ERROR_MESSAGE);
-        }
+        });
     }
 
     private String formatEmail(String email) {
@@ -249,6 +271,7 @@ public class Application extends JFrame {
         setLayout(new BorderLayout());
         add(sidebarPanel, BorderLayout.WEST);
         add(contentPanel, BorderLayout.CENTER);
+        add(progressBar, BorderLayout.SOUTH);
 
         setupSidebarActions();
 
@@ -265,21 +288,28 @@ public class Application extends JFrame {
     }
 
     private void showWelcomeMessage() {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            List<MailDto> unreadMails = mailService.getUnreadMailDtos(currentUser, session);
-
+        taskRunner.submit(CONTENT_CHANNEL, session -> new WelcomeSummary(
+                mailService.getFolderCounts(currentUser, session),
+                mailService.getUnreadPage(currentUser, null, WELCOME_UNREAD_LIMIT, session)
+        ), summary -> {
             StringBuilder message = new StringBuilder();
             message.append("<html><h1>Welcome back, ").append(currentUser.getName()).append("!</h1>");
+            message.append("<p>Inbox: ").append(summary.counts.getInboxCount())
+                    .append(" &nbsp; Unread: ").append(summary.counts.getUnreadCount())
+                    .append(" &nbsp; Trash: ").append(summary.counts.getTrashCount()).append("</p>");
 
-            if (!unreadMails.isEmpty()) {
+            if (summary.counts.getUnreadCount() > 0) {
                 message.append("<h3>Unread Emails:</h3>");
-                message.append("<p>").append(unreadMails.size()).append(" unread emails:</p>");
+                message.append("<p>").append(summary.counts.getUnreadCount()).append(" unread emails:</p>");
                 message.append("<ul>");
-                for (MailDto mail : unreadMails) {
+                for (MailDto mail : summary.latestUnread.getMails()) {
                     message.append("<li>").append(mail.getSenderName())
                             .append(" - ").append(mail.getSubject())
                             .append(" (").append(mail.getCode()).append(")</li>");
                 }
+                if (summary.latestUnread.hasMore()) {
+                    message.append("<li>...</li>");
+                }
                 message.append("</ul>");
             }
 
@@ -287,8 +317,16 @@ public class Application extends JFrame {
 
             JLabel welcomeLabel = new JLabel(message.toString());
             contentPanel.setContent(new JScrollPane(welcomeLabel));
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Error loading unread emails", e);
+        }, e -> logger.log(Level.SEVERE, "Error loading unread emails", e));
+    }
+
+    private static class WelcomeSummary {
+        private final MailboxCounter counts;
+        private final MailPage latestUnread;
+
+        WelcomeSummary(MailboxCounter counts, MailPage latestUnread) {
+            this.counts = counts;
+            this.latestUnread = latestUnread;
         }
     }
 
@@ -307,6 +345,7 @@ public class Application extends JFrame {
         gbc.gridx = 1;
         gbc.weightx = 1.0;
         JTextField toField = new JTextField(30);
+        AddressAutocomplete.attach(toField, userDirectory);
         formPanel.add(toField, gbc);
 
         gbc.gridx = 0;
@@ -337,55 +376,37 @@ public class Application extends JFrame {
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
         JButton sendButton = new JButton("Send");
         sendButton.addActionListener(e -> {
-            try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-                String[] emails = toField.getText().split(",");
-                List<User> recipients = new ArrayList<>();
-
-                for (String email : emails) {
-                    String trimmedEmail = formatEmail(email.trim());
-                    Optional<User> recipient = userService.findByEmail(trimmedEmail, session);
-                    if (recipient.isPresent()) {
-                        recipients.add(recipient.get());
-                    } else {
-                        JOptionPane.showMessageDialog(this,
-                                "User with email " + trimmedEmail + " not found",
-                                "Error", JOptionPane.ERROR_MESSAGE);
-                        return;
-                    }
-                }
-
-                if (recipients.isEmpty()) {
-                    JOptionPane.showMessageDialog(this,
-                            "Please specify at least one recipient",
-                            "Error", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-
-                if (subjectField.getText().trim().isEmpty()) {
-                    JOptionPane.showMessageDialog(this,
-                            "Please enter a subject",
-                            "Error", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
+            if (subjectField.getText().trim().isEmpty()) {
+                JOptionPane.showMessageDialog(this,
+                        "Please enter a subject",
+                        "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
 
-                Mail sentMail = mailService.sendMail(
+            String to = toField.getText();
+            String subject = subjectField.getText();
+            String body = bodyArea.getText();
+            taskRunner.submit(session -> {
+                AddressResolver.Addressees addressees = resolveRecipients(to, session);
+                return mailService.sendMail(
                         currentUser,
-                        recipients,
-                        subjectField.getText(),
-                        bodyArea.getText(),
+                        addressees.getUsers(),
+                        addressees.getLists(),
+                        subject,
+                        body,
                         session
                 );
-
+            }, sentMail -> {
                 JOptionPane.showMessageDialog(this,
                         "Successfully sent your email.\nCode: " + sentMail.getCode(),
                         "Success", JOptionPane.INFORMATION_MESSAGE);
                 loadInbox();
-            } catch (Exception ex) {
+            }, ex -> {
                 logger.log(Level.SEVERE, "Error sending email", ex);
                 JOptionPane.showMessageDialog(this,
                         "Failed to send mail: " + ex.getMessage(),
                         "Error", JOptionPane.ERROR_MESSAGE);
-            }
+            });
         });
 
         composePanel.add(formPanel, BorderLayout.CENTER);
@@ -393,81 +414,128 @@ public class Application extends JFrame {
         composePanel.add(buttonPanel, BorderLayout.SOUTH);
 
         contentPanel.setContent(composePanel);
+        refreshAddressSuggestions();
     }
 
-    private void loadInbox() {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            List<MailDto> inboxMails = mailService.getInboxDtos(currentUser, session);
-            updateMailList(inboxMails, "Inbox");
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Error loading inbox", e);
-            JOptionPane.showMessageDialog(this,
-                    "Failed to load inbox: " + e.getMessage(),
-                    "Error", JOptionPane.ERROR_MESSAGE);
+    // Loads the autocomplete snapshot in the background if it is missing or out of date
+    private void refreshAddressSuggestions() {
+        taskRunner.submit("directory", userDirectory::refreshSuggestions, loaded -> {
+        }, ex -> logger.log(Level.WARNING, "Failed to load address suggestions", ex));
+    }
+
+    // Runs on a background thread; addresses that are neither a user nor a list abort the send
+    private AddressResolver.Addressees resolveRecipients(String to, Session session) {
+        List<String> emails = new ArrayList<>();
+        for (String email : to.split(",")) {
+            if (!email.trim().isEmpty()) {
+                emails.add(formatEmail(email.trim()));
+            }
         }
+        if (emails.isEmpty()) {
+            throw new IllegalArgumentException("Please specify at least one recipient");
+        }
+
+        return addressResolver.resolve(emails, session);
     }
 
-    private void loadSentMails() {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            List<MailDto> sentMails = mailService.getSentMailDtos(currentUser, session);
-            updateMailList(sentMails, "Sent Mails");
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Error loading sent mails", e);
+    // Loads a mail together with everything the detail view reads after the session is closed
+    private Optional<Mail> loadMailForDisplay(String code, Session session) {
+        Optional<Mail> mail = mailService.getMailByCode(code, currentUser, session);
+        mail.ifPresent(m -> {
+            Hibernate.initialize(m.getSender());
+        });
+        return mail;
+    }
+
+    private void openMail(String code) {
+        taskRunner.submit(CONTENT_CHANNEL, session -> loadMailForDisplay(code, session), mail -> {
+            if (mail.isPresent()) {
+                showMailContent(mail.get());
+            } else {
+                JOptionPane.showMessageDialog(this,
+                        "Email not found",
+                        "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }, ex -> {
+            if (ex.getCause() instanceof SecurityException) {
+                JOptionPane.showMessageDialog(this,
+                        ex.getCause().getMessage(),
+                        "Access Denied", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            logger.log(Level.SEVERE, "Error loading mail details", ex);
             JOptionPane.showMessageDialog(this,
-                    "Failed to load sent mails: " + e.getMessage(),
+                    "Error loading mail: " + ex.getMessage(),
                     "Error", JOptionPane.ERROR_MESSAGE);
-        }
+        });
+    }
+
+    private void loadInbox() {
+        updateMailList("Inbox",
+                (pageToken, session) -> mailService.getInboxPage(currentUser, pageToken, PAGE_SIZE, session));
+    }
+
+    private void loadSentMails() {
+        updateMailList("Sent Mails",
+                (pageToken, session) -> mailService.getSentPage(currentUser, pageToken, PAGE_SIZE, session));
     }
 
     private void loadTrashMails() {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-            List<MailDto> trashMails = mailService.getTrashMailDtos(currentUser, session);
-            updateMailList(trashMails, "Trash");
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Error loading trash", e);
+        updateMailList("Trash",
+                (pageToken, session) -> mailService.getTrashPage(currentUser, pageToken, PAGE_SIZE, session));
+    }
+
+    private void loadUnreadMails() {
+        updateMailList("Unread Emails",
+                (pageToken, session) -> mailService.getUnreadPage(currentUser, pageToken, PAGE_SIZE, session));
+    }
+
+    private void searchMails(String query) {
+        updateMailList("Search: " + query,
+                (pageToken, session) -> mailService.searchMails(currentUser, query, pageToken, PAGE_SIZE, session));
+    }
+
+    private void updateMailList(String title, BiFunction<String, Session, MailPage> pageLoader) {
+        if (userService.resumeSession(sessionToken).isEmpty()) {
             JOptionPane.showMessageDialog(this,
-                    "Failed to load trash: " + e.getMessage(),
-                    "Error", JOptionPane.ERROR_MESSAGE);
+                    "Your session has expired. Please log in again.",
+                    "Session Expired", JOptionPane.INFORMATION_MESSAGE);
+            logout();
+            return;
         }
+        taskRunner.cancel(PAGE_CHANNEL);
+        taskRunner.submit(CONTENT_CHANNEL, session -> pageLoader.apply(null, session),
+                firstPage -> showMailList(title, pageLoader, firstPage),
+                e -> {
+                    logger.log(Level.SEVERE, "Error loading " + title, e);
+                    JOptionPane.showMessageDialog(this,
+                            "Failed to load " + title + ": " + e.getMessage(),
+                            "Error", JOptionPane.ERROR_MESSAGE);
+                });
     }
 
-    private void updateMailList(List<MailDto> mails, String title) {
+    private void showMailList(String title, BiFunction<String, Session, MailPage> pageLoader, MailPage firstPage) {
         DefaultListModel<MailDto> listModel = new DefaultListModel<>();
         JList<MailDto> mailList = new JList<>(listModel);
         mailList.setCellRenderer(new MailListRenderer());
-
-        mails.sort(Comparator.comparing(MailDto::getSentDate).reversed());
-
-        for (MailDto mail : mails) {
-            listModel.addElement(mail);
-        }
+        JScrollPane listScroll = new JScrollPane(mailList);
+
+        // Pages are appended in folder order as the user scrolls towards the end of the list
+        MailListPager pager = new MailListPager(title, listModel, pageLoader);
+        pager.append(firstPage);
+        listScroll.getVerticalScrollBar().addAdjustmentListener(e -> {
+            JScrollBar bar = (JScrollBar) e.getAdjustable();
+            if (bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - SCROLL_PREFETCH_PX) {
+                pager.loadNextPage();
+            }
+        });
 
         mailList.addMouseListener(new MouseAdapter() {
             public void mouseClicked(MouseEvent evt) {
                 if (evt.getClickCount() == 2) {
                     int index = mailList.locationToIndex(evt.getPoint());
-                    try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-                        Optional<Mail> fullMail = mailService.getMailByCode(
-                                mails.get(index).getCode(),
-                                currentUser,
-                                session
-                        );
-                        if (fullMail.isPresent()) {
-                            showMailContent(fullMail.get());
-                        } else {
-                            JOptionPane.showMessageDialog(Application.this,
-                                    "Mail not found",
-                                    "Error", JOptionPane.ERROR_MESSAGE);
-                        }
-                    } catch (SecurityException se) {
-                        JOptionPane.showMessageDialog(Application.this,
-                                se.getMessage(),
-                                "Access Denied", JOptionPane.ERROR_MESSAGE);
-                    } catch (Exception ex) {
-                        logger.log(Level.SEVERE, "Error loading mail details", ex);
-                        JOptionPane.showMessageDialog(Application.this,
-                                "Error loading mail: " + ex.getMessage(),
-                                "Error", JOptionPane.ERROR_MESSAGE);
+                    if (index >= 0) {
+                        openMail(listModel.get(index).getCode());
                     }
                 }
             }
@@ -478,6 +546,7 @@ public class Application extends JFrame {
         JButton allButton = new JButton("All");
         JButton unreadButton = new JButton("Unread");
         JButton searchButton = new JButton("Search by Code");
+        JButton fullTextButton = new JButton("Search");
 
         allButton.addActionListener(e -> {
             if ("Inbox".equals(title)) loadInbox();
@@ -485,37 +554,19 @@ public class Application extends JFrame {
             else if ("Trash".equals(title)) loadTrashMails();
         });
 
-        unreadButton.addActionListener(e -> {
-            try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-                List<MailDto> unreadMails = mailService.getUnreadMailDtos(currentUser, session);
-                updateMailList(unreadMails, "Unread Emails");
-            } catch (Exception ex) {
-                logger.log(Level.SEVERE, "Error loading unread mails", ex);
-            }
-        });
+        unreadButton.addActionListener(e -> loadUnreadMails());
 
         searchButton.addActionListener(e -> {
             String code = JOptionPane.showInputDialog(this, "Enter email code:");
             if (code != null && !code.trim().isEmpty()) {
-                try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-                    Optional<Mail> mail = mailService.getMailByCode(code.trim(), currentUser, session);
-                    if (mail.isPresent()) {
-                        if (mail.get().getRecipients().contains(currentUser) ||
-                                mail.get().getSender().equals(currentUser)) {
-                            showMailContent(mail.get());
-                        } else {
-                            JOptionPane.showMessageDialog(this,
-                                    "You cannot read this email",
-                                    "Error", JOptionPane.ERROR_MESSAGE);
-                        }
-                    } else {
-                        JOptionPane.showMessageDialog(this,
-                                "Email not found",
-                                "Error", JOptionPane.ERROR_MESSAGE);
-                    }
-                } catch (Exception ex) {
-                    logger.log(Level.SEVERE, "Error searching mail", ex);
-                }
+                openMail(code.trim());
+            }
+        });
+
+        fullTextButton.addActionListener(e -> {
+            String query = JOptionPane.showInputDialog(this, "Search subject, body or sender:");
+            if (query != null && !query.trim().isEmpty()) {
+                searchMails(query.trim());
             }
         });
 
@@ -528,38 +579,36 @@ public class Application extends JFrame {
             filterPanel.add(allButton);
             filterPanel.add(unreadButton);
             filterPanel.add(searchButton);
+            filterPanel.add(fullTextButton);
         } else {
             filterPanel.add(searchButton);
+            filterPanel.add(fullTextButton);
+        }
+        if (!"Trash".equals(title)) {
+            JButton deleteSelectedButton = new JButton("Delete selected");
+            deleteSelectedButton.addActionListener(e -> handleDeleteSelected(mailList, listModel));
+            filterPanel.add(deleteSelectedButton);
+        }
+        if (!"Trash".equals(title) && !"Sent Mails".equals(title)) {
+            JButton markReadButton = new JButton("Mark selected read");
+            markReadButton.addActionListener(e -> handleMarkSelectedRead(title, mailList, listModel));
+            filterPanel.add(markReadButton);
+        }
+        if ("Inbox".equals(title) || "Unread Emails".equals(title)) {
+            JButton markAllReadButton = new JButton("Mark all read");
+            markAllReadButton.addActionListener(e -> handleMarkAllRead(title));
+            filterPanel.add(markAllReadButton);
         }
 
         panel.add(topPanel, BorderLayout.CENTER);
-        panel.add(new JScrollPane(mailList), BorderLayout.SOUTH);
+        panel.add(listScroll, BorderLayout.SOUTH);
 
         contentPanel.setContent(panel);
     }
 
     private void showMailContent(Mail mail) {
-        Session session = HibernateUtil.getSessionFactory().openSession();
-        try (session) {
-            // Mark as read if recipient - with proper transaction handling
-            if (mail.getRecipients().contains(currentUser)) {
-                try {
-                    session.beginTransaction();
-                    mailService.markAsRead(mail.getId(), currentUser.getId(), session);
-                    session.getTransaction().commit();
-
-                    // Refresh the current view after marking as read
-                    if (sidebarPanel.getInboxButton().isSelected()) {
-                        loadInbox();
-                    }
-                } catch (Exception e) {
-                    if (session.getTransaction().isActive()) {
-                        session.getTransaction().rollback();
-                    }
-                    logger.log(Level.WARNING, "Could not mark mail as read: " + e.getMessage());
-                }
-            }
-
+        // getMailByCode has already marked the mail as read for recipients
+        try {
             // Create the mail display panel
             JPanel mailPanel = new JPanel(new BorderLayout());
             mailPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
@@ -590,10 +639,6 @@ public class Application extends JFrame {
             JOptionPane.showMessageDialog(this,
                     "Error displaying mail: " + ex.getMessage(),
                     "Error", JOptionPane.ERROR_MESSAGE);
-        } finally {
-            if (session != null && session.isOpen()) {
-                session.close();
-            }
         }
     }
 
@@ -610,9 +655,12 @@ public class Application extends JFrame {
 
         // To field
         StringBuilder recipients = new StringBuilder();
-        for (User recipient : mail.getRecipients()) {
+        for (User recipient : mail.getDirectRecipients()) {
             recipients.append(recipient.getName()).append(" <").append(recipient.getEmail()).append(">, ");
         }
+        for (DistributionList list : mail.getLists()) {
+            recipients.append(list).append(", ");
+        }
         if (recipients.length() > 0) {
             recipients.setLength(recipients.length() - 2);
         }
@@ -641,8 +689,8 @@ public class Application extends JFrame {
     private JPanel createMailActionButtons(Mail mail) {
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
 
-        // Reply button (only for recipients)
-        if (mail.getRecipients().stream().anyMatch(r -> r.getId() == currentUser.getId())) {
+        // Reply button (only for recipients; whoever else can open a mail sent it)
+        if (mail.getSender().getId() != currentUser.getId()) {
             JButton replyButton = new JButton("Reply");
             replyButton.addActionListener(e -> showReplyScreen(mail));
             buttonPanel.add(replyButton);
@@ -669,37 +717,112 @@ public class Application extends JFrame {
     }
 
     private void handleDeleteMail(Mail mail) {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+        taskRunner.submit(session -> {
             session.beginTransaction();
             mailService.moveToTrash(mail.getId(), currentUser, session);
             session.getTransaction().commit();
+            return mail;
+        }, deleted -> {
             JOptionPane.showMessageDialog(this,
                     "Email moved to trash",
                     "Success", JOptionPane.INFORMATION_MESSAGE);
             loadInbox();
-        } catch (Exception ex) {
+        }, ex -> {
             logger.log(Level.SEVERE, "Error deleting mail", ex);
             JOptionPane.showMessageDialog(this,
                     "Failed to delete mail: " + ex.getMessage(),
                     "Error", JOptionPane.ERROR_MESSAGE);
+        });
+    }
+
+    private void handleDeleteSelected(JList<MailDto> mailList, DefaultListModel<MailDto> listModel) {
+        List<MailDto> selected = mailList.getSelectedValuesList();
+        if (selected.isEmpty()) {
+            JOptionPane.showMessageDialog(this,
+                    "Select one or more emails first",
+                    "Delete", JOptionPane.INFORMATION_MESSAGE);
+            return;
         }
+        List<Integer> mailIds = selected.stream().map(MailDto::getId).collect(Collectors.toList());
+
+        taskRunner.submit(session -> mailService.moveToTrash(mailIds, currentUser, session), moved -> {
+            selected.forEach(listModel::removeElement);
+            JOptionPane.showMessageDialog(this,
+                    moved + " email(s) moved to trash",
+                    "Success", JOptionPane.INFORMATION_MESSAGE);
+        }, ex -> {
+            logger.log(Level.SEVERE, "Error deleting mails", ex);
+            JOptionPane.showMessageDialog(this,
+                    "Failed to delete mails: " + ex.getMessage(),
+                    "Error", JOptionPane.ERROR_MESSAGE);
+        });
+    }
+
+    private void handleMarkSelectedRead(String title, JList<MailDto> mailList, DefaultListModel<MailDto> listModel) {
+        List<MailDto> selected = mailList.getSelectedValuesList();
+        if (selected.isEmpty()) {
+            JOptionPane.showMessageDialog(this,
+                    "Select one or more emails first",
+                    "Mark as read", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        List<Integer> mailIds = selected.stream().map(MailDto::getId).collect(Collectors.toList());
+
+        taskRunner.submit(session -> mailService.markAsRead(mailIds, currentUser, session), changed -> {
+            for (MailDto mail : selected) {
+                int index = listModel.indexOf(mail);
+                if (index < 0) {
+                    continue;
+                }
+                if ("Unread Emails".equals(title)) {
+                    listModel.remove(index);
+                } else {
+                    listModel.set(index, mail.withRead(true));
+                }
+            }
+        }, ex -> {
+            logger.log(Level.SEVERE, "Error marking mails as read", ex);
+            JOptionPane.showMessageDialog(this,
+                    "Failed to mark mails as read: " + ex.getMessage(),
+                    "Error", JOptionPane.ERROR_MESSAGE);
+        });
+    }
+
+    private void handleMarkAllRead(String title) {
+        taskRunner.submit(session -> mailService.markFolderRead(currentUser, session), changed -> {
+            JOptionPane.showMessageDialog(this,
+                    changed + " email(s) marked as read",
+                    "Success", JOptionPane.INFORMATION_MESSAGE);
+            if ("Unread Emails".equals(title)) {
+                loadUnreadMails();
+            } else {
+                loadInbox();
+            }
+        }, ex -> {
+            logger.log(Level.SEVERE, "Error marking inbox as read", ex);
+            JOptionPane.showMessageDialog(this,
+                    "Failed to mark inbox as read: " + ex.getMessage(),
+                    "Error", JOptionPane.ERROR_MESSAGE);
+        });
     }
 
     private void handleRestoreMail(Mail mail) {
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+        taskRunner.submit(session -> {
             session.beginTransaction();
             mailService.restoreFromTrash(mail.getId(), currentUser, session);
             session.getTransaction().commit();
+            return mail;
+        }, restored -> {
             JOptionPane.showMessageDialog(this,
                     "Email restored from trash",
                     "Success", JOptionPane.INFORMATION_MESSAGE);
             loadTrashMails();
-        } catch (Exception ex) {
+        }, ex -> {
             logger.log(Level.SEVERE, "Error restoring mail", ex);
             JOptionPane.showMessageDialog(this,
                     "Failed to restore mail: " + ex.getMessage(),
                     "Error", JOptionPane.ERROR_MESSAGE);
-        }
+        });
     }
 
     private void showReplyScreen(Mail originalMail) {
@@ -710,7 +833,7 @@ public class Application extends JFrame {
 
         List<User> replyRecipients = new ArrayList<>();
         replyRecipients.add(originalMail.getSender());
-        for (User recipient : originalMail.getRecipients()) {
+        for (User recipient : originalMail.getDirectRecipients()) {
             if (!recipient.equals(currentUser)) {
                 replyRecipients.add(recipient);
             }
@@ -720,6 +843,9 @@ public class Application extends JFrame {
         for (User recipient : replyRecipients) {
             toText.append(recipient.getEmail()).append(", ");
         }
+        for (DistributionList list : originalMail.getLists()) {
+            toText.append(list.getAddress()).append(", ");
+        }
         if (toText.length() > 0) {
             toText.setLength(toText.length() - 2);
         }
@@ -769,25 +895,24 @@ public class Application extends JFrame {
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
         JButton sendButton = new JButton("Send Reply");
         sendButton.addActionListener(e -> {
-            try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-                Mail replyMail = mailService.replyToMail(
-                        originalMail,
-                        currentUser,
-                        bodyArea.getText(),
-                        session
-                );
-
+            String replyBody = bodyArea.getText();
+            taskRunner.submit(session -> mailService.replyToMail(
+                    originalMail,
+                    currentUser,
+                    replyBody,
+                    session
+            ), replyMail -> {
                 JOptionPane.showMessageDialog(this,
                         "Successfully sent your reply to email " + originalMail.getCode() +
                                 ".\nCode: " + replyMail.getCode(),
                         "Success", JOptionPane.INFORMATION_MESSAGE);
                 loadInbox();
-            } catch (Exception ex) {
+            }, ex -> {
                 logger.log(Level.SEVERE, "Error sending reply", ex);
                 JOptionPane.showMessageDialog(this,
                         "Failed to send reply: " + ex.getMessage(),
                         "Error", JOptionPane.ERROR_MESSAGE);
-            }
+            });
         });
         buttonPanel.add(sendButton);
 
@@ -815,6 +940,7 @@ public class Application extends JFrame {
 
         gbc.gridx = 1;
         JTextField toField = new JTextField(30);
+        AddressAutocomplete.attach(toField, userDirectory);
         formPanel.add(toField, gbc);
 
         gbc.gridx = 0;
@@ -847,47 +973,27 @@ public class Application extends JFrame {
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
         JButton sendButton = new JButton("Forward");
         sendButton.addActionListener(e -> {
-            try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-                String[] emails = toField.getText().split(",");
-                List<User> recipients = new ArrayList<>();
-
-                for (String email : emails) {
-                    String trimmedEmail = formatEmail(email.trim());
-                    Optional<User> recipient = userService.findByEmail(trimmedEmail, session);
-                    if (recipient.isPresent()) {
-                        recipients.add(recipient.get());
-                    } else {
-                        JOptionPane.showMessageDialog(this,
-                                "User with email " + trimmedEmail + " not found",
-                                "Error", JOptionPane.ERROR_MESSAGE);
-                        return;
-                    }
-                }
-
-                if (recipients.isEmpty()) {
-                    JOptionPane.showMessageDialog(this,
-                            "Please specify at least one recipient",
-                            "Error", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-
-                Mail forwardedMail = mailService.forwardMail(
+            String to = toField.getText();
+            taskRunner.submit(session -> {
+                AddressResolver.Addressees addressees = resolveRecipients(to, session);
+                return mailService.forwardMail(
                         originalMail,
                         currentUser,
-                        recipients,
+                        addressees.getUsers(),
+                        addressees.getLists(),
                         session
                 );
-
+            }, forwardedMail -> {
                 JOptionPane.showMessageDialog(this,
                         "Successfully forwarded your email.\nCode: " + forwardedMail.getCode(),
                         "Success", JOptionPane.INFORMATION_MESSAGE);
                 loadInbox();
-            } catch (Exception ex) {
+            }, ex -> {
                 logger.log(Level.SEVERE, "Error forwarding mail", ex);
                 JOptionPane.showMessageDialog(this,
                         "Failed to forward mail: " + ex.getMessage(),
                         "Error", JOptionPane.ERROR_MESSAGE);
-            }
+            });
         });
         buttonPanel.add(sendButton);
 
@@ -895,10 +1001,64 @@ public class Application extends JFrame {
         forwardPanel.add(buttonPanel, BorderLayout.SOUTH);
 
         contentPanel.setContent(forwardPanel);
+        refreshAddressSuggestions();
+    }
+
+    private class MailListPager {
+        private final String title;
+        private final DefaultListModel<MailDto> listModel;
+        private final BiFunction<String, Session, MailPage> pageLoader;
+        private String nextPageToken;
+        private boolean exhausted;
+        private boolean loading;
+
+        MailListPager(String title, DefaultListModel<MailDto> listModel,
+                      BiFunction<String, Session, MailPage> pageLoader) {
+            this.title = title;
+            this.listModel = listModel;
+            this.pageLoader = pageLoader;
+        }
+
+        void append(MailPage page) {
+            for (MailDto mail : page.getMails()) {
+                listModel.addElement(mail);
+            }
+            nextPageToken = page.getNextPageToken();
+            exhausted = !page.hasMore();
+        }
+
+        void loadNextPage() {
+            if (exhausted || loading) {
+                return;
+            }
+            loading = true;
+            String pageToken = nextPageToken;
+            taskRunner.submit(PAGE_CHANNEL, session -> pageLoader.apply(pageToken, session), page -> {
+                loading = false;
+                append(page);
+            }, e -> {
+                loading = false;
+                logger.log(Level.SEVERE, "Error loading " + title, e);
+                JOptionPane.showMessageDialog(Application.this,
+                        "Failed to load " + title + ": " + e.getMessage(),
+                        "Error", JOptionPane.ERROR_MESSAGE);
+            });
+        }
     }
 
     private void logout() {
+        taskRunner.cancel(CONTENT_CHANNEL);
+        taskRunner.cancel(PAGE_CHANNEL);
+        String token = sessionToken;
+        if (token != null) {
+            taskRunner.submit(session -> {
+                userService.endSession(token);
+                return null;
+            }, ended -> {
+            }, e -> logger.log(Level.WARNING, "Failed to end session", e));
+        }
         currentUser = null;
+        sessionToken = null;
         getContentPane().removeAll();
         initializeLoginScreen();
     }
@@ -0,0 +1,98 @@
+package aut.ap.graphic;
+
+import aut.ap.util.HibernateUtil;
+import org.hibernate.Session;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+// Runs service calls on SwingWorker threads, each with its own Hibernate session,
+// and hands results back on the EDT. All methods must be called on the EDT.
+public class BackgroundTaskRunner {
+    private final Component owner;
+    private final JProgressBar progressBar;
+    private final Map<String, SwingWorker<?, ?>> latestByChannel = new HashMap<>();
+    private int runningTasks;
+
+    @FunctionalInterface
+    public interface SessionTask<T> {
+        T run(Session session) throws Exception;
+    }
+
+    public BackgroundTaskRunner(Component owner, JProgressBar progressBar) {
+        this.owner = owner;
+        this.progressBar = progressBar;
+        progressBar.setIndeterminate(true);
+        progressBar.setVisible(false);
+    }
+
+    public <T> void submit(SessionTask<T> task, Consumer<T> onSuccess, Consumer<Exception> onFailure) {
+        submit(null, task, onSuccess, onFailure);
+    }
+
+    // A task submitted on a channel supersedes the one still running on it: the old
+    // task is cancelled and its result, if it arrives anyway, is dropped.
+    public <T> void submit(String channel, SessionTask<T> task,
+                           Consumer<T> onSuccess, Consumer<Exception> onFailure) {
+        SwingWorker<T, Void> worker = new SwingWorker<>() {
+            @Override
+            protected T doInBackground() throws Exception {
+                try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+                    return task.run(session);
+                }
+            }
+
+            @Override
+            protected void done() {
+                taskFinished(channel, this);
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    onSuccess.accept(get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    onFailure.accept(cause instanceof Exception ? (Exception) cause : e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        if (channel != null) {
+            cancel(channel);
+            latestByChannel.put(channel, worker);
+        }
+        taskStarted();
+        worker.execute();
+    }
+
+    public void cancel(String channel) {
+        SwingWorker<?, ?> previous = latestByChannel.remove(channel);
+        if (previous != null) {
+            // Don't interrupt: a JDBC call in flight is left to finish and its result ignored
+            previous.cancel(false);
+        }
+    }
+
+    private void taskStarted() {
+        runningTasks++;
+        progressBar.setVisible(true);
+        owner.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+    }
+
+    private void taskFinished(String channel, SwingWorker<?, ?> worker) {
+        if (channel != null && latestByChannel.get(channel) == worker) {
+            latestByChannel.remove(channel);
+        }
+        runningTasks--;
+        if (runningTasks == 0) {
+            progressBar.setVisible(false);
+            owner.setCursor(Cursor.getDefaultCursor());
+        }
+    }
+}
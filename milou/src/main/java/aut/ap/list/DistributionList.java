@@ -0,0 +1,79 @@
+package aut.ap.list;
+
+import aut.ap.user.User;
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+// A named group of users addressed like a mailbox. Members live in distribution_list_members
+// and are never loaded as a collection; sends expand them in the database, see OutboxDispatcher.
+@Entity
+@Table(name = "distribution_lists")
+public class DistributionList {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Column(name = "address", nullable = false, unique = true)
+    private String address;
+
+    @Column(name = "name", nullable = false, length = 100)
+    private String name;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "owner_id", nullable = false)
+    private User owner;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    protected DistributionList() {
+        // Required by JPA
+    }
+
+    public DistributionList(String address, String name, User owner) {
+        this.address = Objects.requireNonNull(address);
+        this.name = Objects.requireNonNull(name);
+        this.owner = Objects.requireNonNull(owner);
+        this.createdAt = LocalDateTime.now();
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public User getOwner() {
+        return owner;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        DistributionList that = (DistributionList) o;
+        return Objects.equals(id, that.id) && Objects.equals(address, that.address);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, address);
+    }
+
+    @Override
+    public String toString() {
+        return name + " <" + address + ">";
+    }
+}
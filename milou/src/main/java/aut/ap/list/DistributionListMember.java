@@ -0,0 +1,30 @@
+package aut.ap.list;
+
+import jakarta.persistence.*;
+
+// One user on one list. Only written and read with set-based SQL in DistributionListRepository;
+// the primary key order (list_id, user_id) is what list expansion walks in chunks.
+@Entity
+@Table(name = "distribution_list_members")
+@IdClass(DistributionListMemberId.class)
+public class DistributionListMember {
+    @Id
+    @Column(name = "list_id")
+    private Integer listId;
+
+    @Id
+    @Column(name = "user_id")
+    private Integer userId;
+
+    protected DistributionListMember() {
+        // Required by JPA
+    }
+
+    public Integer getListId() {
+        return listId;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+}
@@ -0,0 +1,38 @@
+package aut.ap.list;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+public class DistributionListMemberId implements Serializable {
+    private Integer listId;
+    private Integer userId;
+
+    public DistributionListMemberId() {
+    }
+
+    public DistributionListMemberId(Integer listId, Integer userId) {
+        this.listId = listId;
+        this.userId = userId;
+    }
+
+    public Integer getListId() {
+        return listId;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        DistributionListMemberId that = (DistributionListMemberId) o;
+        return Objects.equals(listId, that.listId) && Objects.equals(userId, that.userId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(listId, userId);
+    }
+}
@@ -0,0 +1,87 @@
+package aut.ap.list;
+
+import org.hibernate.Session;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// Membership is changed with INSERT ... SELECT / DELETE statements over users, chunked by
+// address, so even very large lists are maintained without loading their members
+public class DistributionListRepository {
+    private static final String MEMBERS_TABLE = "distribution_list_members";
+    private static final int IN_LIST_LIMIT = 500;
+
+    public DistributionList findById(int listId, Session session) {
+        return session.get(DistributionList.class, listId);
+    }
+
+    public List<DistributionList> findByAddresses(Collection<String> addresses, Session session) {
+        List<DistributionList> lists = new ArrayList<>();
+        List<String> pending = new ArrayList<>(addresses);
+        for (int from = 0; from < pending.size(); from += IN_LIST_LIMIT) {
+            lists.addAll(session.createQuery(
+                            "FROM DistributionList l WHERE l.address IN (:addresses)", DistributionList.class)
+                    .setParameterList("addresses", pending.subList(from, Math.min(pending.size(), from + IN_LIST_LIMIT)))
+                    .getResultList());
+        }
+        return lists;
+    }
+
+    public boolean existsByAddress(String address, Session session) {
+        return session.createQuery(
+                        "SELECT COUNT(l) FROM DistributionList l WHERE l.address = :address", Long.class)
+                .setParameter("address", address)
+                .getSingleResult() > 0;
+    }
+
+    public boolean isMember(int listId, int userId, Session session) {
+        return session.createNativeQuery(
+                        "SELECT COUNT(*) FROM distribution_list_members WHERE list_id = :listId AND user_id = :userId",
+                        Long.class)
+                .setParameter("listId", listId)
+                .setParameter("userId", userId)
+                .getSingleResult() > 0;
+    }
+
+    public long countMembers(int listId, Session session) {
+        return session.createNativeQuery(
+                        "SELECT COUNT(*) FROM distribution_list_members WHERE list_id = :listId", Long.class)
+                .setParameter("listId", listId)
+                .getSingleResult();
+    }
+
+    // Adds the users with these addresses; unknown addresses and existing members are skipped.
+    // Returns the number of members added.
+    public int addMembers(int listId, Collection<String> emails, Session session) {
+        int added = 0;
+        List<String> pending = new ArrayList<>(emails);
+        for (int from = 0; from < pending.size(); from += IN_LIST_LIMIT) {
+            added += session.createNativeQuery(
+                            "INSERT INTO distribution_list_members (list_id, user_id) " +
+                                    "SELECT :listId, u.id FROM users u WHERE u.email IN (:emails) " +
+                                    "AND NOT EXISTS (SELECT 1 FROM distribution_list_members m " +
+                                    "WHERE m.list_id = :listId AND m.user_id = u.id)")
+                    .addSynchronizedQuerySpace(MEMBERS_TABLE)
+                    .setParameter("listId", listId)
+                    .setParameterList("emails", pending.subList(from, Math.min(pending.size(), from + IN_LIST_LIMIT)))
+                    .executeUpdate();
+        }
+        return added;
+    }
+
+    public int removeMembers(int listId, Collection<String> emails, Session session) {
+        int removed = 0;
+        List<String> pending = new ArrayList<>(emails);
+        for (int from = 0; from < pending.size(); from += IN_LIST_LIMIT) {
+            removed += session.createNativeQuery(
+                            "DELETE FROM distribution_list_members WHERE list_id = :listId " +
+                                    "AND user_id IN (SELECT u.id FROM users u WHERE u.email IN (:emails))")
+                    .addSynchronizedQuerySpace(MEMBERS_TABLE)
+                    .setParameter("listId", listId)
+                    .setParameterList("emails", pending.subList(from, Math.min(pending.size(), from + IN_LIST_LIMIT)))
+                    .executeUpdate();
+        }
+        return removed;
+    }
+}
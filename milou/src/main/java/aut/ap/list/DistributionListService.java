@@ -0,0 +1,123 @@
+package aut.ap.list;
+
+import aut.ap.user.User;
+import aut.ap.user.UserRepository;
+import aut.ap.user.UserValidation;
+import org.hibernate.Session;
+
+import java.util.Collection;
+import java.util.List;
+
+// Lists are addressed like mailboxes, so an address belongs to either a user or a list.
+// Only the owner changes a list; its owner and members may send to it.
+public class DistributionListService {
+    private final DistributionListRepository listRepository;
+    private final UserRepository userRepository;
+    private final UserValidation userValidation;
+
+    public DistributionListService() {
+        this.listRepository = new DistributionListRepository();
+        this.userRepository = new UserRepository();
+        this.userValidation = new UserValidation();
+    }
+
+    public DistributionList createList(User owner, String address, String name, Session session) {
+        userValidation.validateEmail(address);
+        userValidation.validateName(name);
+        boolean transactionOwner = !session.getTransaction().isActive();
+        try {
+            if (transactionOwner) {
+                session.beginTransaction();
+            }
+            if (userRepository.existsByEmail(address, session) || listRepository.existsByAddress(address, session)) {
+                throw new IllegalArgumentException("Address already in use: " + address);
+            }
+            DistributionList list = new DistributionList(address, name.trim(), owner);
+            session.persist(list);
+            if (transactionOwner) {
+                session.getTransaction().commit();
+            }
+            return list;
+        } catch (IllegalArgumentException e) {
+            rollback(transactionOwner, session);
+            throw e;
+        } catch (Exception e) {
+            rollback(transactionOwner, session);
+            throw new RuntimeException("Error creating distribution list", e);
+        }
+    }
+
+    // Returns the number of users added; unknown addresses are skipped
+    public int addMembers(int listId, User actor, Collection<String> emails, Session session) {
+        boolean transactionOwner = !session.getTransaction().isActive();
+        try {
+            if (transactionOwner) {
+                session.beginTransaction();
+            }
+            requireOwner(listId, actor, session);
+            int added = listRepository.addMembers(listId, emails, session);
+            if (transactionOwner) {
+                session.getTransaction().commit();
+            }
+            return added;
+        } catch (Exception e) {
+            rollback(transactionOwner, session);
+            throw new RuntimeException("Error adding list members", e);
+        }
+    }
+
+    public int removeMembers(int listId, User actor, Collection<String> emails, Session session) {
+        boolean transactionOwner = !session.getTransaction().isActive();
+        try {
+            if (transactionOwner) {
+                session.beginTransaction();
+            }
+            requireOwner(listId, actor, session);
+            int removed = listRepository.removeMembers(listId, emails, session);
+            if (transactionOwner) {
+                session.getTransaction().commit();
+            }
+            return removed;
+        } catch (Exception e) {
+            rollback(transactionOwner, session);
+            throw new RuntimeException("Error removing list members", e);
+        }
+    }
+
+    public List<DistributionList> findByAddresses(Collection<String> addresses, Session session) {
+        try {
+            return listRepository.findByAddresses(addresses, session);
+        } catch (Exception e) {
+            throw new RuntimeException("Error finding distribution lists", e);
+        }
+    }
+
+    public long countMembers(int listId, Session session) {
+        try {
+            return listRepository.countMembers(listId, session);
+        } catch (Exception e) {
+            throw new RuntimeException("Error counting list members", e);
+        }
+    }
+
+    public boolean canPost(DistributionList list, User sender, Session session) {
+        return list.getOwner().getId() == sender.getId()
+                || listRepository.isMember(list.getId(), sender.getId(), session);
+    }
+
+    private void requireOwner(int listId, User actor, Session session) {
+        DistributionList list = listRepository.findById(listId, session);
+        if (list == null) {
+            throw new IllegalArgumentException("Distribution list not found.");
+        }
+        if (list.getOwner().getId() != actor.getId()) {
+            throw new SecurityException("Only the owner can change this list.");
+        }
+    }
+
+    private static void rollback(boolean transactionOwner, Session session) {
+        if (transactionOwner && session.getTransaction().isActive()) {
+            session.getTransaction().rollback();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package aut.ap.mail;
+
+import aut.ap.list.DistributionList;
+import aut.ap.list.DistributionListService;
+import aut.ap.user.DirectoryEntry;
+import aut.ap.user.User;
+import aut.ap.user.UserDirectory;
+import org.hibernate.Session;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// Turns the addresses a sender typed into users and distribution lists. An address that is
+// neither is rejected with IllegalArgumentException.
+public class AddressResolver {
+    private final UserDirectory userDirectory;
+    private final DistributionListService listService;
+
+    public AddressResolver(UserDirectory userDirectory, DistributionListService listService) {
+        this.userDirectory = userDirectory;
+        this.listService = listService;
+    }
+
+    public Addressees resolve(Collection<String> emails, Session session) {
+        // One IN query at most for the addresses the directory has not seen lately
+        Map<String, DirectoryEntry> found = userDirectory.findByEmails(emails, session);
+        List<Integer> recipientIds = new ArrayList<>();
+        List<String> otherAddresses = new ArrayList<>();
+        for (String email : emails) {
+            DirectoryEntry entry = found.get(email);
+            if (entry != null) {
+                recipientIds.add(entry.getId());
+            } else {
+                otherAddresses.add(email);
+            }
+        }
+
+        List<DistributionList> lists = new ArrayList<>();
+        if (!otherAddresses.isEmpty()) {
+            lists = listService.findByAddresses(otherAddresses, session);
+            Set<String> listAddresses = lists.stream()
+                    .map(list -> list.getAddress().toLowerCase(Locale.ROOT))
+                    .collect(Collectors.toSet());
+            for (String address : otherAddresses) {
+                if (!listAddresses.contains(address.toLowerCase(Locale.ROOT))) {
+                    throw new IllegalArgumentException("User with email " + address + " not found");
+                }
+            }
+        }
+        // Users come from the second-level cache where possible, the rest in one batch
+        return new Addressees(session.byMultipleIds(User.class).multiLoad(recipientIds), lists);
+    }
+
+    public static final class Addressees {
+        private final List<User> users;
+        private final List<DistributionList> lists;
+
+        Addressees(List<User> users, List<DistributionList> lists) {
+            this.users = users;
+            this.lists = lists;
+        }
+
+        public List<User> getUsers() {
+            return users;
+        }
+
+        public List<DistributionList> getLists() {
+            return lists;
+        }
+    }
+}
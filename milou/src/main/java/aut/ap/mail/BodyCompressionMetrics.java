@@ -0,0 +1,67 @@
+package aut.ap.mail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts what CompressedTextConverter does with mail bodies: how much they shrink and how
+// long encoding and inflating take per body
+public class BodyCompressionMetrics {
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder compressedWrites = new LongAdder();
+    private final LongAdder textBytes = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final LongAdder inflations = new LongAdder();
+    private final LongAdder inflateNanos = new LongAdder();
+
+    void recordWrite(int textLength, int storedLength, boolean compressed, long nanos) {
+        writes.increment();
+        if (compressed) {
+            compressedWrites.increment();
+        }
+        textBytes.add(textLength);
+        storedBytes.add(storedLength);
+        writeNanos.add(nanos);
+    }
+
+    void recordRead(long nanos) {
+        inflations.increment();
+        inflateNanos.add(nanos);
+    }
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getCompressedWrites() {
+        return compressedWrites.sum();
+    }
+
+    // Stored bytes per UTF-8 byte of text over every write, format headers included
+    public double getCompressionRatio() {
+        long text = textBytes.sum();
+        return text == 0 ? 1.0 : (double) storedBytes.sum() / text;
+    }
+
+    public double getAverageWriteMicros() {
+        long count = writes.sum();
+        return count == 0 ? 0.0 : (double) writeNanos.sum() / count / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    public long getInflations() {
+        return inflations.sum();
+    }
+
+    public double getAverageInflateMicros() {
+        long count = inflations.sum();
+        return count == 0 ? 0.0 : (double) inflateNanos.sum() / count / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BodyCompressionMetrics{writes=%d, compressed=%d, ratio=%.3f, avgWriteUs=%.1f, " +
+                        "inflations=%d, avgInflateUs=%.1f}",
+                getWrites(), getCompressedWrites(), getCompressionRatio(), getAverageWriteMicros(),
+                getInflations(), getAverageInflateMicros());
+    }
+}
@@ -0,0 +1,115 @@
+package aut.ap.mail;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Stores text as UTF-8 behind a one-byte format header, deflating it when it is long enough
+// for that to pay off:
+//   0x00 <utf-8 bytes>
+//   0x01 <uncompressed length, 4 bytes> <raw deflate stream>
+// Unknown formats fail loudly, so a newer writer is never misread as text.
+@Converter
+public class CompressedTextConverter implements AttributeConverter<String, byte[]> {
+    static final byte FORMAT_PLAIN = 0;
+    static final byte FORMAT_DEFLATE = 1;
+    // Below this many UTF-8 bytes deflate rarely saves more than its own framing
+    public static final int COMPRESSION_THRESHOLD = 512;
+    private static final BodyCompressionMetrics metrics = new BodyCompressionMetrics();
+
+    public static BodyCompressionMetrics metrics() {
+        return metrics;
+    }
+
+    @Override
+    public byte[] convertToDatabaseColumn(String text) {
+        if (text == null) {
+            return null;
+        }
+        long started = System.nanoTime();
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        byte[] stored = utf8.length >= COMPRESSION_THRESHOLD ? deflate(utf8) : null;
+        boolean compressed = stored != null;
+        if (!compressed) {
+            stored = new byte[utf8.length + 1];
+            stored[0] = FORMAT_PLAIN;
+            System.arraycopy(utf8, 0, stored, 1, utf8.length);
+        }
+        metrics.recordWrite(utf8.length, stored.length, compressed, System.nanoTime() - started);
+        return stored;
+    }
+
+    @Override
+    public String convertToEntityAttribute(byte[] stored) {
+        if (stored == null) {
+            return null;
+        }
+        if (stored.length == 0) {
+            throw new IllegalStateException("Stored text is missing its format header");
+        }
+        switch (stored[0]) {
+            case FORMAT_PLAIN:
+                return new String(stored, 1, stored.length - 1, StandardCharsets.UTF_8);
+            case FORMAT_DEFLATE:
+                long started = System.nanoTime();
+                String text = new String(inflate(stored), StandardCharsets.UTF_8);
+                metrics.recordRead(System.nanoTime() - started);
+                return text;
+            default:
+                throw new IllegalStateException("Unknown stored text format " + stored[0]);
+        }
+    }
+
+    // Returns null when compressing would not make the value smaller
+    private static byte[] deflate(byte[] utf8) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(utf8);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(utf8.length / 2 + 16);
+            out.write(FORMAT_DEFLATE);
+            out.writeBytes(ByteBuffer.allocate(Integer.BYTES).putInt(utf8.length).array());
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+                if (out.size() > utf8.length) {
+                    return null;
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] stored) {
+        if (stored.length < 1 + Integer.BYTES) {
+            throw new IllegalStateException("Compressed text is truncated");
+        }
+        int length = ByteBuffer.wrap(stored, 1, Integer.BYTES).getInt();
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(stored, 1 + Integer.BYTES, stored.length - 1 - Integer.BYTES);
+            byte[] utf8 = new byte[length];
+            int filled = 0;
+            while (filled < length) {
+                int read = inflater.inflate(utf8, filled, length - filled);
+                if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("Compressed text is truncated");
+                }
+                filled += read;
+            }
+            return utf8;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Compressed text is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -1,16 +1,24 @@
 package aut.ap.mail;
 
+import aut.ap.list.DistributionList;
 import aut.ap.user.User;
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Entity
 @Table(name = "mails")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "mails")
 public class Mail {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -29,8 +37,10 @@ public class Mail {
     @Column(name = "subject", nullable = false, length = 255)
     private String subject;
 
-    @Column(name = "body", nullable = false, columnDefinition = "TEXT")
-    private String body;
+    // Shared with every other mail of the same content, see MailBodyRepository
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "body_id", nullable = false)
+    private MailBody body;
 
     @Column(name = "sent_date", nullable = false)
     private LocalDateTime sentDate;
@@ -44,16 +54,26 @@ public class Mail {
     @Column(name = "deleted_by_id")
     private Integer deletedById;
 
+    // Distribution lists the mail was addressed to; their members get recipient rows on delivery
+    @ManyToMany(fetch = FetchType.LAZY)
+    @JoinTable(name = "mail_lists",
+            joinColumns = @JoinColumn(name = "mail_id"),
+            inverseJoinColumns = @JoinColumn(name = "list_id"))
+    private Set<DistributionList> lists = new LinkedHashSet<>();
+
     @Transient
     private Boolean readForCurrentUser;
 
+    @Transient
+    private List<User> directRecipients;
+
     // Constructors
     protected Mail() {
         // Required by JPA
     }
 
     public Mail(String code, User sender, List<User> recipients,
-                String subject, String body, LocalDateTime sentDate) {
+                String subject, MailBody body, LocalDateTime sentDate) {
         this.code = validateCode(code);
         this.sender = validateSender(sender);
         this.subject = validateSubject(subject);
@@ -87,7 +107,7 @@ public class Mail {
         return Objects.requireNonNull(subject, "Subject cannot be null");
     }
 
-    private String validateBody(String body) {
+    private MailBody validateBody(MailBody body) {
         return Objects.requireNonNull(body, "Body cannot be null");
     }
 
@@ -114,11 +134,39 @@ public class Mail {
                 .collect(Collectors.toList());
     }
 
+    // Recipients addressed by themselves rather than through a list. Set when the mail is
+    // opened through MailService, so list members are never loaded just to show the header.
+    public List<User> getDirectRecipients() {
+        if (directRecipients != null) {
+            return directRecipients;
+        }
+        return mailRecipients.stream()
+                .filter(mailRecipient -> mailRecipient.getListId() == null)
+                .map(MailRecipient::getRecipient)
+                .collect(Collectors.toList());
+    }
+
+    void setDirectRecipients(List<User> directRecipients) {
+        this.directRecipients = directRecipients;
+    }
+
+    public Set<DistributionList> getLists() {
+        return lists;
+    }
+
+    void addList(DistributionList list) {
+        lists.add(Objects.requireNonNull(list));
+    }
+
     public String getSubject() {
         return subject;
     }
 
     public String getBody() {
+        return body.getText();
+    }
+
+    public MailBody getBodyContent() {
         return body;
     }
 
@@ -147,10 +195,6 @@ public class Mail {
         this.subject = validateSubject(subject);
     }
 
-    public void setBody(String body) {
-        this.body = validateBody(body);
-    }
-
     public void setSentDate(LocalDateTime sentDate) {
         this.sentDate = validateSentDate(sentDate);
     }
@@ -0,0 +1,107 @@
+package aut.ap.mail;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Immutable;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// One fragment of a mail body, stored once per distinct content. A fragment can continue in
+// another one (next): a forward stores only its header and points at the forwarded body.
+// Rows are written and reference counted by MailBodyRepository only.
+@Entity
+@Table(name = "mail_bodies")
+@Immutable
+@BatchSize(size = 50)
+public class MailBody {
+    public static final int HASH_LENGTH = 32;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // Covers this fragment and every fragment after it, so equal bodies hash alike
+    @Column(name = "content_hash", nullable = false, unique = true, length = HASH_LENGTH)
+    private byte[] contentHash;
+
+    // Deflated once it is long enough; the row itself is only loaded when a mail body is read
+    @Convert(converter = CompressedTextConverter.class)
+    @Column(name = "body", nullable = false, columnDefinition = "MEDIUMBLOB")
+    private String content;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "next_id")
+    private MailBody next;
+
+    // Mails plus fragments that point at this row
+    @Column(name = "ref_count", nullable = false)
+    private int refCount;
+
+    protected MailBody() {
+        // Required by JPA
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public byte[] getContentHash() {
+        return contentHash.clone();
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public MailBody getNext() {
+        return next;
+    }
+
+    public int getRefCount() {
+        return refCount;
+    }
+
+    // The full body text: this fragment followed by the rest of the chain
+    public String getText() {
+        if (next == null) {
+            return content;
+        }
+        StringBuilder text = new StringBuilder(content);
+        // Through the getters, since the rest of the chain are lazy proxies
+        for (MailBody fragment = next; fragment != null; fragment = fragment.getNext()) {
+            text.append(fragment.getContent());
+        }
+        return text.toString();
+    }
+
+    public static byte[] hash(String content, MailBody next) {
+        return hash(content, next != null ? next.getContentHash() : null);
+    }
+
+    // SHA-256 of the UTF-8 content, followed by the hash of the next fragment when there is one.
+    // A single fragment hashes like MySQL's SHA2(body, 256), which migration V3 relies on.
+    public static byte[] hash(String content, byte[] nextHash) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content.getBytes(StandardCharsets.UTF_8));
+            if (nextHash != null) {
+                digest.update(nextHash);
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MailBody{" +
+                "id=" + id +
+                ", length=" + (content != null ? content.length() : 0) +
+                ", nextId=" + (next != null ? next.getId() : "null") +
+                ", refCount=" + refCount +
+                '}';
+    }
+}
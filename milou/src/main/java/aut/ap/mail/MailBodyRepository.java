@@ -0,0 +1,87 @@
+package aut.ap.mail;
+
+import org.hibernate.Session;
+import org.hibernate.query.NativeQuery;
+
+import java.util.Collection;
+import java.util.List;
+
+// Stores mail bodies content-addressed in mail_bodies. Storing a body that already exists
+// only takes another reference to it; releasing the last reference deletes the row and
+// releases the fragment it continues in.
+public class MailBodyRepository {
+    private final CompressedTextConverter converter = new CompressedTextConverter();
+
+    // Returns the row holding this content, taking one reference for the caller. The row comes
+    // back as an unloaded reference, so storing never reads or inflates an existing body.
+    public MailBody store(String content, MailBody next, Session session) {
+        byte[] hash = MailBody.hash(content, next);
+        NativeQuery<?> insert = session.createNativeQuery(
+                        "INSERT INTO mail_bodies (content_hash, body, next_id, ref_count) " +
+                                "VALUES (:hash, :content, :nextId, 1) " +
+                                "ON DUPLICATE KEY UPDATE ref_count = ref_count + 1")
+                .addSynchronizedEntityClass(MailBody.class);
+        // MySQL reports 1 affected row for an insert and 2 for the duplicate-key update
+        int affected = insert
+                .setParameter("hash", hash)
+                .setParameter("content", converter.convertToDatabaseColumn(content))
+                .setParameter("nextId", next != null ? next.getId() : null, Long.class)
+                .executeUpdate();
+        if (affected == 1 && next != null) {
+            // A new fragment is one more reference to the one it continues in
+            acquire(next.getId(), session);
+        }
+
+        Long id = session.createNativeQuery("SELECT id FROM mail_bodies WHERE content_hash = :hash", Long.class)
+                .setParameter("hash", hash)
+                .getSingleResult();
+        return session.getReference(MailBody.class, id);
+    }
+
+    public void acquire(long bodyId, Session session) {
+        session.createNativeQuery("UPDATE mail_bodies SET ref_count = ref_count + 1 WHERE id = :id")
+                .addSynchronizedEntityClass(MailBody.class)
+                .setParameter("id", bodyId)
+                .executeUpdate();
+    }
+
+    // One release per reference; a body held by several of the mails appears several times
+    public int release(Collection<Long> bodyIds, Session session) {
+        int deleted = 0;
+        for (Long bodyId : bodyIds) {
+            deleted += release(bodyId, session);
+        }
+        return deleted;
+    }
+
+    // Returns the number of rows deleted, following the chain while fragments become unreferenced
+    public int release(long bodyId, Session session) {
+        int deleted = 0;
+        Long current = bodyId;
+        while (current != null) {
+            session.createNativeQuery("UPDATE mail_bodies SET ref_count = ref_count - 1 WHERE id = :id")
+                    .addSynchronizedEntityClass(MailBody.class)
+                    .setParameter("id", current)
+                    .executeUpdate();
+
+            List<Long> next = session.createNativeQuery(
+                            "SELECT next_id FROM mail_bodies WHERE id = :id AND ref_count <= 0", Long.class)
+                    .setParameter("id", current)
+                    .getResultList();
+            if (next.isEmpty()) {
+                break;
+            }
+            // A concurrent store() may have taken a new reference since, in which case nothing is deleted
+            int removed = session.createNativeQuery("DELETE FROM mail_bodies WHERE id = :id AND ref_count <= 0")
+                    .addSynchronizedEntityClass(MailBody.class)
+                    .setParameter("id", current)
+                    .executeUpdate();
+            if (removed == 0) {
+                break;
+            }
+            deleted++;
+            current = next.get(0);
+        }
+        return deleted;
+    }
+}
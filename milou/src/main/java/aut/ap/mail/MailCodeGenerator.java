@@ -0,0 +1,7 @@
+package aut.ap.mail;
+
+// Produces the public code of a new mail. Implementations must be thread-safe and must
+// never return the same code twice, including across application instances.
+public interface MailCodeGenerator {
+    String nextCode();
+}
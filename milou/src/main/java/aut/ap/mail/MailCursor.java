@@ -0,0 +1,53 @@
+package aut.ap.mail;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Objects;
+
+// Position of the last row of a folder page as its (sort key, id) pair.
+// Callers only ever see it encoded, so the layout can change freely.
+class MailCursor {
+    private static final String SEPARATOR = "|";
+
+    private final LocalDateTime sortKey;
+    private final int id;
+
+    MailCursor(LocalDateTime sortKey, int id) {
+        this.sortKey = Objects.requireNonNull(sortKey, "Sort key cannot be null");
+        this.id = id;
+    }
+
+    LocalDateTime getSortKey() {
+        return sortKey;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    String encode() {
+        String raw = sortKey + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static MailCursor decode(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = raw.lastIndexOf(SEPARATOR);
+            if (separator < 0) {
+                throw new IllegalArgumentException("Invalid page token.");
+            }
+            return new MailCursor(
+                    LocalDateTime.parse(raw.substring(0, separator)),
+                    Integer.parseInt(raw.substring(separator + 1)));
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid page token.", e);
+        }
+    }
+}
@@ -74,6 +74,20 @@ public class MailDto {
                 '}';
     }
 
+    // Copy with a different read flag, for updating a list after marking mails read
+    public MailDto withRead(boolean isRead) {
+        return builder()
+                .id(id)
+                .code(code)
+                .subject(subject)
+                .senderName(senderName)
+                .senderEmail(senderEmail)
+                .sentDate(sentDate)
+                .isRead(isRead)
+                .isDeleted(isDeleted)
+                .build();
+    }
+
     // Builder pattern
     public static Builder builder() {
         return new Builder();
@@ -0,0 +1,51 @@
+package aut.ap.mail;
+
+// Ids and flags of one mail as seen by one user: enough to authorize an operation or decide
+// whether it is needed, without loading the Mail entity, its recipients or its body
+public class MailHeader {
+    private final int id;
+    private final String code;
+    private final int senderId;
+    private final boolean deletedBySender;
+    private final boolean recipient;
+    private final boolean read;
+    private final boolean deletedByRecipient;
+
+    MailHeader(int id, String code, int senderId, boolean deletedBySender,
+               boolean recipient, boolean read, boolean deletedByRecipient) {
+        this.id = id;
+        this.code = code;
+        this.senderId = senderId;
+        this.deletedBySender = deletedBySender;
+        this.recipient = recipient;
+        this.read = read;
+        this.deletedByRecipient = deletedByRecipient;
+    }
+
+    public int getId() { return id; }
+    public String getCode() { return code; }
+    public int getSenderId() { return senderId; }
+    public boolean isDeletedBySender() { return deletedBySender; }
+
+    // Whether the user the header was read for received the mail
+    public boolean isRecipient() { return recipient; }
+
+    // The user's read flag; mails the user only sent count as read
+    public boolean isRead() { return read; }
+    public boolean isDeletedByRecipient() { return deletedByRecipient; }
+
+    public boolean isSentBy(int userId) {
+        return senderId == userId;
+    }
+
+    @Override
+    public String toString() {
+        return "MailHeader{" +
+                "id=" + id +
+                ", code='" + code + '\'' +
+                ", senderId=" + senderId +
+                ", recipient=" + recipient +
+                ", read=" + read +
+                '}';
+    }
+}
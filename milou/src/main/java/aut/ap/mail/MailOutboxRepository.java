@@ -0,0 +1,226 @@
+package aut.ap.mail;
+
+import org.hibernate.Session;
+import org.hibernate.query.NativeQuery;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// mail_outbox and its dispatcher lease. Times come from the database clock, so sending
+// clients and the dispatching process never compare their own clocks with each other.
+public class MailOutboxRepository {
+    private static final String OUTBOX_TABLE = "mail_outbox";
+    private static final String LEASES_TABLE = "outbox_leases";
+    private static final int INSERT_CHUNK = 500;
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    // Members of a list chunk that do not have the mail yet, the sender excepted
+    private static final String UNDELIVERED_MEMBERS =
+            "FROM distribution_list_members dm WHERE dm.list_id = :listId " +
+                    "AND dm.user_id > :after AND dm.user_id <= :upTo " +
+                    "AND dm.user_id <> (SELECT sender_id FROM mails WHERE id = :mailId) " +
+                    "AND NOT EXISTS (SELECT 1 FROM mail_recipients r " +
+                    "WHERE r.mail_id = :mailId AND r.recipient_id = dm.user_id) ";
+
+    // Must run in the sender's transaction, after the mail was inserted
+    public void enqueue(int mailId, Collection<Integer> recipientIds, Session session) {
+        session.createNativeQuery(
+                        "INSERT INTO mail_outbox (mail_id, recipient_ids, list_cursor, status, attempts, " +
+                                "created_at, next_attempt_at) " +
+                                "VALUES (:mailId, :recipientIds, 0, 'PENDING', 0, LOCALTIMESTAMP(3), LOCALTIMESTAMP(3))")
+                .addSynchronizedQuerySpace(OUTBOX_TABLE)
+                .setParameter("mailId", mailId)
+                .setParameter("recipientIds", recipientIds.stream().map(String::valueOf).collect(Collectors.joining(",")))
+                .executeUpdate();
+    }
+
+    // One entry per list, after the mail's individual recipients
+    public void enqueueList(int mailId, int listId, Session session) {
+        session.createNativeQuery(
+                        "INSERT INTO mail_outbox (mail_id, recipient_ids, list_id, list_cursor, status, attempts, " +
+                                "created_at, next_attempt_at) " +
+                                "VALUES (:mailId, '', :listId, 0, 'PENDING', 0, LOCALTIMESTAMP(3), LOCALTIMESTAMP(3))")
+                .addSynchronizedQuerySpace(OUTBOX_TABLE)
+                .setParameter("mailId", mailId)
+                .setParameter("listId", listId)
+                .executeUpdate();
+    }
+
+    // The oldest pending entries after afterId, due or not: the dispatcher needs the ones waiting
+    // to be retried to know which later entries must wait behind them
+    public List<OutboxEntry> findPending(long afterId, int limit, Session session) {
+        return session.createQuery(
+                        "FROM OutboxEntry e WHERE e.status = :status AND e.id > :afterId ORDER BY e.id", OutboxEntry.class)
+                .setParameter("status", OutboxEntry.Status.PENDING)
+                .setParameter("afterId", afterId)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    public long countPending(Session session) {
+        return session.createQuery("SELECT COUNT(e) FROM OutboxEntry e WHERE e.status = :status", Long.class)
+                .setParameter("status", OutboxEntry.Status.PENDING)
+                .getSingleResult();
+    }
+
+    public LocalDateTime databaseTime(Session session) {
+        Object now = session.createNativeQuery("SELECT LOCALTIMESTAMP(3)").getSingleResult();
+        return now instanceof Timestamp ? ((Timestamp) now).toLocalDateTime() : (LocalDateTime) now;
+    }
+
+    // Writes the recipient rows of several mails, skipping rows an earlier attempt already wrote,
+    // so a retried entry never delivers twice. Returns one recipient id per row written.
+    public List<Integer> insertRecipients(Map<Integer, List<Integer>> recipientsByMail, Session session) {
+        Set<Integer> recipientIds = new HashSet<>();
+        recipientsByMail.values().forEach(recipientIds::addAll);
+        Set<Long> existing = new HashSet<>();
+        for (Object[] row : session.createNativeQuery(
+                        "SELECT mail_id, recipient_id FROM mail_recipients " +
+                                "WHERE mail_id IN (:mailIds) AND recipient_id IN (:recipientIds)", Object[].class)
+                .setParameterList("mailIds", recipientsByMail.keySet())
+                .setParameterList("recipientIds", recipientIds)
+                .getResultList()) {
+            existing.add(pair(((Number) row[0]).intValue(), ((Number) row[1]).intValue()));
+        }
+
+        List<int[]> rows = new ArrayList<>();
+        for (Map.Entry<Integer, List<Integer>> mail : recipientsByMail.entrySet()) {
+            for (Integer recipientId : mail.getValue()) {
+                if (!existing.contains(pair(mail.getKey(), recipientId))) {
+                    rows.add(new int[]{mail.getKey(), recipientId});
+                }
+            }
+        }
+
+        List<Integer> delivered = new ArrayList<>(rows.size());
+        for (int from = 0; from < rows.size(); from += INSERT_CHUNK) {
+            List<int[]> chunk = rows.subList(from, Math.min(rows.size(), from + INSERT_CHUNK));
+            StringBuilder sql = new StringBuilder(
+                    "INSERT INTO mail_recipients (mail_id, recipient_id, is_read, is_deleted) VALUES ");
+            for (int i = 0; i < chunk.size(); i++) {
+                sql.append(i == 0 ? "" : ", ").append("(:m").append(i).append(", :r").append(i).append(", false, false)");
+            }
+            NativeQuery<?> query = session.createNativeQuery(sql.toString())
+                    .addSynchronizedEntityClass(MailRecipient.class);
+            for (int i = 0; i < chunk.size(); i++) {
+                query.setParameter("m" + i, chunk.get(i)[0]);
+                query.setParameter("r" + i, chunk.get(i)[1]);
+                delivered.add(chunk.get(i)[1]);
+            }
+            query.executeUpdate();
+        }
+        return delivered;
+    }
+
+    // The member id that ends a chunk of chunkSize members after `after`, or null when fewer remain
+    public Integer findListChunkEnd(int listId, int after, int chunkSize, Session session) {
+        List<Integer> end = session.createNativeQuery(
+                        "SELECT user_id FROM distribution_list_members " +
+                                "WHERE list_id = :listId AND user_id > :after ORDER BY user_id", Integer.class)
+                .setParameter("listId", listId)
+                .setParameter("after", after)
+                .setFirstResult(chunkSize - 1)
+                .setMaxResults(1)
+                .getResultList();
+        return end.isEmpty() ? null : end.get(0);
+    }
+
+    // Delivers the list members in (after, upTo] with set-based statements, so members are never
+    // read into the application: counters first, while they can still tell which members lack
+    // the mail, then the recipient rows, then the entry's cursor. Must run in one transaction.
+    // Members without a counter row are left to MailService.getFolderCounts, which builds it
+    // from mail_recipients. Returns the number of rows written.
+    public int deliverListChunk(OutboxEntry entry, int after, int upTo, Session session) {
+        session.createNativeQuery(
+                        "UPDATE mailbox_counters SET inbox_count = inbox_count + 1, unread_count = unread_count + 1 " +
+                                "WHERE user_id IN (SELECT dm.user_id " + UNDELIVERED_MEMBERS + ")")
+                .addSynchronizedEntityClass(MailboxCounter.class)
+                .setParameter("listId", entry.getListId())
+                .setParameter("after", after)
+                .setParameter("upTo", upTo)
+                .setParameter("mailId", entry.getMailId())
+                .executeUpdate();
+        int rows = session.createNativeQuery(
+                        "INSERT INTO mail_recipients (mail_id, recipient_id, is_read, is_deleted, list_id) " +
+                                "SELECT :mailId, dm.user_id, false, false, :listId " + UNDELIVERED_MEMBERS)
+                .addSynchronizedEntityClass(MailRecipient.class)
+                .setParameter("listId", entry.getListId())
+                .setParameter("after", after)
+                .setParameter("upTo", upTo)
+                .setParameter("mailId", entry.getMailId())
+                .executeUpdate();
+        session.createNativeQuery("UPDATE mail_outbox SET list_cursor = :upTo WHERE id = :id")
+                .addSynchronizedQuerySpace(OUTBOX_TABLE)
+                .setParameter("upTo", upTo)
+                .setParameter("id", entry.getId())
+                .executeUpdate();
+        return rows;
+    }
+
+    private static long pair(int mailId, int recipientId) {
+        return ((long) mailId << 32) | (recipientId & 0xffffffffL);
+    }
+
+    public int delete(Collection<Long> entryIds, Session session) {
+        return session.createNativeQuery("DELETE FROM mail_outbox WHERE id IN (:ids)")
+                .addSynchronizedQuerySpace(OUTBOX_TABLE)
+                .setParameterList("ids", entryIds)
+                .executeUpdate();
+    }
+
+    // Pushes the entries back by delaySeconds, or parks them as FAILED once they reach maxAttempts
+    public void recordFailure(Collection<Long> entryIds, String error, int delaySeconds, int maxAttempts,
+                              Session session) {
+        String message = error == null ? null
+                : error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error;
+        // status is assigned first: MySQL evaluates SET left to right with already-updated values
+        NativeQuery<?> update = session.createNativeQuery(
+                        "UPDATE mail_outbox SET " +
+                                "status = CASE WHEN attempts + 1 >= :maxAttempts THEN 'FAILED' ELSE status END, " +
+                                "attempts = attempts + 1, last_error = :error, " +
+                                "next_attempt_at = TIMESTAMPADD(SECOND, :delay, LOCALTIMESTAMP(3)) " +
+                                "WHERE id IN (:ids)")
+                .addSynchronizedQuerySpace(OUTBOX_TABLE);
+        update.setParameter("maxAttempts", maxAttempts)
+                .setParameter("error", message, String.class)
+                .setParameter("delay", delaySeconds)
+                .setParameterList("ids", entryIds)
+                .executeUpdate();
+    }
+
+    // Takes or renews the lease for owner; false while another owner holds an unexpired one
+    public boolean tryAcquireLease(String name, String owner, int seconds, Session session) {
+        session.createNativeQuery(
+                        "INSERT INTO outbox_leases (name, owner, expires_at) " +
+                                "VALUES (:name, '', TIMESTAMP '2000-01-01 00:00:00') ON DUPLICATE KEY UPDATE name = name")
+                .addSynchronizedQuerySpace(LEASES_TABLE)
+                .setParameter("name", name)
+                .executeUpdate();
+        return session.createNativeQuery(
+                        "UPDATE outbox_leases SET owner = :owner, " +
+                                "expires_at = TIMESTAMPADD(SECOND, :seconds, LOCALTIMESTAMP(3)) " +
+                                "WHERE name = :name AND (owner = :owner OR expires_at < LOCALTIMESTAMP(3))")
+                .addSynchronizedQuerySpace(LEASES_TABLE)
+                .setParameter("owner", owner)
+                .setParameter("seconds", seconds)
+                .setParameter("name", name)
+                .executeUpdate() > 0;
+    }
+
+    public void releaseLease(String name, String owner, Session session) {
+        session.createNativeQuery(
+                        "UPDATE outbox_leases SET expires_at = TIMESTAMP '2000-01-01 00:00:00' " +
+                                "WHERE name = :name AND owner = :owner")
+                .addSynchronizedQuerySpace(LEASES_TABLE)
+                .setParameter("name", name)
+                .setParameter("owner", owner)
+                .executeUpdate();
+    }
+}
@@ -0,0 +1,27 @@
+package aut.ap.mail;
+
+import java.util.Collections;
+import java.util.List;
+
+public class MailPage {
+    private final List<MailDto> mails;
+    private final String nextPageToken;
+
+    MailPage(List<MailDto> mails, String nextPageToken) {
+        this.mails = Collections.unmodifiableList(mails);
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<MailDto> getMails() {
+        return mails;
+    }
+
+    public boolean hasMore() {
+        return nextPageToken != null;
+    }
+
+    // Opaque continuation token for the following page, null on the last page
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+}
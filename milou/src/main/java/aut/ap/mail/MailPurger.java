@@ -0,0 +1,60 @@
+package aut.ap.mail;
+
+import aut.ap.search.MailSearchIndex;
+import aut.ap.util.HibernateUtil;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Periodic job that permanently deletes mails the sender and every recipient have kept in
+// the trash for the retention period, releasing their bodies in mail_bodies
+public class MailPurger implements Runnable {
+    private static final Logger logger = Logger.getLogger(MailPurger.class.getName());
+    private static final int BATCH_SIZE = 500;
+    private final MailRepository mailRepository;
+    private final MailSearchIndex searchIndex;
+    private final int retentionDays;
+
+    public MailPurger(int retentionDays, MailSearchIndex searchIndex) {
+        if (retentionDays < 1) {
+            throw new IllegalArgumentException("Retention must be at least one day.");
+        }
+        this.mailRepository = new MailRepository();
+        this.searchIndex = searchIndex;
+        this.retentionDays = retentionDays;
+    }
+
+    @Override
+    public void run() {
+        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+            long start = System.nanoTime();
+            LocalDateTime cutoff = LocalDateTime.now().minusDays(retentionDays);
+            int purged = 0;
+            List<Integer> mailIds;
+            // One transaction per batch keeps row locks short
+            while (!(mailIds = mailRepository.findPurgeable(cutoff, BATCH_SIZE, session)).isEmpty()) {
+                Transaction tx = session.beginTransaction();
+                try {
+                    purged += mailRepository.deletePermanently(mailIds, session);
+                    tx.commit();
+                } catch (Exception e) {
+                    if (tx != null) tx.rollback();
+                    throw e;
+                }
+                if (searchIndex != null) {
+                    searchIndex.delete(mailIds);
+                }
+                session.clear();
+            }
+            logger.info(String.format("Purged %d mails older than %d days from the trash in %d ms",
+                    purged, retentionDays, (System.nanoTime() - start) / 1_000_000));
+        } catch (Exception e) {
+            // Never let a failed run cancel the schedule
+            logger.log(Level.SEVERE, "Mail purge failed", e);
+        }
+    }
+}
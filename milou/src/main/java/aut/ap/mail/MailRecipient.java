@@ -28,6 +28,10 @@ public class MailRecipient {
     @Column(name = "deleted_at")
     private LocalDateTime deletedAt;
 
+    // The distribution list this row was expanded from; null when the recipient was addressed directly
+    @Column(name = "list_id")
+    private Integer listId;
+
     // Constructors
     protected MailRecipient() {
         // Required by JPA
@@ -68,6 +72,10 @@ public class MailRecipient {
         return deletedAt;
     }
 
+    public Integer getListId() {
+        return listId;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
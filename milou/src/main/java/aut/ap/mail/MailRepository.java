@@ -3,12 +3,29 @@ package aut.ap.mail;
 import aut.ap.user.User;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
+import org.hibernate.query.Query;
 import jakarta.persistence.NoResultException;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 public class MailRepository {
+    private final MailboxCounterRepository counterRepository;
+    private final MailBodyRepository bodyRepository;
+
+    public MailRepository() {
+        this(new MailboxCounterRepository(), new MailBodyRepository());
+    }
+
+    public MailRepository(MailboxCounterRepository counterRepository, MailBodyRepository bodyRepository) {
+        this.counterRepository = counterRepository;
+        this.bodyRepository = bodyRepository;
+    }
 
     public Mail save(Mail mail, Session session) {
         Transaction tx = null;
@@ -39,119 +56,270 @@ public class MailRepository {
         return Optional.ofNullable(mail);
     }
 
-    public void markAsRead(int mailId, int userId, Session session) {
-        session.createQuery(
-                        "UPDATE MailRecipient mr SET mr.isRead = true " +
-                                "WHERE mr.mail.id = :mailId AND mr.recipient.id = :userId")
+    // The mail's recipients that were not expanded from a distribution list
+    public List<User> findDirectRecipients(int mailId, Session session) {
+        return session.createQuery(
+                        "SELECT u FROM MailRecipient mr JOIN mr.recipient u " +
+                                "WHERE mr.mail.id = :mailId AND mr.listId IS NULL", User.class)
                 .setParameter("mailId", mailId)
+                .getResultList();
+    }
+
+    // Lists through which the user has received mail, whether or not still a member
+    public List<Integer> findListIdsReceivedBy(int userId, Session session) {
+        return session.createNativeQuery(
+                        "SELECT DISTINCT list_id FROM mail_recipients " +
+                                "WHERE recipient_id = :userId AND list_id IS NOT NULL", Integer.class)
+                .setParameter("userId", userId)
+                .getResultList();
+    }
+
+    public int markAsRead(int mailId, int userId, Session session) {
+        return markAsRead(List.of(mailId), userId, session);
+    }
+
+    // One conditional UPDATE for the whole batch; rows already read are not touched or counted
+    public int markAsRead(Collection<Integer> mailIds, int userId, Session session) {
+        counterRepository.beforeMarkRead(userId, mailIds, session);
+        return session.createQuery(
+                        "UPDATE MailRecipient mr SET mr.isRead = true " +
+                                "WHERE mr.mail.id IN (:mailIds) AND mr.recipient.id = :userId AND mr.isRead = false")
+                .setParameterList("mailIds", mailIds)
                 .setParameter("userId", userId)
                 .executeUpdate();
     }
 
-    public boolean isMailRead(int mailId, int userId, Session session) {
-        try {
-            return session.createQuery(
-                            "SELECT mr.isRead FROM MailRecipient mr " +
-                                    "WHERE mr.mail.id = :mailId AND mr.recipient.id = :userId", Boolean.class)
-                    .setParameter("mailId", mailId)
-                    .setParameter("userId", userId)
-                    .uniqueResult();
-        } catch (NoResultException e) {
-            return false;
+    // Marks every unread mail in the user's inbox read: the rows INBOX_QUERY lists, so mails the
+    // sender trashed keep their state and come back unread if the sender restores them
+    public int markInboxRead(int userId, Session session) {
+        int changed = session.createQuery(
+                        "UPDATE MailRecipient mr SET mr.isRead = true " +
+                                "WHERE mr.recipient.id = :userId AND mr.isDeleted = false AND mr.isRead = false " +
+                                "AND EXISTS (SELECT 1 FROM Mail m WHERE m.id = mr.mail.id AND m.isDeleted = false)")
+                .setParameter("userId", userId)
+                .executeUpdate();
+        if (changed > 0) {
+            counterRepository.clearUnread(userId, session);
         }
+        return changed;
     }
 
-    public List<Mail> findInboxForUser(User user, Session session) {
-        return session.createQuery(
-                        "SELECT DISTINCT mr.mail FROM MailRecipient mr " +
-                                "WHERE mr.recipient = :user AND mr.mail.isDeleted = false " +
-                                "ORDER BY mr.mail.sentDate DESC", Mail.class)
-                .setParameter("user", user)
-                .getResultList();
+    // Listing projections: one query per folder, no entity or collection loading.
+    // Each folder query selects the DTO columns followed by its sort key.
+    private static final String DTO_COLUMNS =
+            "SELECT m.id, m.code, m.subject, s.name, s.email, m.sentDate, ";
+
+    private static final String INBOX_QUERY = DTO_COLUMNS + "mr.isRead, m.isDeleted, m.sentDate " +
+            "FROM MailRecipient mr JOIN mr.mail m JOIN m.sender s " +
+            "WHERE mr.recipient.id = :userId AND mr.isDeleted = false AND m.isDeleted = false";
+
+    private static final String UNREAD_QUERY = INBOX_QUERY + " AND mr.isRead = false";
+
+    // Sent mails are always read from the sender's point of view
+    private static final String SENT_QUERY = DTO_COLUMNS + "true, m.isDeleted, m.sentDate " +
+            "FROM Mail m JOIN m.sender s " +
+            "WHERE s.id = :userId AND m.isDeleted = false";
+
+    private static final String TRASH_SORT_KEY = "COALESCE(mr.deletedAt, m.deletedAt, m.sentDate)";
+
+    private static final String TRASH_QUERY = DTO_COLUMNS + "COALESCE(mr.isRead, true), m.isDeleted, " +
+            TRASH_SORT_KEY + " " +
+            "FROM Mail m JOIN m.sender s " +
+            "LEFT JOIN m.mailRecipients mr ON mr.recipient.id = :userId " +
+            "WHERE (mr.isDeleted = true OR (s.id = :userId AND m.isDeleted = true))";
+
+    public List<MailDto> findInboxDtos(User user, Session session) {
+        return findDtos(INBOX_QUERY, "m.sentDate", user, session);
     }
 
-    public List<Mail> findTrashForUser(User user, Session session) {
-        return session.createQuery(
-                        "SELECT DISTINCT mr.mail FROM MailRecipient mr " +
-                                "WHERE (mr.recipient = :user AND mr.isDeleted = true) " +
-                                "OR (mr.mail.sender = :user AND mr.mail.isDeleted = true) " +
-                                "ORDER BY mr.mail.deletedAt DESC", Mail.class)
-                .setParameter("user", user)
-                .getResultList();
+    public List<MailDto> findUnreadDtos(User user, Session session) {
+        return findDtos(UNREAD_QUERY, "m.sentDate", user, session);
     }
 
-    public List<Mail> findUnreadForUser(User user, Session session) {
-        return session.createQuery(
-                        "SELECT DISTINCT mr.mail FROM MailRecipient mr " +
-                                "WHERE mr.recipient = :user AND mr.isRead = false " +
-                                "AND mr.mail.isDeleted = false " +
-                                "ORDER BY mr.mail.sentDate DESC", Mail.class)
-                .setParameter("user", user)
-                .getResultList();
+    public List<MailDto> findSentDtos(User user, Session session) {
+        return findDtos(SENT_QUERY, "m.sentDate", user, session);
     }
 
-    public List<Mail> findSentForUser(User user, Session session) {
-        return session.createQuery(
-                        "FROM Mail WHERE sender = :user AND isDeleted = false ORDER BY sentDate DESC", Mail.class)
-                .setParameter("user", user)
-                .getResultList();
+    public List<MailDto> findTrashDtos(User user, Session session) {
+        return findDtos(TRASH_QUERY, TRASH_SORT_KEY, user, session);
     }
 
+    public MailPage findInboxPage(User user, MailCursor after, int limit, Session session) {
+        return findPage(INBOX_QUERY, "m.sentDate", user, after, limit, session);
+    }
 
-    public void moveToTrash(int mailId, int userId, Session session) {
-        try {
-            // Check if recipient exists
-            Boolean isRecipient = session.createNativeQuery(
-                            "SELECT 1 FROM mail_recipients " +
-                                    "WHERE mail_id = :mailId AND recipient_id = :userId", Boolean.class)
-                    .setParameter("mailId", mailId)
-                    .setParameter("userId", userId)
-                    .uniqueResult();
+    public MailPage findUnreadPage(User user, MailCursor after, int limit, Session session) {
+        return findPage(UNREAD_QUERY, "m.sentDate", user, after, limit, session);
+    }
 
-            if (isRecipient != null) {
-                // Update recipient's deletion status
-                session.createNativeQuery(
-                                "UPDATE mail_recipients SET is_deleted = true, deleted_at = NOW() " +
-                                        "WHERE mail_id = :mailId AND recipient_id = :userId")
-                        .setParameter("mailId", mailId)
-                        .setParameter("userId", userId)
-                        .executeUpdate();
-            }
-
-            // Check if sender
-            Boolean isSender = session.createNativeQuery(
-                            "SELECT 1 FROM mails " +
-                                    "WHERE id = :mailId AND sender_id = :userId", Boolean.class)
-                    .setParameter("mailId", mailId)
-                    .setParameter("userId", userId)
-                    .uniqueResult();
+    public MailPage findSentPage(User user, MailCursor after, int limit, Session session) {
+        return findPage(SENT_QUERY, "m.sentDate", user, after, limit, session);
+    }
 
-            if (isSender != null) {
-                // Update sender's deletion status
-                session.createNativeQuery(
-                                "UPDATE mails SET is_deleted = true, deleted_at = NOW(), deleted_by_id = :userId " +
-                                        "WHERE id = :mailId")
-                        .setParameter("mailId", mailId)
-                        .setParameter("userId", userId)
-                        .executeUpdate();
-            }
-
-            // Flush changes immediately
-            session.flush();
-        } catch (Exception e) {
-            throw new RuntimeException("Repository error moving to trash", e);
+    public MailPage findTrashPage(User user, MailCursor after, int limit, Session session) {
+        return findPage(TRASH_QUERY, TRASH_SORT_KEY, user, after, limit, session);
+    }
+
+    private List<MailDto> findDtos(String query, String sortKey, User user, Session session) {
+        return session.createQuery(query + orderBy(sortKey), Object[].class)
+                .setParameter("userId", user.getId())
+                .getResultList()
+                .stream()
+                .map(MailRepository::toDto)
+                .collect(Collectors.toList());
+    }
+
+    // Seeks past the cursor on (sortKey, id) instead of using OFFSET, and fetches
+    // one extra row to find out whether another page follows.
+    private MailPage findPage(String query, String sortKey, User user, MailCursor after,
+                              int limit, Session session) {
+        String seek = after == null ? "" :
+                " AND (" + sortKey + " < :afterKey OR (" + sortKey + " = :afterKey AND m.id < :afterId))";
+
+        Query<Object[]> pageQuery = session.createQuery(query + seek + orderBy(sortKey), Object[].class)
+                .setParameter("userId", user.getId())
+                .setMaxResults(limit + 1);
+        if (after != null) {
+            pageQuery.setParameter("afterKey", after.getSortKey())
+                    .setParameter("afterId", after.getId());
         }
+
+        List<Object[]> rows = pageQuery.getResultList();
+        boolean hasMore = rows.size() > limit;
+        if (hasMore) {
+            rows = rows.subList(0, limit);
+        }
+
+        List<MailDto> mails = rows.stream()
+                .map(MailRepository::toDto)
+                .collect(Collectors.toList());
+
+        String nextPageToken = null;
+        if (hasMore) {
+            Object[] last = rows.get(rows.size() - 1);
+            nextPageToken = new MailCursor((LocalDateTime) last[8], (Integer) last[0]).encode();
+        }
+        return new MailPage(mails, nextPageToken);
     }
 
-    public void restoreFromTrash(int mailId, Session session) {
-        Mail mail = session.get(Mail.class, mailId);
-        if (mail != null) {
-            mail.setDeleted(false);
-            mail.setDeletedAt(null);
-            mail.setDeletedById(null);
+    // DTOs for the given mails that the user sent or received, in the order of mailIds. A mail
+    // is deleted for the user once either side they see it through was trashed.
+    public List<MailDto> findDtosByIds(User user, List<Integer> mailIds, Session session) {
+        if (mailIds.isEmpty()) {
+            return List.of();
         }
+        Map<Integer, MailDto> byId = session.createQuery(
+                        DTO_COLUMNS + "COALESCE(mr.isRead, true), " +
+                                "CASE WHEN mr.isDeleted = true OR m.isDeleted = true THEN true ELSE false END " +
+                                "FROM Mail m JOIN m.sender s " +
+                                "LEFT JOIN m.mailRecipients mr ON mr.recipient.id = :userId " +
+                                "WHERE m.id IN (:mailIds) AND (mr.recipient.id IS NOT NULL OR s.id = :userId)",
+                        Object[].class)
+                .setParameter("userId", user.getId())
+                .setParameterList("mailIds", mailIds)
+                .getResultList()
+                .stream()
+                .map(MailRepository::toDto)
+                .collect(Collectors.toMap(MailDto::getId, Function.identity()));
+
+        return mailIds.stream()
+                .map(byId::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    private static String orderBy(String sortKey) {
+        return " ORDER BY " + sortKey + " DESC, m.id DESC";
     }
 
+    private static MailDto toDto(Object[] row) {
+        return MailDto.builder()
+                .id((Integer) row[0])
+                .code((String) row[1])
+                .subject((String) row[2])
+                .senderName((String) row[3])
+                .senderEmail((String) row[4])
+                .sentDate((LocalDateTime) row[5])
+                .isRead((Boolean) row[6])
+                .isDeleted((Boolean) row[7])
+                .build();
+    }
+
+    // Trashes the user's side of each mail, their recipient row and/or the mail they sent:
+    // one counter UPDATE, then one UPDATE per side, with no reads. Mails the user has no part
+    // in are never matched, so the returned row count doubles as the authorization result.
+    public int moveToTrash(Collection<Integer> mailIds, int userId, Session session) {
+        counterRepository.beforeTrash(userId, mailIds, session);
+        int moved = session.createNativeQuery(
+                        "UPDATE mail_recipients SET is_deleted = true, deleted_at = NOW() " +
+                                "WHERE recipient_id = :userId AND mail_id IN (:mailIds) AND is_deleted = false")
+                .addSynchronizedEntityClass(MailRecipient.class)
+                .setParameter("userId", userId)
+                .setParameterList("mailIds", mailIds)
+                .executeUpdate();
+        // Run even when the user sent none of the mails: a primary key lookup that matches
+        // nothing is cheaper than the round trip asking first
+        moved += session.createNativeQuery(
+                        "UPDATE mails SET is_deleted = true, deleted_at = NOW(), deleted_by_id = :userId " +
+                                "WHERE sender_id = :userId AND id IN (:mailIds) AND is_deleted = false")
+                .addSynchronizedEntityClass(Mail.class)
+                .setParameter("userId", userId)
+                .setParameterList("mailIds", mailIds)
+                .executeUpdate();
+        return moved;
+    }
+
+    // Restores only the caller's side: their recipient row and/or the mail they sent
+    public void restoreFromTrash(int mailId, int userId, Session session) {
+        List<Integer> mailIds = List.of(mailId);
+
+        counterRepository.beforeRecipientRestore(userId, mailIds, session);
+        session.createNativeQuery(
+                        "UPDATE mail_recipients SET is_deleted = false, deleted_at = NULL " +
+                                "WHERE mail_id = :mailId AND recipient_id = :userId AND is_deleted = true")
+                .addSynchronizedEntityClass(MailRecipient.class)
+                .setParameter("mailId", mailId)
+                .setParameter("userId", userId)
+                .executeUpdate();
+
+        if (counterRepository.beforeSenderRestore(userId, mailIds, session) > 0) {
+            session.createNativeQuery(
+                            "UPDATE mails SET is_deleted = false, deleted_at = NULL, deleted_by_id = NULL " +
+                                    "WHERE id = :mailId AND sender_id = :userId AND is_deleted = true")
+                    .addSynchronizedEntityClass(Mail.class)
+                    .setParameter("mailId", mailId)
+                    .setParameter("userId", userId)
+                    .executeUpdate();
+        }
+    }
+
+    // Slim read model for authorization: one row from mails and at most one recipient row,
+    // never the entity, its recipient collection or its body
+    private static final String HEADER_QUERY =
+            "SELECT m.id, m.code, m.sender.id, m.isDeleted, mr.recipient.id, mr.isRead, mr.isDeleted " +
+                    "FROM Mail m LEFT JOIN m.mailRecipients mr ON mr.recipient.id = :userId ";
+
+    // Empty if the mail doesn't exist; the header says whether the user sent or received it
+    public Optional<MailHeader> findHeaderById(int mailId, int userId, Session session) {
+        return findHeader(HEADER_QUERY + "WHERE m.id = :key", mailId, userId, session);
+    }
+
+    public Optional<MailHeader> findHeaderByCode(String code, int userId, Session session) {
+        return findHeader(HEADER_QUERY + "WHERE m.code = :key", code, userId, session);
+    }
+
+    private Optional<MailHeader> findHeader(String query, Object key, int userId, Session session) {
+        Object[] row = session.createQuery(query, Object[].class)
+                .setParameter("key", key)
+                .setParameter("userId", userId)
+                .uniqueResult();
+        if (row == null) {
+            return Optional.empty();
+        }
+        boolean recipient = row[4] != null;
+        return Optional.of(new MailHeader((Integer) row[0], (String) row[1], (Integer) row[2], (Boolean) row[3],
+                recipient, !recipient || (Boolean) row[5], recipient && (Boolean) row[6]));
+    }
 
     public Optional<String> getMailCodeById(int mailId, Session session) {
         return Optional.ofNullable(
@@ -160,4 +328,44 @@ public class MailRepository {
                         .uniqueResult()
         );
     }
+
+    // Mails that the sender and every recipient trashed before the cutoff, oldest first
+    public List<Integer> findPurgeable(LocalDateTime deletedBefore, int limit, Session session) {
+        return session.createNativeQuery(
+                        "SELECT m.id FROM mails m WHERE m.is_deleted = true AND m.deleted_at < :cutoff " +
+                                "AND NOT EXISTS (SELECT 1 FROM mail_recipients mr WHERE mr.mail_id = m.id " +
+                                "AND (mr.is_deleted = false OR mr.deleted_at >= :cutoff)) " +
+                                "ORDER BY m.id", Integer.class)
+                .setParameter("cutoff", deletedBefore)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    // Deletes mails returned by findPurgeable for good and releases their bodies.
+    // Returns the number of mails deleted.
+    public int deletePermanently(Collection<Integer> mailIds, Session session) {
+        if (mailIds.isEmpty()) {
+            return 0;
+        }
+        List<Long> bodyIds = session.createNativeQuery(
+                        "SELECT body_id FROM mails WHERE id IN (:mailIds)", Long.class)
+                .setParameterList("mailIds", mailIds)
+                .getResultList();
+
+        counterRepository.beforePurge(mailIds, session);
+        session.createNativeQuery("DELETE FROM mail_recipients WHERE mail_id IN (:mailIds)")
+                .addSynchronizedEntityClass(MailRecipient.class)
+                .setParameterList("mailIds", mailIds)
+                .executeUpdate();
+        session.createNativeQuery("DELETE FROM mail_lists WHERE mail_id IN (:mailIds)")
+                .addSynchronizedQuerySpace("mail_lists")
+                .setParameterList("mailIds", mailIds)
+                .executeUpdate();
+        int deleted = session.createNativeQuery("DELETE FROM mails WHERE id IN (:mailIds)")
+                .addSynchronizedEntityClass(Mail.class)
+                .setParameterList("mailIds", mailIds)
+                .executeUpdate();
+        bodyRepository.release(bodyIds, session);
+        return deleted;
+    }
 }
\ No newline at end of file
@@ -1,110 +1,229 @@
 package aut.ap.mail;
 
+import aut.ap.list.DistributionList;
+import aut.ap.list.DistributionListService;
+import aut.ap.search.MailSearchIndex;
+import aut.ap.search.SearchHits;
 import aut.ap.user.User;
-import aut.ap.util.HibernateUtil;
+import org.hibernate.Hibernate;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
+import org.hibernate.exception.ConstraintViolationException;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 public class MailService {
     private final MailRepository mailRepository;
-    private User currentUser;
+    private final MailboxCounterRepository counterRepository;
+    private final MailBodyRepository bodyRepository;
+    private final MailOutboxRepository outboxRepository;
+    private final DistributionListService listService;
+    private final MailSearchIndex searchIndex;
+    private final MailCodeGenerator codeGenerator;
     private static final Logger logger = Logger.getLogger(MailService.class.getName());
+    public static final int MAX_PAGE_SIZE = 200;
+    private static final int MARK_READ_BATCH = 1000;
+    // Deepest a search can be paged; Lucene collects offset + pageSize hits for every page
+    private static final int MAX_SEARCH_OFFSET = 10_000;
+    private static final int MAX_CODE_ATTEMPTS = 3;
 
     public MailService() {
-        this.mailRepository = new MailRepository();
+        this(null);
     }
 
-    public void setCurrentUser(User currentUser) {
-        this.currentUser = currentUser;
+    // Mails are added to the search index once their send transaction commits; recipients get
+    // them when an OutboxDispatcher delivers the outbox
+    public MailService(MailSearchIndex searchIndex) {
+        this(searchIndex, SnowflakeCodeGenerator.getDefault());
+    }
+
+    public MailService(MailSearchIndex searchIndex, MailCodeGenerator codeGenerator) {
+        this.counterRepository = new MailboxCounterRepository();
+        this.bodyRepository = new MailBodyRepository();
+        this.outboxRepository = new MailOutboxRepository();
+        this.listService = new DistributionListService();
+        this.mailRepository = new MailRepository(counterRepository, bodyRepository);
+        this.searchIndex = searchIndex;
+        this.codeGenerator = codeGenerator;
     }
 
     public Mail sendMail(User sender, List<User> recipients, String subject, String body, Session session) {
-        MailValidation.validateSubject(subject);
+        return sendMail(sender, recipients, List.of(), subject, body, session);
+    }
+
+    // Lists are expanded to their members by OutboxDispatcher, however large they are
+    public Mail sendMail(User sender, List<User> recipients, List<DistributionList> lists,
+                         String subject, String body, Session session) {
         MailValidation.validateBody(body);
-        MailValidation.validateRecipients(recipients);
+        return deliver(sender, recipients, lists, subject, body, null, session);
+    }
+
+    // Stores content as a body fragment that continues in quoted, which may be null
+    private Mail deliver(User sender, List<User> recipients, List<DistributionList> lists, String subject,
+                         String content, MailBody quoted, Session session) {
+        MailValidation.validateSubject(subject);
+        MailValidation.validateAddressees(recipients, lists);
         MailValidation.validateNotSendingToSelf(sender, recipients);
 
-        Transaction tx = session.beginTransaction();
-        try {
-            Mail mail = new Mail(
-                    generateUniqueCode(),
-                    sender,
-                    recipients,
-                    subject,
-                    body,
-                    LocalDateTime.now()
-            );
-
-            // First persist the mail to get an ID
-            session.persist(mail);
-            session.flush(); // Ensure mail gets an ID
-
-            // Then add recipients with proper checks
-            for (User recipient : recipients) {
-                // Check if this recipient already exists for this mail
-                boolean exists = session.createQuery(
-                                "SELECT COUNT(mr) > 0 FROM MailRecipient mr " +
-                                        "WHERE mr.mail = :mail AND mr.recipient = :recipient", Boolean.class)
-                        .setParameter("mail", mail)
-                        .setParameter("recipient", recipient)
-                        .uniqueResult();
-
-                if (!exists) {
-                    mail.addRecipient(recipient);
+        // Codes are unique per node id, but a lapsed node lease can briefly give two processes
+        // the same one; a mail that collides is sent again under a fresh code
+        for (int attempt = 1; ; attempt++) {
+            String code = codeGenerator.nextCode();
+            Transaction tx = session.beginTransaction();
+            try {
+                List<DistributionList> targetLists = new ArrayList<>();
+                for (DistributionList list : lists) {
+                    DistributionList managed = session.get(DistributionList.class, list.getId());
+                    if (managed == null) {
+                        throw new IllegalArgumentException("Distribution list " + list.getAddress() + " no longer exists.");
+                    }
+                    if (!listService.canPost(managed, sender, session)) {
+                        throw new SecurityException("You are not allowed to send to " + list.getAddress() + ".");
+                    }
+                    targetLists.add(managed);
+                }
+
+                // The sender only waits for the mail and its outbox entry; OutboxDispatcher writes
+                // the recipient rows and folder counters afterwards
+                List<Integer> recipientIds = distinctRecipients(recipients).stream()
+                        .map(User::getId)
+                        .collect(Collectors.toList());
+                Mail mail = new Mail(
+                        code,
+                        sender,
+                        List.of(),
+                        subject,
+                        bodyRepository.store(content, quoted, session),
+                        LocalDateTime.now()
+                );
+                targetLists.forEach(mail::addList);
+                session.persist(mail);
+                // Individual recipients first, so a list member also addressed directly keeps that row
+                if (!recipientIds.isEmpty()) {
+                    outboxRepository.enqueue(mail.getId(), recipientIds, session);
                 }
+                for (DistributionList list : targetLists) {
+                    outboxRepository.enqueueList(mail.getId(), list.getId(), session);
+                }
+
+                tx.commit();
+                indexQuietly(mail, recipientIds, targetLists);
+                return mail;
+            } catch (Exception e) {
+                if (tx != null && tx.isActive()) tx.rollback();
+                if (attempt < MAX_CODE_ATTEMPTS && isConstraintViolation(e)) {
+                    // The failed mail stays in the persistence context, where the next flush would
+                    // write it again: drop it before querying and retry with a fresh sender
+                    session.clear();
+                    if (isTakenCode(code, sender, session)) {
+                        logger.warning("Mail code " + code + " is already taken, retrying with a new one");
+                        sender = session.get(User.class, sender.getId());
+                        continue;
+                    }
+                }
+                throw new RuntimeException("Failed to send mail", e);
             }
+        }
+    }
 
-            tx.commit();
-            return mail;
+    private static boolean isConstraintViolation(Exception failure) {
+        Throwable cause = failure;
+        while (cause != null && !(cause instanceof ConstraintViolationException)) {
+            cause = cause.getCause();
+        }
+        return cause != null;
+    }
+
+    // Whether another mail already has the code the failed send used
+    private boolean isTakenCode(String code, User sender, Session session) {
+        try {
+            return mailRepository.findHeaderByCode(code, sender.getId(), session).isPresent();
         } catch (Exception e) {
-            if (tx != null) tx.rollback();
-            throw new RuntimeException("Failed to send mail", e);
+            return false;
         }
     }
 
+    private void indexQuietly(Mail mail, List<Integer> recipientIds, List<DistributionList> lists) {
+        if (searchIndex == null) {
+            return;
+        }
+        try {
+            // Indexed for the recipients right away; their searches only show it once delivered
+            List<Integer> owners = new ArrayList<>();
+            owners.add(mail.getSender().getId());
+            owners.addAll(recipientIds);
+            searchIndex.index(mail.getId(), mail.getSubject(), mail.getBody(),
+                    mail.getSender().getName(), mail.getSender().getEmail(), owners,
+                    lists.stream().map(DistributionList::getId).collect(Collectors.toList()));
+        } catch (Exception e) {
+            // The mail is already stored; the next MailSearchIndex.catchUp indexes it
+            logger.log(Level.WARNING, "Failed to index mail " + mail.getCode(), e);
+        }
+    }
+
+    private List<User> distinctRecipients(List<User> recipients) {
+        Map<Integer, User> byId = new LinkedHashMap<>();
+        for (User recipient : recipients) {
+            byId.putIfAbsent(recipient.getId(), recipient);
+        }
+        return new ArrayList<>(byId.values());
+    }
+
     public Optional<Mail> getMailByCode(String code, User currentUser, Session session) {
         try {
-            Optional<Mail> mailOpt = mailRepository.findByCode(code, session);
-            if (mailOpt.isEmpty()) {
+            // Authorize on the header; the entity is only loaded for a user allowed to see it
+            Optional<MailHeader> header = mailRepository.findHeaderByCode(code, currentUser.getId(), session);
+            if (header.isEmpty()) {
                 return Optional.empty();
             }
-
-            Mail mail = mailOpt.get();
-
-            // Compare by ID instead of object equality
-            boolean isSender = (mail.getSender().getId()) == (currentUser.getId());
-            boolean isRecipient = mail.getRecipients().stream()
-                    .anyMatch(r -> r.getId() ==currentUser.getId());
-
-            if (!isSender && !isRecipient) {
+            if (!header.get().isSentBy(currentUser.getId()) && !header.get().isRecipient()) {
                 throw new SecurityException("You don't have permission to access this mail.");
             }
 
-            // Mark as read if recipient and not already read
-            if (isRecipient && !isMailRead(mail.getId(), currentUser.getId(), session)) {
-                markAsRead(mail.getId(), currentUser.getId(), session);
+            if (!header.get().isRead()) {
+                markAsRead(header.get().getId(), currentUser.getId(), session);
             }
 
-            return Optional.of(mail);
+            // The body stays unloaded until the caller reads it, and list members are never loaded
+            Optional<Mail> mail = mailRepository.findById(header.get().getId(), session);
+            mail.ifPresent(m -> {
+                m.setDirectRecipients(mailRepository.findDirectRecipients(m.getId(), session));
+                Hibernate.initialize(m.getLists());
+            });
+            return mail;
         } catch (Exception e) {
             throw new RuntimeException("Error getting mail by code", e);
         }
     }
 
+    // The id of a mail the user sent or received, without loading or marking it read
+    public Optional<Integer> findMailIdByCode(String code, User user, Session session) {
+        try {
+            Optional<MailHeader> header = mailRepository.findHeaderByCode(code, user.getId(), session);
+            if (header.isPresent() && !header.get().isSentBy(user.getId()) && !header.get().isRecipient()) {
+                throw new SecurityException("You don't have permission to access this mail.");
+            }
+            return header.map(MailHeader::getId);
+        } catch (Exception e) {
+            throw new RuntimeException("Error finding mail by code", e);
+        }
+    }
+
     public List<MailDto> getInboxDtos(User user, Session session) {
         try {
-            return mailRepository.findInboxForUser(user, session).stream()
-                    .map(mail -> convertToDto(mail, session))
-                    .collect(Collectors.toList());
+            return mailRepository.findInboxDtos(user, session);
         } catch (Exception e) {
             throw new RuntimeException("Error getting inbox", e);
         }
@@ -112,9 +231,7 @@ public class MailService {
 
     public List<MailDto> getSentMailDtos(User user, Session session) {
         try {
-            return mailRepository.findSentForUser(user, session).stream()
-                    .map(mail -> convertToDto(mail, session))
-                    .collect(Collectors.toList());
+            return mailRepository.findSentDtos(user, session);
         } catch (Exception e) {
             throw new RuntimeException("Error getting sent mails", e);
         }
@@ -122,9 +239,7 @@ public class MailService {
 
     public List<MailDto> getUnreadMailDtos(User user, Session session) {
         try {
-            return mailRepository.findUnreadForUser(user, session).stream()
-                    .map(mail -> convertToDto(mail, session))
-                    .collect(Collectors.toList());
+            return mailRepository.findUnreadDtos(user, session);
         } catch (Exception e) {
             throw new RuntimeException("Error getting unread mails", e);
         }
@@ -132,59 +247,211 @@ public class MailService {
 
     public List<MailDto> getTrashMailDtos(User user, Session session) {
         try {
-            return mailRepository.findTrashForUser(user, session).stream()
-                    .map(mail -> convertToDto(mail, session))
-                    .collect(Collectors.toList());
+            return mailRepository.findTrashDtos(user, session);
         } catch (Exception e) {
             throw new RuntimeException("Error getting trash mails", e);
         }
     }
 
-    public boolean isMailRead(int mailId, int userId, Session session) {
+    public MailPage getInboxPage(User user, String pageToken, int pageSize, Session session) {
+        validatePageSize(pageSize);
         try {
-            return mailRepository.isMailRead(mailId, userId, session);
+            return mailRepository.findInboxPage(user, MailCursor.decode(pageToken), pageSize, session);
+        } catch (IllegalArgumentException e) {
+            throw e;
         } catch (Exception e) {
-            throw new RuntimeException("Error checking mail read status", e);
+            throw new RuntimeException("Error getting inbox page", e);
+        }
+    }
+
+    public MailPage getSentPage(User user, String pageToken, int pageSize, Session session) {
+        validatePageSize(pageSize);
+        try {
+            return mailRepository.findSentPage(user, MailCursor.decode(pageToken), pageSize, session);
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Error getting sent mails page", e);
+        }
+    }
+
+    public MailPage getUnreadPage(User user, String pageToken, int pageSize, Session session) {
+        validatePageSize(pageSize);
+        try {
+            return mailRepository.findUnreadPage(user, MailCursor.decode(pageToken), pageSize, session);
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Error getting unread mails page", e);
+        }
+    }
+
+    public MailPage getTrashPage(User user, String pageToken, int pageSize, Session session) {
+        validatePageSize(pageSize);
+        try {
+            return mailRepository.findTrashPage(user, MailCursor.decode(pageToken), pageSize, session);
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Error getting trash mails page", e);
+        }
+    }
+
+    public MailPage searchMails(User user, String query, String pageToken, int pageSize, Session session) {
+        validatePageSize(pageSize);
+        if (searchIndex == null) {
+            throw new IllegalStateException("Search is not enabled.");
+        }
+        if (query == null || query.trim().isEmpty()) {
+            throw new IllegalArgumentException("Search query cannot be empty.");
+        }
+        int offset = decodeSearchOffset(pageToken);
+        try {
+            List<Integer> listIds = mailRepository.findListIdsReceivedBy(user.getId(), session);
+            SearchHits hits = searchIndex.search(user.getId(), listIds, query.trim(), offset, pageSize);
+            List<MailDto> mails = mailRepository.findDtosByIds(user, hits.getMailIds(), session);
+            boolean hasMore = hits.hasMore() && offset + pageSize <= MAX_SEARCH_OFFSET;
+            return new MailPage(mails, hasMore ? encodeSearchOffset(offset + pageSize) : null);
+        } catch (Exception e) {
+            throw new RuntimeException("Error searching mails", e);
+        }
+    }
+
+    private static String encodeSearchOffset(int offset) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(("search|" + offset).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int decodeSearchOffset(String pageToken) {
+        if (pageToken == null || pageToken.isEmpty()) {
+            return 0;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(pageToken), StandardCharsets.UTF_8);
+            if (!raw.startsWith("search|")) {
+                throw new IllegalArgumentException("Invalid page token.");
+            }
+            int offset = Integer.parseInt(raw.substring("search|".length()));
+            if (offset < 0 || offset > MAX_SEARCH_OFFSET) {
+                throw new IllegalArgumentException("Invalid page token.");
+            }
+            return offset;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid page token.", e);
+        }
+    }
+
+    private void validatePageSize(int pageSize) {
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException(
+                    String.format("Page size must be between 1 and %d.", MAX_PAGE_SIZE));
         }
     }
 
     public void markAsRead(int mailId, int userId, Session session) {
-        Transaction tx = session.beginTransaction();
+        boolean transactionOwner = !session.getTransaction().isActive();
         try {
+            if (transactionOwner) {
+                session.beginTransaction();
+            }
             mailRepository.markAsRead(mailId, userId, session);
-            tx.commit();
+            if (transactionOwner) {
+                session.getTransaction().commit();
+            }
         } catch (Exception e) {
-            if (tx != null) tx.rollback();
+            if (transactionOwner && session.getTransaction().isActive()) {
+                session.getTransaction().rollback();
+            }
             throw new RuntimeException("Error marking mail as read", e);
         }
     }
 
+    // Marks the user's copies of the given mails read, one UPDATE per MARK_READ_BATCH ids.
+    // Returns how many were unread before.
+    public int markAsRead(Collection<Integer> mailIds, User user, Session session) {
+        List<Integer> distinctIds = new ArrayList<>(new LinkedHashSet<>(mailIds));
+        boolean transactionOwner = !session.getTransaction().isActive();
+        try {
+            if (transactionOwner) {
+                session.beginTransaction();
+            }
+            int changed = 0;
+            for (int from = 0; from < distinctIds.size(); from += MARK_READ_BATCH) {
+                List<Integer> batch = distinctIds.subList(from, Math.min(from + MARK_READ_BATCH, distinctIds.size()));
+                changed += mailRepository.markAsRead(batch, user.getId(), session);
+            }
+            if (transactionOwner) {
+                session.getTransaction().commit();
+            }
+            return changed;
+        } catch (Exception e) {
+            if (transactionOwner && session.getTransaction().isActive()) {
+                session.getTransaction().rollback();
+            }
+            throw new RuntimeException("Error marking mails as read", e);
+        }
+    }
+
+    // Marks the whole inbox read; returns how many mails were unread
+    public int markFolderRead(User user, Session session) {
+        boolean transactionOwner = !session.getTransaction().isActive();
+        try {
+            if (transactionOwner) {
+                session.beginTransaction();
+            }
+            int changed = mailRepository.markInboxRead(user.getId(), session);
+            if (transactionOwner) {
+                session.getTransaction().commit();
+            }
+            return changed;
+        } catch (Exception e) {
+            if (transactionOwner && session.getTransaction().isActive()) {
+                session.getTransaction().rollback();
+            }
+            throw new RuntimeException("Error marking inbox as read", e);
+        }
+    }
+
     public Mail replyToMail(Mail originalMail, User replier, String replyBody, Session session) {
         String newSubject = originalMail.getSubject().startsWith("Re:") ?
                 originalMail.getSubject() : "Re: " + originalMail.getSubject();
 
         List<User> recipients = new ArrayList<>();
         recipients.add(originalMail.getSender());
-        for (User recipient : originalMail.getRecipients()) {
+        for (User recipient : originalMail.getDirectRecipients()) {
             if (!recipient.equals(replier)) {
                 recipients.add(recipient);
             }
         }
+        // Reply to the lists too, leaving out any the replier may not send to
+        List<DistributionList> lists = new ArrayList<>();
+        for (DistributionList list : originalMail.getLists()) {
+            DistributionList managed = session.get(DistributionList.class, list.getId());
+            if (managed != null && listService.canPost(managed, replier, session)) {
+                lists.add(managed);
+            }
+        }
 
-        return sendMail(replier, recipients, newSubject, replyBody, session);
+        return sendMail(replier, recipients, lists, newSubject, replyBody, session);
     }
 
     public Mail forwardMail(Mail originalMail, User sender, List<User> recipients, Session session) {
+        return forwardMail(originalMail, sender, recipients, List.of(), session);
+    }
+
+    public Mail forwardMail(Mail originalMail, User sender, List<User> recipients, List<DistributionList> lists,
+                            Session session) {
         String newSubject = originalMail.getSubject().startsWith("Fw:") ?
                 originalMail.getSubject() : "Fw: " + originalMail.getSubject();
 
-        String body = "\n\n---------- Forwarded Message ----------\n" +
+        String header = "\n\n---------- Forwarded Message ----------\n" +
                 "From: " + originalMail.getSender().getName() + " <" + originalMail.getSender().getEmail() + ">\n" +
                 "Date: " + originalMail.getSentDate() + "\n" +
-                "Subject: " + originalMail.getSubject() + "\n\n" +
-                originalMail.getBody();
+                "Subject: " + originalMail.getSubject() + "\n\n";
+        MailValidation.validateBody(header + originalMail.getBody());
 
-        return sendMail(sender, recipients, newSubject, body, session);
+        // Only the header is new; the forwarded text stays in the original's body row
+        return deliver(sender, recipients, lists, newSubject, header, originalMail.getBodyContent(), session);
     }
 
     public void moveToTrash(int mailId, User user, Session session) {
@@ -195,24 +462,17 @@ public class MailService {
                 session.beginTransaction();
             }
 
-            Optional<Mail> mailOpt = mailRepository.findById(mailId, session);
-            if (mailOpt.isEmpty()) {
-                throw new IllegalArgumentException("Mail not found.");
-            }
-
-            Mail mail = mailOpt.get();
-
-            // More permissive check - either sender or recipient can delete
-            boolean isSender = (mail.getSender().getId()) == (user.getId());
-            boolean isRecipient = mail.getRecipients().stream()
-                    .anyMatch(r -> r.getId() == (user.getId()));
-
-            if (!isSender && !isRecipient) {
-                throw new SecurityException("You don't have permission to move this mail to trash.");
+            // Nothing moved means the mail is missing, not the user's, or already in trash
+            if (mailRepository.moveToTrash(List.of(mailId), user.getId(), session) == 0) {
+                Optional<MailHeader> header = mailRepository.findHeaderById(mailId, user.getId(), session);
+                if (header.isEmpty()) {
+                    throw new IllegalArgumentException("Mail not found.");
+                }
+                if (!header.get().isSentBy(user.getId()) && !header.get().isRecipient()) {
+                    throw new SecurityException("You don't have permission to move this mail to trash.");
+                }
             }
 
-            mailRepository.moveToTrash(mailId, user.getId(), session);
-
             if (transactionOwner) {
                 session.getTransaction().commit();
             }
@@ -224,6 +484,30 @@ public class MailService {
         }
     }
 
+    // Moves every listed mail the user sent or received to trash in one pass; mails that
+    // are not theirs or already in trash are skipped. Returns the number of rows moved.
+    public int moveToTrash(Collection<Integer> mailIds, User user, Session session) {
+        if (mailIds.isEmpty()) {
+            return 0;
+        }
+        boolean transactionOwner = !session.getTransaction().isActive();
+        try {
+            if (transactionOwner) {
+                session.beginTransaction();
+            }
+            int moved = mailRepository.moveToTrash(new LinkedHashSet<>(mailIds), user.getId(), session);
+            if (transactionOwner) {
+                session.getTransaction().commit();
+            }
+            return moved;
+        } catch (Exception e) {
+            if (transactionOwner && session.getTransaction().isActive()) {
+                session.getTransaction().rollback();
+            }
+            throw new RuntimeException("Error moving mails to trash", e);
+        }
+    }
+
     public void restoreFromTrash(int mailId, User user, Session session) {
         boolean transactionOwner = !session.getTransaction().isActive();
         try {
@@ -231,27 +515,18 @@ public class MailService {
                 session.beginTransaction();
             }
 
-            Optional<Mail> mailOpt = mailRepository.findById(mailId, session);
-            if (mailOpt.isEmpty()) {
+            Optional<MailHeader> header = mailRepository.findHeaderById(mailId, user.getId(), session);
+            if (header.isEmpty()) {
                 throw new IllegalArgumentException("Mail not found.");
             }
 
-            Mail mail = mailOpt.get();
-
             // Check permissions - either sender or recipient can restore
-            boolean isSender = (mail.getSender().getId()) == (user.getId());
-            boolean isRecipient = mail.getRecipients().stream()
-                    .anyMatch(r -> r.getId() == (user.getId()));
-
-            if (!isSender && !isRecipient) {
+            if (!header.get().isSentBy(user.getId()) && !header.get().isRecipient()) {
                 throw new SecurityException("You don't have permission to restore this mail.");
             }
 
             // Modified to not start its own transaction
-            mail.setDeleted(false);
-            mail.setDeletedAt(null);
-            mail.setDeletedById(null);
-            session.merge(mail);
+            mailRepository.restoreFromTrash(mailId, user.getId(), session);
 
             if (transactionOwner) {
                 session.getTransaction().commit();
@@ -264,29 +539,30 @@ public class MailService {
         }
     }
 
-    private MailDto convertToDto(Mail mail, Session session) {
-        boolean isRead = true; // Default to true for sent mails
-
-        if (currentUser != null) {
-            // For inbox mails (where currentUser is a recipient)
-            if (mail.getRecipients().contains(currentUser)) {
-                isRead = mailRepository.isMailRead(mail.getId(), currentUser.getId(), session);
+    // Answers from mailbox_counters; users without a counter row get one computed on first use
+    public MailboxCounter getFolderCounts(User user, Session session) {
+        boolean transactionOwner = !session.getTransaction().isActive();
+        try {
+            MailboxCounter counts = counterRepository.find(user.getId(), session);
+            if (counts != null) {
+                return counts;
             }
-        }
 
-        return MailDto.builder()
-                .id(mail.getId())
-                .code(mail.getCode())
-                .subject(mail.getSubject())
-                .senderName(mail.getSender().getName())
-                .senderEmail(mail.getSender().getEmail())
-                .sentDate(mail.getSentDate())
-                .isRead(isRead)
-                .isDeleted(mail.isDeleted())
-                .build();
-    }
+            if (transactionOwner) {
+                session.beginTransaction();
+            }
+            counterRepository.reconcile(user.getId(), session);
+            if (transactionOwner) {
+                session.getTransaction().commit();
+            }
 
-    private String generateUniqueCode() {
-        return UUID.randomUUID().toString().substring(0, 8);
+            counts = counterRepository.find(user.getId(), session);
+            return counts != null ? counts : new MailboxCounter(user.getId());
+        } catch (Exception e) {
+            if (transactionOwner && session.getTransaction().isActive()) {
+                session.getTransaction().rollback();
+            }
+            throw new RuntimeException("Error getting folder counts", e);
+        }
     }
 }
\ No newline at end of file
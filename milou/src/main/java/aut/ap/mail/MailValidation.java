@@ -1,5 +1,6 @@
 package aut.ap.mail;
 
+import aut.ap.list.DistributionList;
 import aut.ap.user.User;
 
 import java.time.LocalDateTime;
@@ -12,6 +13,7 @@ public class MailValidation {
     private static final int MAX_BODY_LENGTH = 10000;
     private static final int MAX_SUBJECT_LENGTH = 255;
     private static final int MAX_RECIPIENTS = 50;
+    private static final int MAX_LISTS = 10;
 
     public static void validateSubject(String subject) {
         if (subject == null || subject.trim().isEmpty()) {
@@ -67,6 +69,31 @@ public class MailValidation {
         }
     }
 
+    // A mail to distribution lists may have no individual recipients; each list counts once
+    public static void validateAddressees(List<User> recipients, List<DistributionList> lists) {
+        if (lists == null || lists.isEmpty()) {
+            validateRecipients(recipients);
+            return;
+        }
+        if (lists.size() > MAX_LISTS) {
+            throw new IllegalArgumentException(
+                    String.format("Maximum of %d distribution lists allowed per mail.", MAX_LISTS)
+            );
+        }
+        if (lists.stream().anyMatch(Objects::isNull)) {
+            throw new IllegalArgumentException("Distribution list cannot be null.");
+        }
+        if (lists.stream().map(DistributionList::getId).distinct().count() != lists.size()) {
+            throw new IllegalArgumentException("Duplicate distribution lists are not allowed.");
+        }
+        if (recipients == null) {
+            throw new IllegalArgumentException("Recipients list cannot be null.");
+        }
+        if (!recipients.isEmpty()) {
+            validateRecipients(recipients);
+        }
+    }
+
     public static void validateNotSendingToSelf(User sender, List<User> recipients) {
         if (sender == null) {
             throw new IllegalArgumentException("Sender cannot be null.");
@@ -0,0 +1,55 @@
+package aut.ap.mail;
+
+import jakarta.persistence.*;
+
+// Denormalized per-user folder sizes, kept in step with mail_recipients and mails on every write
+@Entity
+@Table(name = "mailbox_counters")
+public class MailboxCounter {
+    @Id
+    @Column(name = "user_id")
+    private int userId;
+
+    @Column(name = "inbox_count", nullable = false)
+    private int inboxCount;
+
+    @Column(name = "unread_count", nullable = false)
+    private int unreadCount;
+
+    @Column(name = "trash_count", nullable = false)
+    private int trashCount;
+
+    protected MailboxCounter() {
+        // Required by JPA
+    }
+
+    MailboxCounter(int userId) {
+        this.userId = userId;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public int getInboxCount() {
+        return inboxCount;
+    }
+
+    public int getUnreadCount() {
+        return unreadCount;
+    }
+
+    public int getTrashCount() {
+        return trashCount;
+    }
+
+    @Override
+    public String toString() {
+        return "MailboxCounter{" +
+                "userId=" + userId +
+                ", inboxCount=" + inboxCount +
+                ", unreadCount=" + unreadCount +
+                ", trashCount=" + trashCount +
+                '}';
+    }
+}
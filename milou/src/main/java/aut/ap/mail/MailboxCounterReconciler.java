@@ -0,0 +1,38 @@
+package aut.ap.mail;
+
+import aut.ap.util.HibernateUtil;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Periodic job that rebuilds mailbox_counters from mail_recipients and mails to repair drift
+public class MailboxCounterReconciler implements Runnable {
+    private static final Logger logger = Logger.getLogger(MailboxCounterReconciler.class.getName());
+    private final MailboxCounterRepository counterRepository;
+
+    public MailboxCounterReconciler() {
+        this.counterRepository = new MailboxCounterRepository();
+    }
+
+    @Override
+    public void run() {
+        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+            Transaction tx = session.beginTransaction();
+            try {
+                long start = System.nanoTime();
+                int rows = counterRepository.reconcile(null, session);
+                tx.commit();
+                logger.info(String.format("Reconciled mailbox counters (%d rows affected) in %d ms",
+                        rows, (System.nanoTime() - start) / 1_000_000));
+            } catch (Exception e) {
+                if (tx != null) tx.rollback();
+                throw e;
+            }
+        } catch (Exception e) {
+            // Never let a failed run cancel the schedule
+            logger.log(Level.SEVERE, "Mailbox counter reconciliation failed", e);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package aut.ap.mail;
+
+import org.hibernate.Session;
+import org.hibernate.query.NativeQuery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Maintains mailbox_counters with set-based statements.
+// The "before" methods read the current flags, so they must run in the same
+// transaction as, and before, the update that flips those flags.
+// Every statement here only updates existing rows: a user without a row gets one built from
+// mail_recipients and mails by MailService.getFolderCounts, which then already counts the change.
+public class MailboxCounterRepository {
+    private static final String COUNTERS_TABLE = "mailbox_counters";
+
+    // Rows that show up in a recipient's inbox
+    private static final String VISIBLE_ROWS =
+            "FROM mail_recipients mr JOIN mails m ON m.id = mr.mail_id " +
+                    "WHERE mr.is_deleted = false AND m.is_deleted = false ";
+
+    public MailboxCounter find(int userId, Session session) {
+        return session.get(MailboxCounter.class, userId);
+    }
+
+    // One recipient id per row delivered; a user may appear more than once. Users are grouped by
+    // how many mails they got, which is almost always one statement for the whole batch.
+    public void onDelivered(Collection<Integer> recipientIds, Session session) {
+        Map<Integer, Integer> mailsPerUser = new HashMap<>();
+        for (Integer recipientId : recipientIds) {
+            mailsPerUser.merge(recipientId, 1, Integer::sum);
+        }
+        Map<Integer, List<Integer>> usersByCount = new TreeMap<>();
+        mailsPerUser.forEach((userId, count) -> usersByCount.computeIfAbsent(count, c -> new ArrayList<>()).add(userId));
+
+        for (Map.Entry<Integer, List<Integer>> group : usersByCount.entrySet()) {
+            session.createNativeQuery(
+                            "UPDATE mailbox_counters SET inbox_count = inbox_count + :count, " +
+                                    "unread_count = unread_count + :count WHERE user_id IN (:userIds)")
+                    .addSynchronizedQuerySpace(COUNTERS_TABLE)
+                    .setParameter("count", group.getKey())
+                    .setParameterList("userIds", group.getValue())
+                    .executeUpdate();
+        }
+    }
+
+    public void beforeMarkRead(int userId, Collection<Integer> mailIds, Session session) {
+        session.createNativeQuery(
+                        "UPDATE mailbox_counters SET unread_count = unread_count - (" +
+                                "SELECT COUNT(*) " + VISIBLE_ROWS +
+                                "AND mr.recipient_id = :userId AND mr.mail_id IN (:mailIds) AND mr.is_read = false) " +
+                                "WHERE user_id = :userId")
+                .addSynchronizedQuerySpace(COUNTERS_TABLE)
+                .setParameter("userId", userId)
+                .setParameterList("mailIds", mailIds)
+                .executeUpdate();
+    }
+
+    // After MailRepository.markInboxRead: unread_count only counts VISIBLE_ROWS, the rows it marked
+    public void clearUnread(int userId, Session session) {
+        session.createNativeQuery("UPDATE mailbox_counters SET unread_count = 0 WHERE user_id = :userId")
+                .addSynchronizedQuerySpace(COUNTERS_TABLE)
+                .setParameter("userId", userId)
+                .executeUpdate();
+    }
+
+    // Every counter a trash by userId moves, in one statement: the user's inbox and trash, and
+    // the inbox of each recipient of a mail the user sent, since the sender's trash hides it
+    public void beforeTrash(int userId, Collection<Integer> mailIds, Session session) {
+        String hiddenRows = VISIBLE_ROWS + "AND mr.recipient_id = mailbox_counters.user_id " +
+                "AND mr.mail_id IN (:mailIds) AND (mr.recipient_id = :userId OR m.sender_id = :userId) ";
+        session.createNativeQuery(
+                        "UPDATE mailbox_counters SET " +
+                                "inbox_count = inbox_count - (SELECT COUNT(*) " + hiddenRows + "), " +
+                                "unread_count = unread_count - (SELECT COUNT(*) " + hiddenRows + "AND mr.is_read = false), " +
+                                "trash_count = trash_count + CASE WHEN user_id = :userId THEN " +
+                                "(SELECT COUNT(*) FROM mail_recipients mr WHERE mr.recipient_id = :userId " +
+                                "AND mr.mail_id IN (:mailIds) AND mr.is_deleted = false) + " +
+                                "(SELECT COUNT(*) FROM mails m WHERE m.sender_id = :userId " +
+                                "AND m.id IN (:mailIds) AND m.is_deleted = false) ELSE 0 END " +
+                                "WHERE user_id = :userId OR user_id IN (SELECT mr.recipient_id " + VISIBLE_ROWS +
+                                "AND m.sender_id = :userId AND mr.mail_id IN (:mailIds))")
+                .addSynchronizedQuerySpace(COUNTERS_TABLE)
+                .setParameter("userId", userId)
+                .setParameterList("mailIds", mailIds)
+                .executeUpdate();
+    }
+
+    public void beforeRecipientRestore(int userId, Collection<Integer> mailIds, Session session) {
+        session.createNativeQuery(
+                        "UPDATE mailbox_counters SET " +
+                                "inbox_count = inbox_count + (SELECT COUNT(*) FROM mail_recipients mr " +
+                                "JOIN mails m ON m.id = mr.mail_id WHERE mr.is_deleted = true AND m.is_deleted = false " +
+                                "AND mr.recipient_id = :userId AND mr.mail_id IN (:mailIds)), " +
+                                "unread_count = unread_count + (SELECT COUNT(*) FROM mail_recipients mr " +
+                                "JOIN mails m ON m.id = mr.mail_id WHERE mr.is_deleted = true AND m.is_deleted = false " +
+                                "AND mr.recipient_id = :userId AND mr.mail_id IN (:mailIds) AND mr.is_read = false), " +
+                                "trash_count = trash_count - (SELECT COUNT(*) FROM mail_recipients mr " +
+                                "WHERE mr.recipient_id = :userId AND mr.mail_id IN (:mailIds) AND mr.is_deleted = true) " +
+                                "WHERE user_id = :userId")
+                .addSynchronizedQuerySpace(COUNTERS_TABLE)
+                .setParameter("userId", userId)
+                .setParameterList("mailIds", mailIds)
+                .executeUpdate();
+    }
+
+    // Restoring a sent mail shows it in every recipient's inbox again.
+    // Returns how many of the mails the sender update will change; 0 means it can be skipped.
+    public int beforeSenderRestore(int senderId, Collection<Integer> mailIds, Session session) {
+        int changed = adjustSenderTrash(senderId, mailIds, true, -1, session);
+        if (changed > 0) {
+            adjustRecipientsOfSentMails(senderId, mailIds, true, 1, session);
+        }
+        return changed;
+    }
+
+    private int adjustSenderTrash(int senderId, Collection<Integer> mailIds, boolean deleted,
+                                  int delta, Session session) {
+        int changed = session.createNativeQuery(
+                        "SELECT COUNT(*) FROM mails WHERE sender_id = :senderId AND id IN (:mailIds) " +
+                                "AND is_deleted = :deleted", Long.class)
+                .setParameter("senderId", senderId)
+                .setParameterList("mailIds", mailIds)
+                .setParameter("deleted", deleted)
+                .uniqueResult()
+                .intValue();
+        if (changed > 0) {
+            adjust(senderId, 0, 0, delta * changed, session);
+        }
+        return changed;
+    }
+
+    private void adjustRecipientsOfSentMails(int senderId, Collection<Integer> mailIds, boolean mailDeleted,
+                                             int delta, Session session) {
+        String affectedRows = "FROM mail_recipients mr JOIN mails m ON m.id = mr.mail_id " +
+                "WHERE m.sender_id = :senderId AND mr.mail_id IN (:mailIds) " +
+                "AND m.is_deleted = :mailDeleted AND mr.is_deleted = false ";
+        session.createNativeQuery(
+                        "UPDATE mailbox_counters SET " +
+                                "inbox_count = inbox_count + :delta * (SELECT COUNT(*) " + affectedRows +
+                                "AND mr.recipient_id = mailbox_counters.user_id), " +
+                                "unread_count = unread_count + :delta * (SELECT COUNT(*) " + affectedRows +
+                                "AND mr.recipient_id = mailbox_counters.user_id AND mr.is_read = false) " +
+                                "WHERE user_id IN (SELECT mr.recipient_id " + affectedRows + ")")
+                .addSynchronizedQuerySpace(COUNTERS_TABLE)
+                .setParameter("senderId", senderId)
+                .setParameterList("mailIds", mailIds)
+                .setParameter("mailDeleted", mailDeleted)
+                .setParameter("delta", delta)
+                .executeUpdate();
+    }
+
+    // Purged mails sit in the trash of their sender and of every recipient
+    public void beforePurge(Collection<Integer> mailIds, Session session) {
+        session.createNativeQuery(
+                        "UPDATE mailbox_counters SET trash_count = trash_count " +
+                                "- (SELECT COUNT(*) FROM mail_recipients mr WHERE mr.recipient_id = mailbox_counters.user_id " +
+                                "AND mr.mail_id IN (:mailIds) AND mr.is_deleted = true) " +
+                                "- (SELECT COUNT(*) FROM mails m WHERE m.sender_id = mailbox_counters.user_id " +
+                                "AND m.id IN (:mailIds) AND m.is_deleted = true) " +
+                                "WHERE user_id IN (SELECT mr.recipient_id FROM mail_recipients mr WHERE mr.mail_id IN (:mailIds)) " +
+                                "OR user_id IN (SELECT m.sender_id FROM mails m WHERE m.id IN (:mailIds))")
+                .addSynchronizedQuerySpace(COUNTERS_TABLE)
+                .setParameterList("mailIds", mailIds)
+                .executeUpdate();
+    }
+
+    public void adjust(int userId, int inboxDelta, int unreadDelta, int trashDelta, Session session) {
+        session.createNativeQuery(
+                        "UPDATE mailbox_counters SET inbox_count = inbox_count + :inbox, " +
+                                "unread_count = unread_count + :unread, trash_count = trash_count + :trash " +
+                                "WHERE user_id = :userId")
+                .addSynchronizedQuerySpace(COUNTERS_TABLE)
+                .setParameter("userId", userId)
+                .setParameter("inbox", inboxDelta)
+                .setParameter("unread", unreadDelta)
+                .setParameter("trash", trashDelta)
+                .executeUpdate();
+    }
+
+    // Recomputes counters from mail_recipients and mails; pass null to repair every user
+    public int reconcile(Integer userId, Session session) {
+        String sql = "INSERT INTO mailbox_counters (user_id, inbox_count, unread_count, trash_count) " +
+                "SELECT u.id, " +
+                "(SELECT COUNT(*) " + VISIBLE_ROWS + "AND mr.recipient_id = u.id), " +
+                "(SELECT COUNT(*) " + VISIBLE_ROWS + "AND mr.recipient_id = u.id AND mr.is_read = false), " +
+                "(SELECT COUNT(*) FROM mail_recipients mr WHERE mr.recipient_id = u.id AND mr.is_deleted = true) + " +
+                "(SELECT COUNT(*) FROM mails m WHERE m.sender_id = u.id AND m.is_deleted = true) " +
+                "FROM users u " +
+                (userId != null ? "WHERE u.id = :userId " : "") +
+                "ON DUPLICATE KEY UPDATE inbox_count = VALUES(inbox_count), " +
+                "unread_count = VALUES(unread_count), trash_count = VALUES(trash_count)";
+
+        NativeQuery<?> query = session.createNativeQuery(sql).addSynchronizedQuerySpace(COUNTERS_TABLE);
+        if (userId != null) {
+            query.setParameter("userId", userId);
+        }
+        return query.executeUpdate();
+    }
+}
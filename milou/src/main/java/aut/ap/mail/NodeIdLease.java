@@ -0,0 +1,100 @@
+package aut.ap.mail;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+import java.lang.management.ManagementFactory;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Holds one of the Snowflake node ids as a row in node_leases, so every process sharing the
+// database issues mail codes under its own node without any configuration. The lease is
+// renewed in the background; if it lapsed and another process took the id in the meantime,
+// a free one is leased and the generator switches to it.
+final class NodeIdLease {
+    private static final Logger logger = Logger.getLogger(NodeIdLease.class.getName());
+    private static final int LEASE_SECONDS = 120;
+    private static final int RENEW_SECONDS = 30;
+
+    private final SessionFactory sessionFactory;
+    private final NodeLeaseRepository leaseRepository = new NodeLeaseRepository();
+    private final String owner;
+    private final SnowflakeCodeGenerator generator;
+    private ScheduledExecutorService renewer;
+    private int node;
+
+    private NodeIdLease(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+        this.owner = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID().toString().substring(0, 8);
+        this.node = acquire();
+        this.generator = new SnowflakeCodeGenerator(node);
+    }
+
+    static NodeIdLease start(SessionFactory sessionFactory) {
+        NodeIdLease lease = new NodeIdLease(sessionFactory);
+        logger.info("Leased mail code node id " + lease.node);
+        lease.renewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mail-code-node-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lease.renewer.scheduleWithFixedDelay(lease::renew, RENEW_SECONDS, RENEW_SECONDS, TimeUnit.SECONDS);
+        return lease;
+    }
+
+    SnowflakeCodeGenerator getGenerator() {
+        return generator;
+    }
+
+    private void renew() {
+        if (sessionFactory.isClosed()) {
+            // HibernateUtil.shutdown ran; the lease simply expires
+            renewer.shutdown();
+            return;
+        }
+        try {
+            if (!tryLease(node)) {
+                int previous = node;
+                node = acquire();
+                generator.setNode(node);
+                logger.warning("Mail code node id " + previous + " was taken over by another process, now using " + node);
+            }
+        } catch (Exception e) {
+            // Tried again on the next round; MailService retries the rare duplicate code meanwhile
+            logger.log(Level.WARNING, "Failed to renew the lease on mail code node id " + node, e);
+        }
+    }
+
+    // Starts at a random id so processes starting together rarely compete for the same rows
+    private int acquire() {
+        int nodes = SnowflakeCodeGenerator.MAX_NODE + 1;
+        int start = ThreadLocalRandom.current().nextInt(nodes);
+        for (int i = 0; i < nodes; i++) {
+            int candidate = (start + i) % nodes;
+            if (tryLease(candidate)) {
+                return candidate;
+            }
+        }
+        throw new IllegalStateException("All " + nodes + " mail code node ids are leased; set milou.node.id");
+    }
+
+    private boolean tryLease(int candidate) {
+        try (Session session = sessionFactory.openSession()) {
+            Transaction tx = session.beginTransaction();
+            try {
+                boolean acquired = leaseRepository.tryAcquire(candidate, owner, LEASE_SECONDS, session);
+                tx.commit();
+                return acquired;
+            } catch (RuntimeException e) {
+                if (tx.isActive()) tx.rollback();
+                throw e;
+            }
+        }
+    }
+}
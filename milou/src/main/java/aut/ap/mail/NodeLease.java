@@ -0,0 +1,36 @@
+package aut.ap.mail;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+// Names the process issuing mail codes under nodeId until expiresAt; see NodeLeaseRepository
+@Entity
+@Table(name = "node_leases")
+public class NodeLease {
+    @Id
+    @Column(name = "node_id")
+    private int nodeId;
+
+    @Column(name = "owner", nullable = false, length = 64)
+    private String owner;
+
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+
+    protected NodeLease() {
+        // Required by JPA
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public LocalDateTime getExpiresAt() {
+        return expiresAt;
+    }
+}
@@ -0,0 +1,28 @@
+package aut.ap.mail;
+
+import org.hibernate.Session;
+
+// node_leases: one row per Snowflake node id that some process has held. Expiry uses the
+// database clock, so processes never compare their own clocks with each other.
+public class NodeLeaseRepository {
+    private static final String LEASES_TABLE = "node_leases";
+
+    // Takes or renews the lease for owner; false while another owner holds an unexpired one
+    public boolean tryAcquire(int nodeId, String owner, int seconds, Session session) {
+        session.createNativeQuery(
+                        "INSERT INTO node_leases (node_id, owner, expires_at) " +
+                                "VALUES (:nodeId, '', TIMESTAMP '2000-01-01 00:00:00') ON DUPLICATE KEY UPDATE node_id = node_id")
+                .addSynchronizedQuerySpace(LEASES_TABLE)
+                .setParameter("nodeId", nodeId)
+                .executeUpdate();
+        return session.createNativeQuery(
+                        "UPDATE node_leases SET owner = :owner, " +
+                                "expires_at = TIMESTAMPADD(SECOND, :seconds, LOCALTIMESTAMP(3)) " +
+                                "WHERE node_id = :nodeId AND (owner = :owner OR expires_at < LOCALTIMESTAMP(3))")
+                .addSynchronizedQuerySpace(LEASES_TABLE)
+                .setParameter("owner", owner)
+                .setParameter("seconds", seconds)
+                .setParameter("nodeId", nodeId)
+                .executeUpdate() > 0;
+    }
+}
@@ -0,0 +1,393 @@
+package aut.ap.mail;
+
+import aut.ap.util.HibernateUtil;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Delivers sent mails from mail_outbox: writes their mail_recipients rows and bumps the
+// recipients' folder counters. Entries are taken in id order, a batch at a time. A batch is
+// split into shards by recipient id, each written in its own transaction on the fan-out pool,
+// and the next batch starts only once all shards committed; a mailbox therefore always
+// receives mails in the order they were sent. A failed batch is retried one entry at a time;
+// a failing entry is retried with exponential backoff until it succeeds or is parked as
+// FAILED after MAX_ATTEMPTS. Until then it holds back only the later entries that share a
+// recipient with it (and, transitively, those sharing one with them); mail to every other
+// mailbox keeps flowing. A list entry is ordered by its list rather than by its members.
+//
+// An entry for a distribution list is delivered on its own, listChunkSize members per
+// transaction with INSERT ... SELECT, so members never pass through the application. Its
+// cursor moves with every chunk, and a retry or another process resumes where it stopped.
+//
+// Every client process runs a dispatcher; a lease row makes sure only one of them works at a time.
+// The others only look at the lease now and then, and the holder polls less often while the
+// outbox is idle.
+public class OutboxDispatcher implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(OutboxDispatcher.class.getName());
+    private static final String LEASE_NAME = "mail-outbox";
+    private static final int LEASE_SECONDS = 30;
+    private static final int MAX_ATTEMPTS = 8;
+    private static final int MAX_BACKOFF_SECONDS = 300;
+    private static final long IDLE_POLL_MILLIS = 2_000;
+    private static final long STANDBY_POLL_MILLIS = TimeUnit.SECONDS.toMillis(LEASE_SECONDS) / 3;
+    private static final long METRICS_LOG_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final SessionFactory sessionFactory;
+    private final MailOutboxRepository outboxRepository;
+    private final MailboxCounterRepository counterRepository;
+    private final int batchSize;
+    private final int shards;
+    private final int listChunkSize;
+    private final long pollMillis;
+    private final String owner;
+    private final ScheduledThreadPoolExecutor poller;
+    private final ExecutorService fanOut;
+    private final OutboxMetrics metrics = new OutboxMetrics();
+    private long lastMetricsLog = System.nanoTime();
+    private long pollDelay;
+    private volatile boolean holdsLease;
+
+    public OutboxDispatcher() {
+        this(HibernateUtil.getSessionFactory(), 100, 4, Duration.ofMillis(200));
+    }
+
+    public OutboxDispatcher(SessionFactory sessionFactory, int batchSize, int shards, Duration pollInterval) {
+        this(sessionFactory, batchSize, shards, 5_000, pollInterval);
+    }
+
+    public OutboxDispatcher(SessionFactory sessionFactory, int batchSize, int shards, int listChunkSize,
+                            Duration pollInterval) {
+        if (batchSize < 1 || shards < 1 || listChunkSize < 1) {
+            throw new IllegalArgumentException("Batch size, shard count and list chunk size must be positive.");
+        }
+        this.sessionFactory = sessionFactory;
+        this.outboxRepository = new MailOutboxRepository();
+        this.counterRepository = new MailboxCounterRepository();
+        this.batchSize = batchSize;
+        this.shards = shards;
+        this.listChunkSize = listChunkSize;
+        this.pollMillis = pollInterval.toMillis();
+        this.owner = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID().toString().substring(0, 8);
+        this.poller = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "mail-outbox-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // A pending poll may be seconds away; close() should not wait for it
+        this.poller.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.fanOut = Executors.newFixedThreadPool(shards, runnable -> {
+            Thread thread = new Thread(runnable, "mail-outbox-fanout");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        pollDelay = pollMillis;
+        poller.execute(this::pollQuietly);
+    }
+
+    public OutboxMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void pollQuietly() {
+        int delivered = 0;
+        try {
+            delivered = drain();
+        } catch (Exception e) {
+            // Never let a failed round end the polling
+            logger.log(Level.SEVERE, "Outbox dispatch failed", e);
+        }
+        if (System.nanoTime() - lastMetricsLog > METRICS_LOG_NANOS) {
+            lastMetricsLog = System.nanoTime();
+            logger.info(metrics.toString());
+        }
+
+        // Back to the short interval as soon as there is work; otherwise double it up to
+        // IDLE_POLL_MILLIS. A standby process only needs to notice the lease expiring.
+        if (!holdsLease) {
+            pollDelay = Math.max(pollMillis, STANDBY_POLL_MILLIS);
+        } else if (delivered > 0) {
+            pollDelay = pollMillis;
+        } else {
+            pollDelay = Math.max(pollMillis, Math.min(IDLE_POLL_MILLIS, pollDelay * 2));
+        }
+        try {
+            poller.schedule(this::pollQuietly, pollDelay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closing
+        }
+    }
+
+    // Delivers due entries in one pass over the outbox, skipping those held back behind an
+    // entry that waits for a retry, until the pass reaches the end or the lease is held
+    // elsewhere. Returns the number of mails delivered.
+    public synchronized int drain() {
+        try (Session session = sessionFactory.openSession()) {
+            holdsLease = inTransaction(session, () -> outboxRepository.tryAcquireLease(LEASE_NAME, owner, LEASE_SECONDS, session));
+            if (!holdsLease) {
+                return 0;
+            }
+            metrics.setQueueDepth(outboxRepository.countPending(session));
+
+            HeldBack held = new HeldBack();
+            long after = 0;
+            int delivered = 0;
+            while (true) {
+                session.clear();
+                List<OutboxEntry> pending = outboxRepository.findPending(after, batchSize, session);
+                if (pending.isEmpty()) {
+                    return delivered;
+                }
+                after = pending.get(pending.size() - 1).getId();
+                LocalDateTime now = outboxRepository.databaseTime(session);
+                List<OutboxEntry> batch = new ArrayList<>();
+                for (OutboxEntry entry : pending) {
+                    if (entry.getNextAttemptAt().isAfter(now) || held.blocks(entry)) {
+                        held.add(entry);
+                    } else if (entry.getListId() == null) {
+                        batch.add(entry);
+                    } else {
+                        // A list entry is delivered on its own, after the entries before it
+                        delivered += deliverInOrder(batch, now, held, session);
+                        batch.clear();
+                        int done = deliverList(entry, session);
+                        delivered += done;
+                        if (done == 0) {
+                            held.add(entry);
+                            // It may have stopped because the lease was lost
+                            holdsLease = inTransaction(session, () -> outboxRepository.tryAcquireLease(LEASE_NAME, owner, LEASE_SECONDS, session));
+                            if (!holdsLease) {
+                                return delivered;
+                            }
+                        }
+                    }
+                }
+                delivered += deliverInOrder(batch, now, held, session);
+
+                holdsLease = inTransaction(session, () -> outboxRepository.tryAcquireLease(LEASE_NAME, owner, LEASE_SECONDS, session));
+                if (!holdsLease) {
+                    return delivered;
+                }
+            }
+        }
+    }
+
+    // Tries the batch as a whole first; if that fails, entry by entry, skipping those that
+    // share a recipient with an entry that failed before them. Returns how many entries of
+    // the batch were delivered.
+    private int deliverInOrder(List<OutboxEntry> batch, LocalDateTime now, HeldBack held, Session session) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        try {
+            deliver(batch, now, session);
+            return batch.size();
+        } catch (Exception batchFailure) {
+            if (batch.size() == 1) {
+                recordFailure(batch.get(0), batchFailure, session);
+                held.add(batch.get(0));
+                return 0;
+            }
+        }
+        int done = 0;
+        for (OutboxEntry entry : batch) {
+            if (held.blocks(entry)) {
+                held.add(entry);
+                continue;
+            }
+            try {
+                deliver(List.of(entry), now, session);
+                done++;
+            } catch (Exception e) {
+                recordFailure(entry, e, session);
+                held.add(entry);
+            }
+        }
+        return done;
+    }
+
+    private void deliver(List<OutboxEntry> entries, LocalDateTime now, Session session) throws Exception {
+        // shard -> mail id -> recipient ids, both in outbox order
+        List<Map<Integer, List<Integer>>> work = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            work.add(new LinkedHashMap<>());
+        }
+        for (OutboxEntry entry : entries) {
+            for (Integer recipientId : entry.getRecipientIds()) {
+                work.get(Math.floorMod(recipientId, shards))
+                        .computeIfAbsent(entry.getMailId(), id -> new ArrayList<>())
+                        .add(recipientId);
+            }
+        }
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (Map<Integer, List<Integer>> shard : work) {
+            if (!shard.isEmpty()) {
+                futures.add(fanOut.submit(() -> deliverShard(shard)));
+            }
+        }
+        // Wait for every shard, so none is still writing when the entries are retried
+        Exception failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+
+        List<Long> entryIds = new ArrayList<>();
+        entries.forEach(entry -> entryIds.add(entry.getId()));
+        inTransaction(session, () -> outboxRepository.delete(entryIds, session));
+        for (OutboxEntry entry : entries) {
+            metrics.recordDelivered(Math.max(0, Duration.between(entry.getCreatedAt(), now).toMillis()),
+                    entry.getRecipientIds().size());
+        }
+    }
+
+    // Returns 1 once every member has the mail, 0 after a failure or when the lease was lost
+    private int deliverList(OutboxEntry entry, Session session) {
+        try {
+            int after = entry.getListCursor();
+            int rows = 0;
+            while (true) {
+                Integer end = outboxRepository.findListChunkEnd(entry.getListId(), after, listChunkSize, session);
+                int from = after;
+                int upTo = end != null ? end : Integer.MAX_VALUE;
+                rows += inTransaction(session, () -> outboxRepository.deliverListChunk(entry, from, upTo, session));
+                if (end == null) {
+                    break;
+                }
+                after = end;
+                if (!inTransaction(session, () -> outboxRepository.tryAcquireLease(LEASE_NAME, owner, LEASE_SECONDS, session))) {
+                    return 0;
+                }
+            }
+            inTransaction(session, () -> outboxRepository.delete(List.of(entry.getId()), session));
+            LocalDateTime deliveredAt = outboxRepository.databaseTime(session);
+            metrics.recordDelivered(Math.max(0, Duration.between(entry.getCreatedAt(), deliveredAt).toMillis()), rows);
+            return 1;
+        } catch (Exception e) {
+            recordFailure(entry, e, session);
+            return 0;
+        }
+    }
+
+    private Void deliverShard(Map<Integer, List<Integer>> recipientsByMail) {
+        try (Session session = sessionFactory.openSession()) {
+            return inTransaction(session, () -> {
+                counterRepository.onDelivered(outboxRepository.insertRecipients(recipientsByMail, session), session);
+                return null;
+            });
+        }
+    }
+
+    private void recordFailure(OutboxEntry entry, Exception e, Session session) {
+        int attempts = entry.getAttempts() + 1;
+        boolean deadLetter = attempts >= MAX_ATTEMPTS;
+        int delay = (int) Math.min(MAX_BACKOFF_SECONDS, 1L << Math.min(attempts, 30));
+        metrics.recordFailure(deadLetter);
+        if (deadLetter) {
+            logger.log(Level.SEVERE, "Giving up on delivering mail " + entry.getMailId() + " after "
+                    + attempts + " attempts", e);
+        } else {
+            logger.log(Level.WARNING, "Delivery of mail " + entry.getMailId() + " failed, retrying in "
+                    + delay + " s", e);
+        }
+        try {
+            inTransaction(session, () -> {
+                outboxRepository.recordFailure(List.of(entry.getId()), String.valueOf(e), delay, MAX_ATTEMPTS, session);
+                return null;
+            });
+        } catch (Exception recordError) {
+            // The entry stays due and is simply tried again on the next round
+            logger.log(Level.SEVERE, "Failed to record delivery failure of outbox entry " + entry.getId(), recordError);
+        }
+    }
+
+    // Recipients and lists that still have an undelivered entry earlier in the outbox. A later
+    // entry sharing any of them has to wait, so each mailbox keeps the order mails were sent in.
+    private static final class HeldBack {
+        private final Set<Integer> recipientIds = new HashSet<>();
+        private final Set<Integer> listIds = new HashSet<>();
+
+        boolean blocks(OutboxEntry entry) {
+            if (entry.getListId() != null) {
+                return listIds.contains(entry.getListId());
+            }
+            for (Integer recipientId : entry.getRecipientIds()) {
+                if (recipientIds.contains(recipientId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void add(OutboxEntry entry) {
+            if (entry.getListId() != null) {
+                listIds.add(entry.getListId());
+            } else {
+                recipientIds.addAll(entry.getRecipientIds());
+            }
+        }
+    }
+
+    private static <T> T inTransaction(Session session, Supplier<T> work) {
+        Transaction tx = session.beginTransaction();
+        try {
+            T result = work.get();
+            tx.commit();
+            return result;
+        } catch (RuntimeException e) {
+            if (tx.isActive()) tx.rollback();
+            throw e;
+        }
+    }
+
+    // Lets the current round finish, then hands the lease to the next process
+    @Override
+    public void close() {
+        poller.shutdown();
+        try {
+            poller.awaitTermination(LEASE_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        fanOut.shutdown();
+        try (Session session = sessionFactory.openSession()) {
+            inTransaction(session, () -> {
+                outboxRepository.releaseLease(LEASE_NAME, owner, session);
+                return null;
+            });
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to release the outbox lease", e);
+        }
+        logger.info(metrics.toString());
+    }
+}
@@ -0,0 +1,113 @@
+package aut.ap.mail;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// A sent mail whose recipient rows are still to be written by OutboxDispatcher: either the
+// individually addressed recipients, or the members of one distribution list (listId set,
+// recipientIds empty). The row is deleted once every recipient has the mail; after too many
+// failed attempts it stays as FAILED.
+@Entity
+@Table(name = "mail_outbox")
+public class OutboxEntry {
+    public enum Status { PENDING, FAILED }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "mail_id", nullable = false)
+    private int mailId;
+
+    // Comma-separated user ids, distinct and in the order the sender gave them
+    @Column(name = "recipient_ids", nullable = false, columnDefinition = "TEXT")
+    private String recipientIds;
+
+    @Column(name = "list_id")
+    private Integer listId;
+
+    // Members up to this user id already have the mail; list expansion resumes after it
+    @Column(name = "list_cursor", nullable = false)
+    private int listCursor;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 16)
+    private Status status = Status.PENDING;
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    @Column(name = "last_error", length = 500)
+    private String lastError;
+
+    protected OutboxEntry() {
+        // Required by JPA
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public int getMailId() {
+        return mailId;
+    }
+
+    public List<Integer> getRecipientIds() {
+        List<Integer> ids = new ArrayList<>();
+        if (recipientIds.isEmpty()) {
+            return ids;
+        }
+        for (String id : recipientIds.split(",")) {
+            ids.add(Integer.parseInt(id));
+        }
+        return ids;
+    }
+
+    public Integer getListId() {
+        return listId;
+    }
+
+    public int getListCursor() {
+        return listCursor;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public LocalDateTime getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    @Override
+    public String toString() {
+        return "OutboxEntry{" +
+                "id=" + id +
+                ", mailId=" + mailId +
+                ", listId=" + listId +
+                ", status=" + status +
+                ", attempts=" + attempts +
+                '}';
+    }
+}
@@ -0,0 +1,36 @@
+package aut.ap.mail;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+// Names the one process allowed to dispatch the outbox until expiresAt; see MailOutboxRepository
+@Entity
+@Table(name = "outbox_leases")
+public class OutboxLease {
+    @Id
+    @Column(name = "name", length = 64)
+    private String name;
+
+    @Column(name = "owner", nullable = false, length = 64)
+    private String owner;
+
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+
+    protected OutboxLease() {
+        // Required by JPA
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public LocalDateTime getExpiresAt() {
+        return expiresAt;
+    }
+}
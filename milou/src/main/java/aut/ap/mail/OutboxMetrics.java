@@ -0,0 +1,72 @@
+package aut.ap.mail;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// What OutboxDispatcher has done since it started: how far behind the outbox is and how long
+// mails waited between being sent and reaching every recipient
+public class OutboxMetrics {
+    private final LongAdder deliveredMails = new LongAdder();
+    private final LongAdder deliveredRows = new LongAdder();
+    private final LongAdder totalLatencyMillis = new LongAdder();
+    private final LongAccumulator maxLatencyMillis = new LongAccumulator(Math::max, 0);
+    private final LongAdder failedAttempts = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private volatile long queueDepth;
+
+    void recordDelivered(long latencyMillis, int rows) {
+        deliveredMails.increment();
+        deliveredRows.add(rows);
+        totalLatencyMillis.add(latencyMillis);
+        maxLatencyMillis.accumulate(latencyMillis);
+    }
+
+    void recordFailure(boolean deadLetter) {
+        failedAttempts.increment();
+        if (deadLetter) {
+            deadLettered.increment();
+        }
+    }
+
+    void setQueueDepth(long queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    // Pending entries at the start of the last dispatch round
+    public long getQueueDepth() {
+        return queueDepth;
+    }
+
+    public long getDeliveredMails() {
+        return deliveredMails.sum();
+    }
+
+    public long getDeliveredRows() {
+        return deliveredRows.sum();
+    }
+
+    public double getAverageLatencyMillis() {
+        long count = deliveredMails.sum();
+        return count == 0 ? 0.0 : (double) totalLatencyMillis.sum() / count;
+    }
+
+    public long getMaxLatencyMillis() {
+        return maxLatencyMillis.get();
+    }
+
+    public long getFailedAttempts() {
+        return failedAttempts.sum();
+    }
+
+    public long getDeadLettered() {
+        return deadLettered.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OutboxMetrics{queueDepth=%d, delivered=%d, rows=%d, avgLatencyMs=%.1f, " +
+                        "maxLatencyMs=%d, failedAttempts=%d, deadLettered=%d}",
+                getQueueDepth(), getDeliveredMails(), getDeliveredRows(), getAverageLatencyMillis(),
+                getMaxLatencyMillis(), getFailedAttempts(), getDeadLettered());
+    }
+}
@@ -0,0 +1,107 @@
+package aut.ap.mail;
+
+import aut.ap.util.HibernateUtil;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Time-ordered 63-bit ids: 41 bits of milliseconds since 2024-01-01, 10 bits of node id
+// and a 12-bit per-millisecond sequence, written as 13 fixed-width base36 characters.
+// Single-case on purpose: mails.code compares case-insensitively, so codes that differ
+// only in case would collide on its unique key.
+// A single CAS on the (timestamp, sequence) pair keeps it lock-free. When a millisecond's
+// sequence runs out, or the wall clock steps back, the timestamp is advanced logically
+// instead of waiting, so codes stay unique and increasing.
+public class SnowflakeCodeGenerator implements MailCodeGenerator {
+    private static final long EPOCH_MILLIS = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    static final int MAX_NODE = (1 << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final String NODE_PROPERTY = "milou.node.id";
+
+    private static final char[] ALPHABET =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+    public static final int CODE_LENGTH = 13;
+
+    private static SnowflakeCodeGenerator defaultGenerator;
+
+    private volatile long node;
+    // Last issued (milliseconds since epoch << SEQUENCE_BITS | sequence)
+    private final AtomicLong lastState = new AtomicLong();
+
+    public SnowflakeCodeGenerator(int node) {
+        setNode(node);
+    }
+
+    // One generator per process: two with the same node id would issue the same codes. The node
+    // id comes from -Dmilou.node.id, which the operator must keep distinct per instance, or is
+    // leased from the database otherwise.
+    public static synchronized SnowflakeCodeGenerator getDefault() {
+        if (defaultGenerator == null) {
+            String configured = System.getProperty(NODE_PROPERTY);
+            if (configured != null) {
+                defaultGenerator = new SnowflakeCodeGenerator(Integer.parseInt(configured.trim()));
+            } else {
+                defaultGenerator = NodeIdLease.start(HibernateUtil.getSessionFactory()).getGenerator();
+            }
+        }
+        return defaultGenerator;
+    }
+
+    // Codes issued from now on carry this node id
+    void setNode(int node) {
+        if (node < 0 || node > MAX_NODE) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE);
+        }
+        this.node = node;
+    }
+
+    @Override
+    public String nextCode() {
+        return encode(nextId());
+    }
+
+    public long nextId() {
+        long now = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        while (true) {
+            long last = lastState.get();
+            // A new millisecond starts at sequence 0; otherwise take the next slot, which
+            // carries into the timestamp when the sequence is exhausted
+            long next = now > last ? now : last + 1;
+            if (lastState.compareAndSet(last, next)) {
+                long millis = next >>> SEQUENCE_BITS;
+                return (millis << (NODE_BITS + SEQUENCE_BITS)) | (node << SEQUENCE_BITS) | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    public static String encode(long id) {
+        char[] code = new char[CODE_LENGTH];
+        long remaining = id;
+        for (int i = CODE_LENGTH - 1; i >= 0; i--) {
+            code[i] = ALPHABET[(int) (remaining % ALPHABET.length)];
+            remaining /= ALPHABET.length;
+        }
+        return new String(code);
+    }
+
+    // Either case, like the column
+    public static long decode(String code) {
+        if (code.length() != CODE_LENGTH) {
+            throw new IllegalArgumentException("Invalid mail code: " + code);
+        }
+        long id = 0;
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            int digit = c >= '0' && c <= '9' ? c - '0'
+                    : c >= 'A' && c <= 'Z' ? c - 'A' + 10
+                    : c >= 'a' && c <= 'z' ? c - 'a' + 10 : -1;
+            if (digit < 0) {
+                throw new IllegalArgumentException("Invalid mail code: " + code);
+            }
+            id = id * ALPHABET.length + digit;
+        }
+        return id;
+    }
+}
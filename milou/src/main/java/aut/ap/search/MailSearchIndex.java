@@ -0,0 +1,370 @@
+package aut.ap.search;
+
+import aut.ap.list.DistributionList;
+import aut.ap.mail.Mail;
+import aut.ap.mail.MailBody;
+import aut.ap.user.User;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.simple.SimpleQueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.hibernate.Session;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+// Embedded Lucene index over mail subject, body and sender. Every document carries the
+// ids of the users allowed to see it, so searches are scoped per user inside Lucene. Mail to
+// a distribution list carries the list instead of its members; a search includes the lists
+// the user has received mail through, and the database check on the hits does the rest.
+// Searchers are reopened by a background thread rather than after every write, so a newly
+// indexed mail shows up in searches within REFRESH_MAX_STALE_SECONDS.
+// Writes are committed in batches, so a crash loses the latest ones; the commit records a
+// checkpoint mail id, and catchUp() indexes whatever is missing after it.
+public class MailSearchIndex implements Closeable {
+    private static final Logger logger = Logger.getLogger(MailSearchIndex.class.getName());
+    private static final String DEFAULT_DIRECTORY = System.getProperty("milou.index.dir", "milou-index");
+    private static final int COMMIT_EVERY = 100;
+    private static final int REBUILD_BATCH_SIZE = 500;
+    // A send commits well within this, so an older mail is either visible to a catch-up or never will be
+    private static final Duration CHECKPOINT_LAG = Duration.ofMinutes(1);
+    private static final String CHECKPOINT_KEY = "checkpoint";
+    private static final double REFRESH_MAX_STALE_SECONDS = 1.0;
+    private static final double REFRESH_MIN_STALE_SECONDS = 0.1;
+
+    private static final String FIELD_ID = "id";
+    private static final String FIELD_OWNER = "owner";
+    private static final String FIELD_SUBJECT = "subject";
+    private static final String FIELD_BODY = "body";
+    private static final String FIELD_SENDER = "sender";
+
+    private static MailSearchIndex defaultIndex;
+
+    private final FSDirectory directory;
+    private final Analyzer analyzer;
+    private final IndexWriter writer;
+    private final SearcherManager searcherManager;
+    private final ControlledRealTimeReopenThread<IndexSearcher> refresher;
+    private final Map<String, Float> fieldWeights;
+    private final AtomicInteger uncommitted = new AtomicInteger();
+    // Every mail up to this id is in the index; written with each commit
+    private volatile int checkpoint;
+
+    public MailSearchIndex(Path path) throws IOException {
+        this.directory = FSDirectory.open(path);
+        this.analyzer = new StandardAnalyzer();
+        this.writer = new IndexWriter(directory, new IndexWriterConfig(analyzer)
+                .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+        this.checkpoint = readCheckpoint(writer);
+        this.searcherManager = new SearcherManager(writer, null);
+        this.refresher = new ControlledRealTimeReopenThread<>(writer, searcherManager,
+                REFRESH_MAX_STALE_SECONDS, REFRESH_MIN_STALE_SECONDS);
+        refresher.setName("mail-search-refresher");
+        refresher.setDaemon(true);
+        refresher.start();
+
+        this.fieldWeights = new HashMap<>();
+        fieldWeights.put(FIELD_SUBJECT, 2.0f);
+        fieldWeights.put(FIELD_SENDER, 1.5f);
+        fieldWeights.put(FIELD_BODY, 1.0f);
+    }
+
+    public static synchronized MailSearchIndex getDefault() {
+        if (defaultIndex == null) {
+            try {
+                defaultIndex = new MailSearchIndex(Paths.get(DEFAULT_DIRECTORY));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open search index", e);
+            }
+        }
+        return defaultIndex;
+    }
+
+    public static synchronized void shutdownDefault() {
+        if (defaultIndex != null) {
+            try {
+                defaultIndex.close();
+            } catch (IOException e) {
+                logger.warning("Failed to close search index: " + e.getMessage());
+            }
+            defaultIndex = null;
+        }
+    }
+
+    public boolean isEmpty() {
+        return writer.getDocStats().numDocs == 0;
+    }
+
+    public void index(Mail mail) {
+        List<Integer> owners = new ArrayList<>();
+        owners.add(mail.getSender().getId());
+        for (User recipient : mail.getDirectRecipients()) {
+            owners.add(recipient.getId());
+        }
+        index(mail.getId(), mail.getSubject(), mail.getBody(),
+                mail.getSender().getName(), mail.getSender().getEmail(), owners,
+                mail.getLists().stream().map(DistributionList::getId).collect(Collectors.toList()));
+    }
+
+    public void index(int mailId, String subject, String body, String senderName, String senderEmail,
+                      Collection<Integer> ownerIds) {
+        index(mailId, subject, body, senderName, senderEmail, ownerIds, List.of());
+    }
+
+    public void index(int mailId, String subject, String body, String senderName, String senderEmail,
+                      Collection<Integer> ownerIds, Collection<Integer> listIds) {
+        Document document = new Document();
+        document.add(new StringField(FIELD_ID, String.valueOf(mailId), Field.Store.YES));
+        document.add(new TextField(FIELD_SUBJECT, subject, Field.Store.NO));
+        document.add(new TextField(FIELD_BODY, body, Field.Store.NO));
+        document.add(new TextField(FIELD_SENDER, senderName + " " + senderEmail, Field.Store.NO));
+        for (Integer ownerId : ownerIds) {
+            document.add(new StringField(FIELD_OWNER, ownerTerm(ownerId), Field.Store.NO));
+        }
+        for (Integer listId : listIds) {
+            document.add(new StringField(FIELD_OWNER, listTerm(listId), Field.Store.NO));
+        }
+
+        try {
+            writer.updateDocument(new Term(FIELD_ID, String.valueOf(mailId)), document);
+            if (uncommitted.incrementAndGet() >= COMMIT_EVERY) {
+                commit();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to index mail " + mailId, e);
+        }
+    }
+
+    public void delete(Collection<Integer> mailIds) {
+        try {
+            for (Integer mailId : mailIds) {
+                writer.deleteDocuments(new Term(FIELD_ID, String.valueOf(mailId)));
+            }
+            searcherManager.maybeRefresh();
+            commit();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to remove mails from the index", e);
+        }
+    }
+
+    // Ranked mail ids for the user's query; offset/limit page through the ranking
+    public SearchHits search(int userId, String queryText, int offset, int limit) {
+        return search(userId, List.of(), queryText, offset, limit);
+    }
+
+    public SearchHits search(int userId, Collection<Integer> listIds, String queryText, int offset, int limit) {
+        Query textQuery = new SimpleQueryParser(analyzer, fieldWeights).parse(queryText);
+        BooleanQuery.Builder owners = new BooleanQuery.Builder()
+                .add(new TermQuery(new Term(FIELD_OWNER, ownerTerm(userId))), BooleanClause.Occur.SHOULD);
+        for (Integer listId : listIds) {
+            owners.add(new TermQuery(new Term(FIELD_OWNER, listTerm(listId))), BooleanClause.Occur.SHOULD);
+        }
+        Query scoped = new BooleanQuery.Builder()
+                .add(textQuery, BooleanClause.Occur.MUST)
+                .add(owners.build(), BooleanClause.Occur.FILTER)
+                .build();
+
+        try {
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                TopDocs topDocs = searcher.search(scoped, offset + limit + 1);
+                ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+
+                List<Integer> mailIds = new ArrayList<>();
+                for (int i = offset; i < Math.min(scoreDocs.length, offset + limit); i++) {
+                    Document document = searcher.storedFields().document(scoreDocs[i].doc);
+                    mailIds.add(Integer.parseInt(document.get(FIELD_ID)));
+                }
+                return new SearchHits(mailIds, scoreDocs.length > offset + limit);
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Search failed", e);
+        }
+    }
+
+    // Re-indexes every mail, streaming in id order so the corpus never sits in memory
+    public int rebuild(Session session) {
+        int indexed = indexAfter(0, false, session);
+        logger.info("Rebuilt search index with " + indexed + " mails");
+        return indexed;
+    }
+
+    // Indexes the mails after the checkpoint that the index does not hold: sent while it was
+    // closed, lost with uncommitted writes in a crash, or whose indexing failed. Costs one id
+    // scan of the mails since the last catch-up when nothing is missing.
+    public int catchUp(Session session) {
+        int indexed = indexAfter(checkpoint, true, session);
+        if (indexed > 0) {
+            logger.info("Search index caught up on " + indexed + " mails");
+        }
+        return indexed;
+    }
+
+    // Streams the mails after afterId in id order, so the corpus never sits in memory, then
+    // commits with the checkpoint moved past every mail old enough to be settled
+    private int indexAfter(int afterId, boolean onlyMissing, Session session) {
+        refresh();
+        LocalDateTime settled = LocalDateTime.now().minus(CHECKPOINT_LAG);
+        int newCheckpoint = afterId;
+        boolean advancing = true;
+        int indexed = 0;
+        int lastId = afterId;
+        while (true) {
+            List<Object[]> rows = session.createQuery(
+                            "SELECT m.id, m.sentDate FROM Mail m WHERE m.id > :lastId ORDER BY m.id", Object[].class)
+                    .setParameter("lastId", lastId)
+                    .setMaxResults(REBUILD_BATCH_SIZE)
+                    .getResultList();
+            if (rows.isEmpty()) {
+                break;
+            }
+
+            List<Integer> mailIds = new ArrayList<>();
+            for (Object[] row : rows) {
+                int mailId = (Integer) row[0];
+                if (!onlyMissing || !contains(mailId)) {
+                    mailIds.add(mailId);
+                }
+                advancing = advancing && ((LocalDateTime) row[1]).isBefore(settled);
+                if (advancing) {
+                    newCheckpoint = mailId;
+                }
+            }
+            if (!mailIds.isEmpty()) {
+                index(mailIds, session);
+                indexed += mailIds.size();
+            }
+            lastId = (Integer) rows.get(rows.size() - 1)[0];
+            session.clear();
+        }
+        checkpoint = newCheckpoint;
+        commit();
+        refresh();
+        return indexed;
+    }
+
+    private boolean contains(int mailId) {
+        try {
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                return searcher.count(new TermQuery(new Term(FIELD_ID, String.valueOf(mailId)))) > 0;
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Search failed", e);
+        }
+    }
+
+    private void index(List<Integer> mailIds, Session session) {
+        List<Object[]> rows = session.createQuery(
+                        "SELECT m.id, m.subject, b, s.name, s.email, s.id " +
+                                "FROM Mail m JOIN m.sender s JOIN m.body b WHERE m.id IN (:mailIds)",
+                        Object[].class)
+                .setParameterList("mailIds", mailIds)
+                .getResultList();
+        Map<Integer, List<Integer>> recipientsByMail = session.createQuery(
+                        "SELECT mr.mail.id, mr.recipient.id FROM MailRecipient mr " +
+                                "WHERE mr.mail.id IN (:mailIds) AND mr.listId IS NULL", Object[].class)
+                .setParameterList("mailIds", mailIds)
+                .getResultList()
+                .stream()
+                .collect(Collectors.groupingBy(row -> (Integer) row[0],
+                        Collectors.mapping(row -> (Integer) row[1], Collectors.toList())));
+        Map<Integer, List<Integer>> listsByMail = session.createQuery(
+                        "SELECT m.id, l.id FROM Mail m JOIN m.lists l WHERE m.id IN (:mailIds)", Object[].class)
+                .setParameterList("mailIds", mailIds)
+                .getResultList()
+                .stream()
+                .collect(Collectors.groupingBy(row -> (Integer) row[0],
+                        Collectors.mapping(row -> (Integer) row[1], Collectors.toList())));
+
+        for (Object[] row : rows) {
+            int mailId = (Integer) row[0];
+            List<Integer> owners = new ArrayList<>(recipientsByMail.getOrDefault(mailId, List.of()));
+            owners.add((Integer) row[5]);
+            index(mailId, (String) row[1], ((MailBody) row[2]).getText(), (String) row[3], (String) row[4], owners,
+                    listsByMail.getOrDefault(mailId, List.of()));
+        }
+    }
+
+    // Makes every write so far visible to the next search, without waiting for the refresher
+    public void refresh() {
+        try {
+            searcherManager.maybeRefreshBlocking();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to refresh search index", e);
+        }
+    }
+
+    public void commit() {
+        try {
+            uncommitted.set(0);
+            writer.setLiveCommitData(Map.of(CHECKPOINT_KEY, String.valueOf(checkpoint)).entrySet());
+            writer.commit();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to commit search index", e);
+        }
+    }
+
+    private static int readCheckpoint(IndexWriter writer) {
+        Iterable<Map.Entry<String, String>> commitData = writer.getLiveCommitData();
+        if (commitData != null) {
+            for (Map.Entry<String, String> entry : commitData) {
+                if (CHECKPOINT_KEY.equals(entry.getKey())) {
+                    return Integer.parseInt(entry.getValue());
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static String ownerTerm(int userId) {
+        return "u:" + userId;
+    }
+
+    private static String listTerm(int listId) {
+        return "l:" + listId;
+    }
+
+    @Override
+    public void close() throws IOException {
+        refresher.close();
+        searcherManager.close();
+        writer.close();
+        directory.close();
+        analyzer.close();
+    }
+}
@@ -0,0 +1,23 @@
+package aut.ap.search;
+
+import java.util.Collections;
+import java.util.List;
+
+public class SearchHits {
+    private final List<Integer> mailIds;
+    private final boolean hasMore;
+
+    public SearchHits(List<Integer> mailIds, boolean hasMore) {
+        this.mailIds = Collections.unmodifiableList(mailIds);
+        this.hasMore = hasMore;
+    }
+
+    // Mail ids in rank order, best match first
+    public List<Integer> getMailIds() {
+        return mailIds;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+}
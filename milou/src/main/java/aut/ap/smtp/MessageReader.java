@@ -0,0 +1,196 @@
+package aut.ap.smtp;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Decodes a DATA section as it arrives, one network read at a time: removes dot-stuffing,
+// finds the terminating <CRLF>.<CRLF>, keeps only the Subject of the header section and
+// collects the body bytes. Body text is copied in runs up to the next CR rather than byte by
+// byte, and nothing becomes a String until the message is complete. Past maxBytes the rest is
+// only scanned for the terminator and the message is reported as too large.
+final class MessageReader {
+    private static final int LINE_START = 0;
+    private static final int DOT = 1;
+    private static final int DOT_CR = 2;
+    private static final int TEXT = 3;
+    private static final int CR = 4;
+
+    private final int maxBytes;
+    private final ByteArrayOutputStream headerLine = new ByteArrayOutputStream(128);
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+    private ByteArrayOutputStream subject;
+    private int state = LINE_START;
+    private long size;
+    private boolean inHeaders = true;
+    private boolean inSubject;
+
+    MessageReader(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // Consumes input until the message ends or the buffer is exhausted; true once it ended,
+    // with the buffer positioned just after the terminator
+    boolean read(ByteBuffer in) {
+        byte[] bytes = in.array();
+        int offset = in.arrayOffset();
+        int position = offset + in.position();
+        int end = offset + in.limit();
+        while (position < end) {
+            byte b = bytes[position];
+            switch (state) {
+                case TEXT:
+                    int cr = position;
+                    while (cr < end && bytes[cr] != '\r') {
+                        cr++;
+                    }
+                    append(bytes, position, cr - position);
+                    position = cr;
+                    if (cr < end) {
+                        append((byte) '\r');
+                        state = CR;
+                        position++;
+                    }
+                    break;
+                case CR:
+                    append(b);
+                    state = b == '\n' ? LINE_START : b == '\r' ? CR : TEXT;
+                    position++;
+                    break;
+                case LINE_START:
+                    if (b == '.') {
+                        state = DOT;
+                    } else {
+                        append(b);
+                        state = b == '\r' ? CR : TEXT;
+                    }
+                    position++;
+                    break;
+                case DOT:
+                    // The leading dot of a stuffed line is dropped, whatever follows it
+                    if (b == '\r') {
+                        state = DOT_CR;
+                    } else {
+                        append(b);
+                        state = TEXT;
+                    }
+                    position++;
+                    break;
+                case DOT_CR:
+                    if (b == '\n') {
+                        in.position(position + 1 - offset);
+                        return true;
+                    }
+                    // A bare CR after the dot; keep it and look at this byte again
+                    append((byte) '\r');
+                    state = CR;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown state " + state);
+            }
+        }
+        in.position(end - offset);
+        return false;
+    }
+
+    boolean isTooLarge() {
+        return size > maxBytes;
+    }
+
+    // The unfolded Subject header, or null if there was none
+    String getSubject() {
+        return subject == null ? null : subject.toString(StandardCharsets.UTF_8).trim();
+    }
+
+    // The body with line endings as the rest of the application stores them
+    String getBody() {
+        String text = body.toString(StandardCharsets.UTF_8);
+        if (text.endsWith("\r\n")) {
+            text = text.substring(0, text.length() - 2);
+        }
+        return text.replace("\r\n", "\n");
+    }
+
+    private void append(byte b) {
+        if (++size > maxBytes) {
+            return;
+        }
+        if (inHeaders) {
+            headerByte(b);
+        } else {
+            body.write(b);
+        }
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return;
+        }
+        size += length;
+        if (size > maxBytes) {
+            return;
+        }
+        int i = offset;
+        int limit = offset + length;
+        while (i < limit && inHeaders) {
+            headerByte(bytes[i++]);
+        }
+        if (i < limit) {
+            body.write(bytes, i, limit - i);
+        }
+    }
+
+    private void headerByte(byte b) {
+        headerLine.write(b);
+        if (b == '\n') {
+            headerLineEnded();
+        }
+    }
+
+    private void headerLineEnded() {
+        byte[] line = headerLine.toByteArray();
+        headerLine.reset();
+        int length = line.length - 1;
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+
+        if (length == 0) {
+            inHeaders = false;
+            return;
+        }
+        if (line[0] == ' ' || line[0] == '\t') {
+            // Folded continuation of the previous field
+            if (inSubject) {
+                subject.write(line, 0, length);
+            }
+            return;
+        }
+        int colon = fieldNameEnd(line, length);
+        if (colon < 0) {
+            // No header section at all; this line already belongs to the body
+            inHeaders = false;
+            body.write(line, 0, line.length);
+            return;
+        }
+        inSubject = colon == 7 && new String(line, 0, colon, StandardCharsets.US_ASCII).equalsIgnoreCase("Subject");
+        if (inSubject) {
+            subject = new ByteArrayOutputStream(length - colon);
+            subject.write(line, colon + 1, length - colon - 1);
+        }
+    }
+
+    // Index of the colon ending a field name (printable ASCII but no space), or -1
+    private static int fieldNameEnd(byte[] line, int length) {
+        for (int i = 0; i < length; i++) {
+            byte b = line[i];
+            if (b == ':') {
+                return i > 0 ? i : -1;
+            }
+            if (b < 33 || b > 126) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,583 @@
+package aut.ap.smtp;
+
+import aut.ap.list.DistributionList;
+import aut.ap.mail.Mail;
+import aut.ap.user.DirectoryEntry;
+import aut.ap.user.TooManyAttemptsException;
+import aut.ap.user.User;
+import org.hibernate.Session;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+// One client of SmtpServer. Everything here runs on the selector thread; directory lookups and
+// storing a message run on the server's workers, and until they finish nothing more is read
+// from this client, so a client pipelining faster than mail can be stored is held back by TCP.
+// Commands already buffered are answered in order once the work is done, and consecutive
+// pipelined RCPTs are resolved together with one lookup. Mail is only accepted after AUTH
+// PLAIN, and only with the signed-in user as its envelope sender.
+final class SmtpConnection {
+    // RFC 5321 4.5.3.1: command lines up to 512 octets, at least 100 recipients
+    private static final int MAX_COMMAND_LINE = 512;
+    private static final int MAX_RECIPIENTS = 100;
+    private static final int MAX_PENDING_OUTPUT = 16 * 1024;
+    private static final int INPUT_BUFFER_BYTES = 16 * 1024;
+
+    private final SmtpServer server;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final ByteBuffer in = ByteBuffer.allocate(INPUT_BUFFER_BYTES);
+    private ByteBuffer out = ByteBuffer.allocate(1024);
+    private long lastActivityNanos = System.nanoTime();
+
+    private String clientName;
+    private User user;
+    private boolean awaitingAuthResponse;
+    private User sender;
+    private final Set<Integer> recipientIds = new LinkedHashSet<>();
+    private final List<DistributionList> lists = new ArrayList<>();
+    private MessageReader message;
+    private boolean waiting;
+    private boolean discardingLine;
+    private boolean closing;
+
+    SmtpConnection(SmtpServer server, SocketChannel channel, SelectionKey key) {
+        this.server = server;
+        this.channel = channel;
+        this.key = key;
+    }
+
+    void greet() throws IOException {
+        reply("220 " + server.getHostName() + " ESMTP ready");
+        updateInterest();
+    }
+
+    void onReady() throws IOException {
+        if (key.isWritable()) {
+            flush();
+        }
+        if (key.isValid() && key.isReadable()) {
+            int read = channel.read(in);
+            if (read < 0) {
+                close();
+                return;
+            }
+            lastActivityNanos = System.nanoTime();
+        }
+        process();
+    }
+
+    boolean isIdleSince(long nanos) {
+        return !waiting && lastActivityNanos - nanos < 0;
+    }
+
+    void timeOut() throws IOException {
+        reply("421 4.4.2 " + server.getHostName() + " Idle timeout, closing connection");
+        closing = true;
+        updateInterest();
+    }
+
+    void close() {
+        if (!channel.isOpen()) {
+            return;
+        }
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Nothing left to tell the client
+        }
+        server.closed(this);
+    }
+
+    // Answers every complete command in the input, stopping while work is outstanding
+    private void process() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        in.flip();
+        try {
+            while (!waiting && !closing && in.hasRemaining() && out.position() < MAX_PENDING_OUTPUT) {
+                if (message != null) {
+                    if (message.read(in)) {
+                        endOfData();
+                    }
+                    continue;
+                }
+                String line = nextLine();
+                if (line == null) {
+                    if (in.remaining() > MAX_COMMAND_LINE) {
+                        // No line end in sight; drop what there is and answer when it comes
+                        in.position(in.limit());
+                        discardingLine = true;
+                    }
+                    break;
+                }
+                if (discardingLine) {
+                    discardingLine = false;
+                    awaitingAuthResponse = false;
+                    reply("500 5.5.2 Line too long");
+                } else if (line.length() > MAX_COMMAND_LINE) {
+                    awaitingAuthResponse = false;
+                    reply("500 5.5.2 Line too long");
+                } else if (awaitingAuthResponse) {
+                    awaitingAuthResponse = false;
+                    authenticate(line.trim());
+                } else {
+                    command(line);
+                }
+            }
+        } finally {
+            in.compact();
+        }
+        updateInterest();
+    }
+
+    // The next complete line without its line end, or null if none is buffered yet
+    private String nextLine() {
+        byte[] bytes = in.array();
+        int start = in.position();
+        for (int i = start; i < in.limit(); i++) {
+            if (bytes[i] == '\n') {
+                int end = i > start && bytes[i - 1] == '\r' ? i - 1 : i;
+                in.position(i + 1);
+                return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+            }
+        }
+        return null;
+    }
+
+    private void command(String line) {
+        String verb = line.length() >= 4 ? line.substring(0, 4).toUpperCase(Locale.ROOT) : "";
+        if (line.length() > 4 && line.charAt(4) != ' ') {
+            verb = "";
+        }
+        String argument = line.length() > 4 ? line.substring(5).trim() : "";
+        switch (verb) {
+            case "EHLO":
+            case "HELO":
+                hello(verb, argument);
+                break;
+            case "AUTH":
+                auth(argument);
+                break;
+            case "MAIL":
+                mail(argument);
+                break;
+            case "RCPT":
+                recipients(argument);
+                break;
+            case "DATA":
+                data();
+                break;
+            case "RSET":
+                resetTransaction();
+                reply("250 2.0.0 OK");
+                break;
+            case "NOOP":
+                reply("250 2.0.0 OK");
+                break;
+            case "QUIT":
+                reply("221 2.0.0 " + server.getHostName() + " closing connection");
+                closing = true;
+                break;
+            default:
+                reply("502 5.5.1 Command not implemented");
+        }
+    }
+
+    private void hello(String verb, String argument) {
+        if (argument.isEmpty()) {
+            reply("501 5.5.4 Syntax: " + verb + " hostname");
+            return;
+        }
+        clientName = argument;
+        resetTransaction();
+        if (verb.equals("HELO")) {
+            reply("250 " + server.getHostName());
+            return;
+        }
+        reply("250-" + server.getHostName() + " Hello " + argument);
+        reply("250-PIPELINING");
+        reply("250-AUTH PLAIN");
+        reply("250-SIZE " + server.getMaxMessageBytes());
+        reply("250-8BITMIME");
+        reply("250 ENHANCEDSTATUSCODES");
+    }
+
+    private void auth(String argument) {
+        if (clientName == null) {
+            reply("503 5.5.1 Send HELO or EHLO first");
+            return;
+        }
+        if (user != null) {
+            reply("503 5.5.1 Already authenticated");
+            return;
+        }
+        if (sender != null) {
+            reply("503 5.5.1 AUTH not allowed during a mail transaction");
+            return;
+        }
+        String[] parts = argument.split(" ", 2);
+        if (!parts[0].equalsIgnoreCase("PLAIN")) {
+            reply("504 5.5.4 Unrecognized authentication type");
+            return;
+        }
+        if (parts.length == 1) {
+            awaitingAuthResponse = true;
+            reply("334 ");
+            return;
+        }
+        authenticate(parts[1].trim());
+    }
+
+    // RFC 4616: base64 of authzid NUL authcid NUL password. The password may also be a session
+    // token from UserService, which is checked in memory instead of hashing.
+    private void authenticate(String response) {
+        if (response.equals("*")) {
+            reply("501 5.7.0 Authentication cancelled");
+            return;
+        }
+        String[] credentials = plainCredentials(response);
+        if (credentials == null) {
+            reply("501 5.5.2 Cannot decode AUTH PLAIN response");
+            return;
+        }
+        String email = credentials[0];
+        String secret = credentials[1];
+        String clientId = clientId();
+        submit(session -> verify(email, secret, clientId, session), (found, failure) -> {
+            if (failure instanceof TooManyAttemptsException) {
+                reply("454 4.7.0 Too many attempts, try again later");
+            } else if (failure != null) {
+                reply(busy(failure));
+            } else if (found.isEmpty()) {
+                reply("535 5.7.8 Authentication credentials invalid");
+            } else {
+                user = found.get();
+                reply("235 2.7.0 Authentication successful");
+            }
+        });
+    }
+
+    private Optional<User> verify(String email, String secret, String clientId, Session session) {
+        Optional<User> signedIn = server.getUserService().resumeSession(secret);
+        if (signedIn.isPresent()) {
+            return signedIn.filter(found -> found.getEmail().equalsIgnoreCase(email));
+        }
+        return server.getUserService().loginUser(email, secret, clientId, session);
+    }
+
+    private void mail(String argument) {
+        if (clientName == null) {
+            reply("503 5.5.1 Send HELO or EHLO first");
+            return;
+        }
+        if (user == null) {
+            reply("530 5.7.0 Authentication required");
+            return;
+        }
+        if (sender != null) {
+            reply("503 5.5.1 Sender already specified");
+            return;
+        }
+        String address = path(argument, "FROM:");
+        if (address == null) {
+            reply("501 5.5.4 Syntax: MAIL FROM:<address>");
+            return;
+        }
+        Long declaredSize = sizeParameter(argument);
+        if (declaredSize != null && declaredSize > server.getMaxMessageBytes()) {
+            reply("552 5.3.4 Message size exceeds fixed limit");
+            return;
+        }
+        // Mail is stored as sent by this user, so the envelope cannot claim anyone else
+        if (!address.equalsIgnoreCase(user.getEmail())) {
+            reply("553 5.7.1 Sender address must be your own");
+            return;
+        }
+        sender = user;
+        reply("250 2.1.0 OK");
+    }
+
+    // Resolves this RCPT and any further ones already pipelined behind it in one lookup
+    private void recipients(String first) {
+        List<String> arguments = new ArrayList<>();
+        arguments.add(first);
+        String next;
+        while ((next = nextPipelinedRecipient()) != null) {
+            arguments.add(next);
+        }
+        if (sender == null) {
+            arguments.forEach(argument -> reply("503 5.5.1 Need MAIL before RCPT"));
+            return;
+        }
+
+        List<String> addresses = new ArrayList<>();
+        for (String argument : arguments) {
+            String address = path(argument, "TO:");
+            addresses.add(address == null || address.isEmpty() ? null : address);
+        }
+        List<String> valid = new ArrayList<>();
+        addresses.stream().filter(address -> address != null).forEach(valid::add);
+        if (valid.isEmpty()) {
+            addresses.forEach(address -> reply("501 5.5.4 Syntax: RCPT TO:<address>"));
+            return;
+        }
+
+        submit(session -> lookUp(valid, session), (found, failure) -> {
+            for (String address : addresses) {
+                if (address == null) {
+                    reply("501 5.5.4 Syntax: RCPT TO:<address>");
+                } else if (failure != null) {
+                    reply(busy(failure));
+                } else {
+                    reply(addRecipient(address, found));
+                }
+            }
+        });
+    }
+
+    private String nextPipelinedRecipient() {
+        int mark = in.position();
+        String line = nextLine();
+        if (line != null && line.length() <= MAX_COMMAND_LINE && line.length() > 4
+                && line.substring(0, 5).equalsIgnoreCase("RCPT ")) {
+            return line.substring(5).trim();
+        }
+        in.position(mark);
+        return null;
+    }
+
+    private Addressees lookUp(List<String> addresses, Session session) {
+        Map<String, DirectoryEntry> users = server.getUserDirectory().findByEmails(addresses, session);
+        List<String> others = new ArrayList<>();
+        for (String address : addresses) {
+            if (!users.containsKey(address)) {
+                others.add(address);
+            }
+        }
+        List<DistributionList> found = others.isEmpty()
+                ? List.of()
+                : server.getListService().findByAddresses(others, session);
+        return new Addressees(users, found);
+    }
+
+    private String addRecipient(String address, Addressees found) {
+        if (recipientIds.size() + lists.size() >= MAX_RECIPIENTS) {
+            return "452 4.5.3 Too many recipients";
+        }
+        DirectoryEntry user = found.users.get(address);
+        if (user != null) {
+            recipientIds.add(user.getId());
+            return "250 2.1.5 OK";
+        }
+        for (DistributionList list : found.lists) {
+            if (list.getAddress().equalsIgnoreCase(address)) {
+                if (lists.stream().noneMatch(added -> added.getId() == list.getId())) {
+                    lists.add(list);
+                }
+                return "250 2.1.5 OK";
+            }
+        }
+        return "550 5.1.1 <" + address + ">: no such user or list";
+    }
+
+    private void data() {
+        if (sender == null) {
+            reply("503 5.5.1 Need MAIL before DATA");
+            return;
+        }
+        if (recipientIds.isEmpty() && lists.isEmpty()) {
+            reply("554 5.5.1 No valid recipients");
+            return;
+        }
+        message = new MessageReader(server.getMaxMessageBytes());
+        reply("354 End data with <CR><LF>.<CR><LF>");
+    }
+
+    private void endOfData() {
+        MessageReader received = message;
+        message = null;
+        int senderId = sender.getId();
+        List<Integer> to = new ArrayList<>(recipientIds);
+        List<DistributionList> toLists = new ArrayList<>(lists);
+        resetTransaction();
+        if (received.isTooLarge()) {
+            reply("552 5.3.4 Message size exceeds fixed limit");
+            return;
+        }
+        submit(session -> store(senderId, to, toLists, received, session),
+                (reply, failure) -> reply(failure != null ? busy(failure) : reply));
+    }
+
+    // Runs on a worker; failures the sender can fix are answered here, the rest are transient
+    private String store(int senderId, List<Integer> to, List<DistributionList> toLists,
+                         MessageReader received, Session session) {
+        User from = session.get(User.class, senderId);
+        List<User> recipients = session.byMultipleIds(User.class).multiLoad(to);
+        String subject = received.getSubject();
+        try {
+            Mail mail = server.getMailService().sendMail(from, recipients, toLists,
+                    subject == null || subject.isEmpty() ? "(no subject)" : subject, received.getBody(), session);
+            return "250 2.0.0 OK " + mail.getCode();
+        } catch (RuntimeException e) {
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof IllegalArgumentException) {
+                    return "554 5.6.0 " + oneLine(cause.getMessage());
+                }
+                if (cause instanceof SecurityException) {
+                    return "550 5.7.1 " + oneLine(cause.getMessage());
+                }
+            }
+            throw e;
+        }
+    }
+
+    private <T> void submit(Function<Session, T> work, BiConsumer<T, RuntimeException> then) {
+        waiting = true;
+        server.execute(this, work, (result, failure) -> {
+            waiting = false;
+            then.accept(result, failure);
+            try {
+                process();
+            } catch (IOException e) {
+                close();
+            }
+        });
+    }
+
+    private String busy(RuntimeException failure) {
+        server.logFailure(failure);
+        return "451 4.3.0 Temporary local problem, try again later";
+    }
+
+    private void resetTransaction() {
+        sender = null;
+        recipientIds.clear();
+        lists.clear();
+    }
+
+    private void reply(String line) {
+        byte[] bytes = (line + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        if (out.remaining() < bytes.length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes.length));
+            out.flip();
+            larger.put(out);
+            out = larger;
+        }
+        out.put(bytes);
+    }
+
+    private void flush() throws IOException {
+        if (out.position() == 0) {
+            return;
+        }
+        out.flip();
+        channel.write(out);
+        out.compact();
+    }
+
+    // Writes what it can now; reads only while nothing is outstanding and replies are taken
+    private void updateInterest() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        flush();
+        if (closing && out.position() == 0) {
+            close();
+            return;
+        }
+        int ops = 0;
+        if (out.position() > 0) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        if (!waiting && !closing && out.position() < MAX_PENDING_OUTPUT) {
+            ops |= SelectionKey.OP_READ;
+        }
+        key.interestOps(ops);
+    }
+
+    // The address in "FROM:<address> ..." or "TO:<address> ..."; null if malformed, empty for <>
+    private static String path(String argument, String prefix) {
+        if (!argument.regionMatches(true, 0, prefix, 0, prefix.length())) {
+            return null;
+        }
+        String rest = argument.substring(prefix.length()).trim();
+        int close = rest.indexOf('>');
+        if (!rest.startsWith("<") || close < 0) {
+            return null;
+        }
+        String address = rest.substring(1, close).trim();
+        // Source routes (RFC 5321 C) are ignored
+        int colon = address.indexOf(':');
+        return colon >= 0 ? address.substring(colon + 1) : address;
+    }
+
+    // The authorization and authentication identities must match; acting for another user is
+    // not supported
+    private static String[] plainCredentials(String response) {
+        byte[] decoded;
+        try {
+            decoded = Base64.getDecoder().decode(response);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        String[] parts = new String(decoded, StandardCharsets.UTF_8).split("\0", -1);
+        if (parts.length != 3 || parts[1].isEmpty() || parts[2].isEmpty()
+                || (!parts[0].isEmpty() && !parts[0].equalsIgnoreCase(parts[1]))) {
+            return null;
+        }
+        return new String[]{parts[1], parts[2]};
+    }
+
+    private String clientId() {
+        try {
+            return ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+
+    private static Long sizeParameter(String argument) {
+        int close = argument.indexOf('>');
+        for (String parameter : argument.substring(close + 1).trim().split("\\s+")) {
+            if (parameter.regionMatches(true, 0, "SIZE=", 0, 5)) {
+                try {
+                    return Long.parseLong(parameter.substring(5));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String oneLine(String message) {
+        return message == null ? "Rejected" : message.replaceAll("[\\r\\n]+", " ");
+    }
+
+    private static final class Addressees {
+        final Map<String, DirectoryEntry> users;
+        final List<DistributionList> lists;
+
+        Addressees(Map<String, DirectoryEntry> users, List<DistributionList> lists) {
+            this.users = users;
+            this.lists = lists;
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package aut.ap.smtp;
+
+import aut.ap.list.DistributionListService;
+import aut.ap.mail.MailService;
+import aut.ap.search.MailSearchIndex;
+import aut.ap.user.UserDirectory;
+import aut.ap.user.UserService;
+import aut.ap.util.HibernateUtil;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Accepts inbound mail over SMTP (RFC 5321 with PIPELINING, SIZE, 8BITMIME and enhanced status
+// codes) and stores it through MailService like the compose form does. Clients sign in with
+// AUTH PLAIN as a user and can then send only as that user, to users or distribution lists.
+// There is no STARTTLS, so credentials are only safe on the loopback interface.
+//
+// One selector thread does all socket I/O and protocol parsing; anything touching the database
+// runs on a small bounded worker pool, each task with its own session. Backpressure comes from
+// three places: a client is not read from while its work is outstanding, new connections are
+// not accepted beyond maxConnections, and work the pool cannot queue is answered 451 so the
+// client retries later.
+public class SmtpServer implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(SmtpServer.class.getName());
+    public static final int DEFAULT_PORT = 2525;
+    public static final String HOST_PROPERTY = "milou.smtp.host";
+    private static final long SELECT_MILLIS = 1_000;
+    private static final int STOP_SECONDS = 5;
+
+    private final String hostName;
+    private final int maxMessageBytes;
+    private final int maxConnections;
+    private final long idleTimeoutNanos;
+    private final SessionFactory sessionFactory;
+    private final MailService mailService;
+    private final UserDirectory userDirectory;
+    private final DistributionListService listService;
+    private final UserService userService;
+    private final ThreadPoolExecutor workers;
+    private final Selector selector;
+    private final ServerSocketChannel listener;
+    private final SelectionKey acceptKey;
+    private final Queue<Runnable> completions = new ConcurrentLinkedQueue<>();
+    // Selector thread only
+    private final Set<SmtpConnection> connections = new HashSet<>();
+    private final Thread thread;
+    private volatile boolean running;
+
+    private SmtpServer(Builder builder) throws IOException {
+        this.hostName = builder.hostName;
+        this.maxMessageBytes = builder.maxMessageBytes;
+        this.maxConnections = builder.maxConnections;
+        this.idleTimeoutNanos = builder.idleTimeout.toNanos();
+        this.sessionFactory = builder.sessionFactory != null ? builder.sessionFactory : HibernateUtil.getSessionFactory();
+        this.mailService = builder.mailService != null ? builder.mailService : new MailService(MailSearchIndex.getDefault());
+        this.userDirectory = builder.userDirectory != null ? builder.userDirectory : new UserDirectory();
+        this.listService = builder.listService != null ? builder.listService : new DistributionListService();
+        this.userService = builder.userService != null ? builder.userService : new UserService();
+        this.workers = new ThreadPoolExecutor(builder.workers, builder.workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(builder.workers * builder.queuePerWorker), runnable -> {
+            Thread worker = new Thread(runnable, "smtp-worker");
+            worker.setDaemon(true);
+            return worker;
+        }, new ThreadPoolExecutor.AbortPolicy());
+
+        this.selector = Selector.open();
+        this.listener = ServerSocketChannel.open();
+        try {
+            listener.bind(builder.address, builder.backlog);
+            listener.configureBlocking(false);
+            this.acceptKey = listener.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            listener.close();
+            selector.close();
+            workers.shutdown();
+            throw e;
+        }
+        this.thread = new Thread(this::run, "smtp-selector");
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // Listens on the loopback interface unless -Dmilou.smtp.host names another
+    public static SmtpServer create(int port) throws IOException {
+        String host = System.getProperty(HOST_PROPERTY);
+        InetSocketAddress address = host != null
+                ? new InetSocketAddress(host, port)
+                : new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        return builder().address(address).build();
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+        logger.info("SMTP listening on " + getAddress());
+        if (!getAddress().getAddress().isLoopbackAddress()) {
+            logger.warning("SMTP is reachable beyond this machine; AUTH credentials are sent unencrypted");
+        }
+    }
+
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) listener.getLocalAddress();
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading SMTP listener address", e);
+        }
+    }
+
+    String getHostName() {
+        return hostName;
+    }
+
+    int getMaxMessageBytes() {
+        return maxMessageBytes;
+    }
+
+    MailService getMailService() {
+        return mailService;
+    }
+
+    UserDirectory getUserDirectory() {
+        return userDirectory;
+    }
+
+    DistributionListService getListService() {
+        return listService;
+    }
+
+    UserService getUserService() {
+        return userService;
+    }
+
+    // Runs work on a worker with its own session and hands the result, or the failure, back to
+    // the selector thread. A full pool fails the work at once.
+    <T> void execute(SmtpConnection connection, Function<Session, T> work, BiConsumer<T, RuntimeException> then) {
+        try {
+            workers.execute(() -> {
+                T result = null;
+                RuntimeException failure = null;
+                try (Session session = sessionFactory.openSession()) {
+                    result = work.apply(session);
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+                complete(connection, result, failure, then);
+            });
+        } catch (RejectedExecutionException e) {
+            complete(connection, null, e, then);
+        }
+    }
+
+    private <T> void complete(SmtpConnection connection, T result, RuntimeException failure,
+                              BiConsumer<T, RuntimeException> then) {
+        completions.add(() -> {
+            if (connections.contains(connection)) {
+                then.accept(result, failure);
+            }
+        });
+        selector.wakeup();
+    }
+
+    void logFailure(RuntimeException failure) {
+        if (failure instanceof RejectedExecutionException) {
+            logger.fine("SMTP workers saturated, deferring a client");
+        } else {
+            logger.log(Level.WARNING, "SMTP request failed", failure);
+        }
+    }
+
+    void closed(SmtpConnection connection) {
+        connections.remove(connection);
+        if (acceptKey.isValid() && connections.size() < maxConnections) {
+            acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+        }
+    }
+
+    private void run() {
+        long nextSweep = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SELECT_MILLIS);
+        while (running) {
+            try {
+                selector.select(SELECT_MILLIS);
+                Runnable completion;
+                while ((completion = completions.poll()) != null) {
+                    completion.run();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key == acceptKey) {
+                        accept();
+                    } else {
+                        ready((SmtpConnection) key.attachment());
+                    }
+                }
+                long now = System.nanoTime();
+                if (now - nextSweep >= 0) {
+                    closeIdle(now - idleTimeoutNanos);
+                    nextSweep = now + TimeUnit.MILLISECONDS.toNanos(SELECT_MILLIS);
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.WARNING, "SMTP selector loop failed", e);
+            }
+        }
+        for (SmtpConnection connection : new ArrayList<>(connections)) {
+            connection.close();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while (connections.size() < maxConnections && (channel = listener.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SelectionKey key = channel.register(selector, 0);
+            SmtpConnection connection = new SmtpConnection(this, channel, key);
+            key.attach(connection);
+            connections.add(connection);
+            ready(connection, true);
+        }
+        // Further clients wait in the listen backlog until someone leaves
+        if (connections.size() >= maxConnections) {
+            acceptKey.interestOps(0);
+        }
+    }
+
+    private void ready(SmtpConnection connection) {
+        ready(connection, false);
+    }
+
+    private void ready(SmtpConnection connection, boolean greet) {
+        try {
+            if (greet) {
+                connection.greet();
+            } else {
+                connection.onReady();
+            }
+        } catch (IOException e) {
+            connection.close();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "SMTP connection failed", e);
+            connection.close();
+        }
+    }
+
+    private void closeIdle(long activeSince) {
+        for (SmtpConnection connection : new ArrayList<>(connections)) {
+            if (connection.isIdleSince(activeSince)) {
+                try {
+                    connection.timeOut();
+                } catch (IOException e) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    // Stops accepting, drops open connections and gives stores in progress a moment to finish
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            if (thread.isAlive()) {
+                thread.join(TimeUnit.SECONDS.toMillis(STOP_SECONDS));
+            }
+            workers.shutdown();
+            if (!workers.awaitTermination(STOP_SECONDS, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        try {
+            listener.close();
+            selector.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Failed to close SMTP listener", e);
+        }
+    }
+
+    public static final class Builder {
+        private InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), DEFAULT_PORT);
+        private String hostName = "milou";
+        private SessionFactory sessionFactory;
+        private MailService mailService;
+        private UserDirectory userDirectory;
+        private DistributionListService listService;
+        private UserService userService;
+        // Below the connection pool size, so the desktop client and dispatcher still get one
+        private int workers = 8;
+        private int queuePerWorker = 64;
+        private int maxConnections = 1_000;
+        private int backlog = 128;
+        private int maxMessageBytes = 64 * 1024;
+        // RFC 5321 4.5.3.2.7
+        private Duration idleTimeout = Duration.ofMinutes(5);
+
+        private Builder() {
+        }
+
+        public Builder address(InetSocketAddress address) {
+            this.address = address;
+            return this;
+        }
+
+        public Builder hostName(String hostName) {
+            this.hostName = hostName;
+            return this;
+        }
+
+        public Builder sessionFactory(SessionFactory sessionFactory) {
+            this.sessionFactory = sessionFactory;
+            return this;
+        }
+
+        public Builder mailService(MailService mailService) {
+            this.mailService = mailService;
+            return this;
+        }
+
+        public Builder userDirectory(UserDirectory userDirectory) {
+            this.userDirectory = userDirectory;
+            return this;
+        }
+
+        public Builder listService(DistributionListService listService) {
+            this.listService = listService;
+            return this;
+        }
+
+        public Builder userService(UserService userService) {
+            this.userService = userService;
+            return this;
+        }
+
+        public Builder workers(int workers) {
+            this.workers = workers;
+            return this;
+        }
+
+        public Builder queuePerWorker(int queuePerWorker) {
+            this.queuePerWorker = queuePerWorker;
+            return this;
+        }
+
+        public Builder maxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder backlog(int backlog) {
+            this.backlog = backlog;
+            return this;
+        }
+
+        public Builder maxMessageBytes(int maxMessageBytes) {
+            this.maxMessageBytes = maxMessageBytes;
+            return this;
+        }
+
+        public Builder idleTimeout(Duration idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public SmtpServer build() throws IOException {
+            if (workers < 1 || queuePerWorker < 1) {
+                throw new IllegalArgumentException("Workers and their queue must be positive.");
+            }
+            if (maxConnections < 1 || maxMessageBytes < 1) {
+                throw new IllegalArgumentException("Connection and message limits must be positive.");
+            }
+            if (hostName == null || hostName.isBlank()) {
+                throw new IllegalArgumentException("Host name is required.");
+            }
+            return new SmtpServer(this);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package aut.ap.tools;
+
+import aut.ap.mail.MailRepository;
+import aut.ap.user.User;
+import aut.ap.util.HibernateUtil;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Runs every folder listing query, captures the SQL Hibernate generates for it, and EXPLAINs
+// that SQL on MySQL. Exits non-zero if a query reads mails or mail_recipients with a full
+// table or full index scan, or touches mail_bodies at all. Meant to run against a realistically
+// sized database, e.g. one filled by MailboxDataGenerator, since the optimizer scans tiny
+// tables regardless of indexes.
+//
+// Usage: FolderQueryPlanCheck [userId]   (defaults to the user with the most received mail)
+public class FolderQueryPlanCheck {
+    private static final Set<String> LARGE_TABLES = Set.of("mails", "mail_recipients");
+    private static final Set<String> FULL_SCAN_TYPES = Set.of("ALL", "index");
+    // Trash ORs recipient-side and sender-side deletes across a join, which no index can serve
+    private static final Set<String> KNOWN_FULL_SCANS = Set.of("trash", "trash page");
+    private static final Pattern TABLE_ALIAS = Pattern.compile("(?:from|join)\\s+(\\w+)\\s+(\\w+)",
+            Pattern.CASE_INSENSITIVE);
+
+    private final MailRepository mailRepository = new MailRepository();
+
+    // Returns one message per folder query that regressed to a full scan
+    public List<String> check(SessionFactory sessionFactory, int userId) {
+        Map<String, BiConsumer<User, Session>> folders = new LinkedHashMap<>();
+        folders.put("inbox", mailRepository::findInboxDtos);
+        folders.put("unread", mailRepository::findUnreadDtos);
+        folders.put("sent", mailRepository::findSentDtos);
+        folders.put("trash", mailRepository::findTrashDtos);
+        folders.put("inbox page", (user, session) -> mailRepository.findInboxPage(user, null, 50, session));
+        folders.put("unread page", (user, session) -> mailRepository.findUnreadPage(user, null, 50, session));
+        folders.put("sent page", (user, session) -> mailRepository.findSentPage(user, null, 50, session));
+        folders.put("trash page", (user, session) -> mailRepository.findTrashPage(user, null, 50, session));
+
+        List<String> problems = new ArrayList<>();
+        List<String> captured = new ArrayList<>();
+        try (Session session = sessionFactory.withOptions()
+                .statementInspector(sql -> {
+                    captured.add(sql);
+                    return sql;
+                })
+                .openSession()) {
+            User user = session.get(User.class, userId);
+            if (user == null) {
+                throw new IllegalArgumentException("User " + userId + " not found.");
+            }
+
+            for (Map.Entry<String, BiConsumer<User, Session>> folder : folders.entrySet()) {
+                captured.clear();
+                folder.getValue().accept(user, session);
+                if (captured.isEmpty()) {
+                    throw new IllegalStateException("No SQL captured for " + folder.getKey());
+                }
+                String sql = captured.get(captured.size() - 1);
+                // Listings are projections; reading bodies there would mean inflating every one of them
+                if (sql.toLowerCase(Locale.ROOT).contains("mail_bodies")) {
+                    problems.add(folder.getKey() + ": reads mail_bodies\n  " + sql);
+                }
+
+                List<String> scans = explain(session, sql, userId);
+                System.out.printf("%-12s %s%n", folder.getKey(), scans.isEmpty() ? "ok" : String.join(", ", scans));
+                if (!scans.isEmpty() && !KNOWN_FULL_SCANS.contains(folder.getKey())) {
+                    problems.add(folder.getKey() + ": " + String.join(", ", scans) + "\n  " + sql);
+                }
+            }
+        }
+        return problems;
+    }
+
+    // Every bind parameter of a folder query is the user id, apart from LIMIT, where any value will do
+    private List<String> explain(Session session, String sql, int userId) {
+        Map<String, String> aliasToTable = new HashMap<>();
+        Matcher matcher = TABLE_ALIAS.matcher(sql);
+        while (matcher.find()) {
+            aliasToTable.put(matcher.group(2), matcher.group(1).toLowerCase(Locale.ROOT));
+        }
+
+        return session.doReturningWork(connection -> {
+            List<String> scans = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+                int parameters = (int) sql.chars().filter(c -> c == '?').count();
+                for (int i = 1; i <= parameters; i++) {
+                    statement.setInt(i, userId);
+                }
+                try (ResultSet plan = statement.executeQuery()) {
+                    while (plan.next()) {
+                        String alias = plan.getString("table");
+                        String table = aliasToTable.getOrDefault(alias, alias);
+                        String type = plan.getString("type");
+                        if (LARGE_TABLES.contains(table) && FULL_SCAN_TYPES.contains(type)) {
+                            scans.add(table + " " + type + " (~" + plan.getLong("rows") + " rows)");
+                        }
+                    }
+                }
+            }
+            return scans;
+        });
+    }
+
+    private static int busiestRecipient(SessionFactory sessionFactory) {
+        try (Session session = sessionFactory.openSession()) {
+            Integer userId = session.createNativeQuery(
+                            "SELECT recipient_id FROM mail_recipients GROUP BY recipient_id " +
+                                    "ORDER BY COUNT(*) DESC LIMIT 1", Integer.class)
+                    .uniqueResult();
+            if (userId == null) {
+                throw new IllegalStateException("The database has no mail to check against.");
+            }
+            return userId;
+        }
+    }
+
+    public static void main(String[] args) {
+        int exitCode;
+        try {
+            SessionFactory sessionFactory = HibernateUtil.getSessionFactory();
+            int userId = args.length > 0 ? Integer.parseInt(args[0]) : busiestRecipient(sessionFactory);
+            List<String> problems = new FolderQueryPlanCheck().check(sessionFactory, userId);
+            problems.forEach(problem -> System.err.println("Full scan in " + problem));
+            exitCode = problems.isEmpty() ? 0 : 1;
+        } finally {
+            HibernateUtil.shutdown();
+        }
+        System.exit(exitCode);
+    }
+}
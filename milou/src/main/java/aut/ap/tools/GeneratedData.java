@@ -0,0 +1,57 @@
+package aut.ap.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Id ranges written by one MailboxDataGenerator run
+public class GeneratedData {
+    private final int firstUserId;
+    private final int userCount;
+    private final int firstMailId;
+    private final int mailCount;
+    private final long recipientRows;
+    private final Integer probeUserId;
+    private final int probeMailboxSize;
+
+    GeneratedData(int firstUserId, int userCount, int firstMailId, int mailCount, long recipientRows,
+                  Integer probeUserId, int probeMailboxSize) {
+        this.firstUserId = firstUserId;
+        this.userCount = userCount;
+        this.firstMailId = firstMailId;
+        this.mailCount = mailCount;
+        this.recipientRows = recipientRows;
+        this.probeUserId = probeUserId;
+        this.probeMailboxSize = probeMailboxSize;
+    }
+
+    public int getFirstUserId() { return firstUserId; }
+    public int getUserCount() { return userCount; }
+    public int getFirstMailId() { return firstMailId; }
+    public int getMailCount() { return mailCount; }
+    public long getRecipientRows() { return recipientRows; }
+    public int getProbeMailboxSize() { return probeMailboxSize; }
+
+    public int getProbeUserId() {
+        if (probeUserId == null) {
+            throw new IllegalStateException("No probe user was generated.");
+        }
+        return probeUserId;
+    }
+
+    // The probe user's inbox is exactly the first probeMailboxSize generated mails
+    public List<Integer> getProbeMailIds() {
+        List<Integer> mailIds = new ArrayList<>(probeMailboxSize);
+        for (int i = 0; i < probeMailboxSize; i++) {
+            mailIds.add(firstMailId + i);
+        }
+        return mailIds;
+    }
+
+    public List<String> getProbeMailCodes() {
+        List<String> codes = new ArrayList<>(probeMailboxSize);
+        for (Integer mailId : getProbeMailIds()) {
+            codes.add(MailboxDataGenerator.codeFor(mailId));
+        }
+        return codes;
+    }
+}
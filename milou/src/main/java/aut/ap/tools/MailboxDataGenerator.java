@@ -0,0 +1,636 @@
+package aut.ap.tools;
+
+import aut.ap.mail.CompressedTextConverter;
+import aut.ap.mail.MailBody;
+import aut.ap.user.PasswordHasher;
+import aut.ap.util.HibernateUtil;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+
+// Bulk-loads synthetic users and mails straight into the schema of sql/mail-database.sql.
+// Recipients follow a Zipf distribution, a share of mails are replies or forwards of recent
+// mail, and mailbox_counters is written from totals kept while generating. Forwards share the
+// forwarded body the way MailService stores them: a header fragment chained onto the original. Rows go out as
+// JDBC batches with explicit ids, which the MySQL driver rewrites into multi-row inserts.
+//
+// Usage: MailboxDataGenerator --users=100000 --mails=4000000 [--seed=42] [--batch=5000]
+public class MailboxDataGenerator {
+    private static final Logger logger = Logger.getLogger(MailboxDataGenerator.class.getName());
+    public static final String PASSWORD = "Generated1";
+    private static final String EMAIL_DOMAIN = "@milou.com";
+    private static final LocalDateTime START_DATE = LocalDateTime.of(2024, 1, 1, 0, 0);
+    private static final int RECENT_MAILS = 4096;
+
+    private final int users;
+    private final int mails;
+    private final long seed;
+    private final double zipfExponent;
+    private final double meanRecipients;
+    private final int maxRecipients;
+    private final double readRatio;
+    private final double recipientDeleteRatio;
+    private final double senderDeleteRatio;
+    private final double replyRatio;
+    private final double forwardRatio;
+    private final int probeMailboxSize;
+    private final int batchSize;
+    private final CompressedTextConverter bodyConverter = new CompressedTextConverter();
+
+    private MailboxDataGenerator(Builder builder) {
+        this.users = builder.users;
+        this.mails = builder.mails;
+        this.seed = builder.seed;
+        this.zipfExponent = builder.zipfExponent;
+        this.meanRecipients = builder.meanRecipients;
+        this.maxRecipients = builder.maxRecipients;
+        this.readRatio = builder.readRatio;
+        this.recipientDeleteRatio = builder.recipientDeleteRatio;
+        this.senderDeleteRatio = builder.senderDeleteRatio;
+        this.replyRatio = builder.replyRatio;
+        this.forwardRatio = builder.forwardRatio;
+        this.probeMailboxSize = builder.probeMailboxSize;
+        this.batchSize = builder.batchSize;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public GeneratedData generate() {
+        return generate(HibernateUtil.getSessionFactory());
+    }
+
+    public GeneratedData generate(SessionFactory sessionFactory) {
+        try (Session session = sessionFactory.openSession()) {
+            return session.doReturningWork(this::generate);
+        }
+    }
+
+    private GeneratedData generate(Connection connection) throws SQLException {
+        long started = System.nanoTime();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        boolean mysql = connection.getMetaData().getDatabaseProductName().toLowerCase().contains("mysql");
+        if (mysql) {
+            setBulkLoadChecks(connection, false);
+        }
+        try {
+            int firstUserId = nextId(connection, "users");
+            int firstMailId = nextId(connection, "mails");
+            long firstBodyId = nextId(connection, "mail_bodies");
+            Random random = new Random(seed);
+
+            insertUsers(connection, firstUserId);
+            MailboxTotals totals = new MailboxTotals(users);
+            long recipientRows = insertMails(connection, random, firstUserId, firstMailId, firstBodyId, totals);
+            insertCounters(connection, firstUserId, totals);
+            connection.commit();
+
+            GeneratedData data = new GeneratedData(firstUserId, users, firstMailId, mails,
+                    recipientRows, probeMailboxSize > 0 ? firstUserId : null, probeMailboxSize);
+            logger.info(String.format("Generated %d users, %d mails and %d recipient rows in %d s",
+                    users, mails, recipientRows, (System.nanoTime() - started) / 1_000_000_000L));
+            return data;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            if (mysql) {
+                setBulkLoadChecks(connection, true);
+            }
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private void insertUsers(Connection connection, int firstUserId) throws SQLException {
+        String passwordHash = new PasswordHasher().hashPassword(PASSWORD);
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO users (id, name, email, password_hash) VALUES (?, ?, ?, ?)")) {
+            for (int index = 0; index < users; index++) {
+                int userId = firstUserId + index;
+                statement.setInt(1, userId);
+                statement.setString(2, "Generated User " + userId);
+                statement.setString(3, email(userId));
+                statement.setString(4, passwordHash);
+                statement.addBatch();
+                if ((index + 1) % batchSize == 0) {
+                    statement.executeBatch();
+                    connection.commit();
+                }
+            }
+            statement.executeBatch();
+            connection.commit();
+        }
+    }
+
+    private long insertMails(Connection connection, Random random, int firstUserId, int firstMailId,
+                             long firstBodyId, MailboxTotals totals) throws SQLException {
+        // With a probe user, user index 0 only ever receives the first probeMailboxSize mails
+        int pickableOffset = probeMailboxSize > 0 ? 1 : 0;
+        ZipfSampler zipf = new ZipfSampler(users - pickableOffset, zipfExponent, random);
+        RecentMails recent = new RecentMails(RECENT_MAILS);
+        int[] recipients = new int[maxRecipients];
+        LocalDateTime sentDate = START_DATE;
+        long recipientRows = 0;
+        long nextBodyId = firstBodyId;
+        // Forward headers repeat when a mail is forwarded twice by the same user; those share a row
+        Map<ByteBuffer, Long> forwardHeaders = new HashMap<>();
+        // References taken on rows that were already written, applied once all mails are in
+        Map<Long, Integer> extraReferences = new HashMap<>();
+
+        try (PreparedStatement bodyStatement = connection.prepareStatement(
+                "INSERT INTO mail_bodies (id, content_hash, body, next_id, ref_count) VALUES (?, ?, ?, ?, 1)");
+             PreparedStatement mailStatement = connection.prepareStatement(
+                     "INSERT INTO mails (id, code, sender_id, subject, body_id, sent_date, is_deleted, deleted_at, " +
+                             "deleted_by_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+             PreparedStatement recipientStatement = connection.prepareStatement(
+                     "INSERT INTO mail_recipients (mail_id, recipient_id, is_read, is_deleted, deleted_at) " +
+                             "VALUES (?, ?, ?, ?, ?)")) {
+            for (int index = 0; index < mails; index++) {
+                int mailId = firstMailId + index;
+                boolean toProbe = index < probeMailboxSize;
+                sentDate = sentDate.plusSeconds(1 + (long) (-30 * Math.log(1 - random.nextDouble())));
+
+                int sender;
+                int recipientCount;
+                String subject;
+                String body;
+                Long quotedBodyId = null;
+                byte[] quotedHash = null;
+                double kind = toProbe ? 1 : random.nextDouble();
+                if (kind < replyRatio && !recent.isEmpty()) {
+                    // Reply: a recipient of a recent mail answers its sender
+                    int original = recent.pick(random);
+                    sender = recent.firstRecipient(original);
+                    recipients[0] = recent.sender(original);
+                    recipientCount = 1;
+                    subject = prefixed("Re: ", recent.subject(original));
+                    body = SyntheticText.body(random, 10 + random.nextInt(80));
+                } else if (kind < replyRatio + forwardRatio && !recent.isEmpty()) {
+                    // Forward: a recipient passes a recent mail on to new people
+                    int original = recent.pick(random);
+                    sender = recent.firstRecipient(original);
+                    recipientCount = pickRecipients(zipf, random, pickableOffset, sender, recipients, 0);
+                    subject = prefixed("Fw: ", recent.subject(original));
+                    int originalSender = firstUserId + recent.sender(original);
+                    body = "\n\n---------- Forwarded Message ----------\n" +
+                            "From: Generated User " + originalSender + " <" + email(originalSender) + ">\n" +
+                            "Date: " + recent.sentDate(original) + "\n" +
+                            "Subject: " + recent.subject(original) + "\n\n";
+                    quotedBodyId = recent.bodyId(original);
+                    quotedHash = recent.bodyHash(original);
+                } else {
+                    sender = pickableOffset + zipf.next();
+                    int start = 0;
+                    if (toProbe) {
+                        recipients[0] = 0;
+                        start = 1;
+                    }
+                    recipientCount = pickRecipients(zipf, random, pickableOffset, sender, recipients, start);
+                    subject = SyntheticText.subject(random);
+                    body = SyntheticText.body(random, 20 + random.nextInt(280));
+                }
+
+                byte[] bodyHash = MailBody.hash(body, quotedHash);
+                Long bodyId = quotedBodyId != null ? forwardHeaders.get(ByteBuffer.wrap(bodyHash)) : null;
+                if (bodyId != null) {
+                    extraReferences.merge(bodyId, 1, Integer::sum);
+                } else {
+                    bodyId = nextBodyId++;
+                    bodyStatement.setLong(1, bodyId);
+                    bodyStatement.setBytes(2, bodyHash);
+                    bodyStatement.setBytes(3, bodyConverter.convertToDatabaseColumn(body));
+                    if (quotedBodyId != null) {
+                        bodyStatement.setLong(4, quotedBodyId);
+                        extraReferences.merge(quotedBodyId, 1, Integer::sum);
+                        forwardHeaders.put(ByteBuffer.wrap(bodyHash), bodyId);
+                    } else {
+                        bodyStatement.setNull(4, Types.BIGINT);
+                    }
+                    bodyStatement.addBatch();
+                }
+
+                boolean senderDeleted = !toProbe && random.nextDouble() < senderDeleteRatio;
+                mailStatement.setInt(1, mailId);
+                mailStatement.setString(2, codeFor(mailId));
+                mailStatement.setInt(3, firstUserId + sender);
+                mailStatement.setString(4, subject);
+                mailStatement.setLong(5, bodyId);
+                mailStatement.setTimestamp(6, Timestamp.valueOf(sentDate));
+                mailStatement.setBoolean(7, senderDeleted);
+                if (senderDeleted) {
+                    mailStatement.setTimestamp(8, Timestamp.valueOf(sentDate.plusHours(1 + random.nextInt(72))));
+                    mailStatement.setInt(9, firstUserId + sender);
+                    totals.trash[sender]++;
+                } else {
+                    mailStatement.setNull(8, Types.TIMESTAMP);
+                    mailStatement.setNull(9, Types.INTEGER);
+                }
+                mailStatement.addBatch();
+
+                for (int r = 0; r < recipientCount; r++) {
+                    int recipient = recipients[r];
+                    boolean probeRow = toProbe && r == 0;
+                    boolean read = random.nextDouble() < readRatio;
+                    boolean deleted = !probeRow && random.nextDouble() < recipientDeleteRatio;
+
+                    recipientStatement.setInt(1, mailId);
+                    recipientStatement.setInt(2, firstUserId + recipient);
+                    recipientStatement.setBoolean(3, read);
+                    recipientStatement.setBoolean(4, deleted);
+                    if (deleted) {
+                        recipientStatement.setTimestamp(5, Timestamp.valueOf(sentDate.plusHours(1 + random.nextInt(240))));
+                        totals.trash[recipient]++;
+                    } else {
+                        recipientStatement.setNull(5, Types.TIMESTAMP);
+                        if (!senderDeleted) {
+                            totals.inbox[recipient]++;
+                            if (!read) {
+                                totals.unread[recipient]++;
+                            }
+                        }
+                    }
+                    recipientStatement.addBatch();
+                }
+                recipientRows += recipientCount;
+                if (pickableOffset == 0 || sender != 0) {
+                    // Mails sent by the probe user are never replied to, so its inbox stays exact
+                    recent.add(sender, recipients[0], subject, sentDate, bodyId, bodyHash);
+                }
+
+                if ((index + 1) % batchSize == 0) {
+                    bodyStatement.executeBatch();
+                    mailStatement.executeBatch();
+                    recipientStatement.executeBatch();
+                    connection.commit();
+                    if ((index + 1) % (batchSize * 100) == 0) {
+                        logger.info(String.format("Generated %d of %d mails", index + 1, mails));
+                    }
+                }
+            }
+            bodyStatement.executeBatch();
+            mailStatement.executeBatch();
+            recipientStatement.executeBatch();
+            connection.commit();
+        }
+        addReferences(connection, extraReferences);
+        return recipientRows;
+    }
+
+    private void addReferences(Connection connection, Map<Long, Integer> references) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "UPDATE mail_bodies SET ref_count = ref_count + ? WHERE id = ?")) {
+            int pending = 0;
+            for (Map.Entry<Long, Integer> reference : references.entrySet()) {
+                statement.setInt(1, reference.getValue());
+                statement.setLong(2, reference.getKey());
+                statement.addBatch();
+                if (++pending % batchSize == 0) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+            connection.commit();
+        }
+    }
+
+    // Fills recipients[start..] with distinct users other than the sender; returns the new length
+    private int pickRecipients(ZipfSampler zipf, Random random, int offset, int sender, int[] recipients, int start) {
+        int count = start + 1;
+        double continueProbability = 1 - 1 / meanRecipients;
+        while (count < maxRecipients && random.nextDouble() < continueProbability) {
+            count++;
+        }
+        count = Math.min(count, users - offset - 1 + start);
+
+        int filled = start;
+        while (filled < count) {
+            int candidate = offset + zipf.next();
+            if (candidate != sender && !contains(recipients, filled, candidate)) {
+                recipients[filled++] = candidate;
+            }
+        }
+        return filled;
+    }
+
+    private void insertCounters(Connection connection, int firstUserId, MailboxTotals totals) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO mailbox_counters (user_id, inbox_count, unread_count, trash_count) VALUES (?, ?, ?, ?)")) {
+            for (int index = 0; index < users; index++) {
+                statement.setInt(1, firstUserId + index);
+                statement.setInt(2, totals.inbox[index]);
+                statement.setInt(3, totals.unread[index]);
+                statement.setInt(4, totals.trash[index]);
+                statement.addBatch();
+                if ((index + 1) % batchSize == 0) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private static int nextId(Connection connection, String table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(id), 0) + 1 FROM " + table)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private static void setBulkLoadChecks(Connection connection, boolean enabled) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            int flag = enabled ? 1 : 0;
+            statement.execute("SET foreign_key_checks = " + flag + ", unique_checks = " + flag);
+        }
+    }
+
+    private static boolean contains(int[] values, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String prefixed(String prefix, String subject) {
+        return subject.startsWith(prefix) ? subject : prefix + subject;
+    }
+
+    public static String email(int userId) {
+        return "user" + userId + EMAIL_DOMAIN;
+    }
+
+    public static String codeFor(int mailId) {
+        return "gen" + Integer.toString(mailId, 36);
+    }
+
+    public static void main(String[] args) {
+        Builder builder = builder();
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            switch (option[0]) {
+                case "users":
+                    builder.users(Integer.parseInt(option[1]));
+                    break;
+                case "mails":
+                    builder.mails(Integer.parseInt(option[1]));
+                    break;
+                case "seed":
+                    builder.seed(Long.parseLong(option[1]));
+                    break;
+                case "zipf":
+                    builder.zipfExponent(Double.parseDouble(option[1]));
+                    break;
+                case "batch":
+                    builder.batchSize(Integer.parseInt(option[1]));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option[0]);
+            }
+        }
+        try {
+            builder.build().generate();
+        } finally {
+            HibernateUtil.shutdown();
+        }
+    }
+
+    // Per-user totals, indexed by position among the generated users
+    private static final class MailboxTotals {
+        final int[] inbox;
+        final int[] unread;
+        final int[] trash;
+
+        MailboxTotals(int users) {
+            inbox = new int[users];
+            unread = new int[users];
+            trash = new int[users];
+        }
+    }
+
+    // Inverse-CDF sampling of ranks 0..n-1 with P(k) proportional to 1/(k+1)^s. Ranks are
+    // shuffled onto user positions so the busiest users are not simply the lowest ids.
+    private static final class ZipfSampler {
+        private final double[] cumulative;
+        private final int[] rankToUser;
+        private final Random random;
+
+        ZipfSampler(int n, double exponent, Random random) {
+            this.random = random;
+            cumulative = new double[n];
+            double sum = 0;
+            for (int k = 0; k < n; k++) {
+                sum += 1 / Math.pow(k + 1, exponent);
+                cumulative[k] = sum;
+            }
+            for (int k = 0; k < n; k++) {
+                cumulative[k] /= sum;
+            }
+
+            rankToUser = new int[n];
+            for (int i = 0; i < n; i++) {
+                rankToUser[i] = i;
+            }
+            for (int i = n - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = rankToUser[i];
+                rankToUser[i] = rankToUser[j];
+                rankToUser[j] = swap;
+            }
+        }
+
+        int next() {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+            if (rank < 0) {
+                rank = -rank - 1;
+            }
+            return rankToUser[Math.min(rank, rankToUser.length - 1)];
+        }
+    }
+
+    // Ring buffer of recently generated mails that replies and forwards are drawn from
+    private static final class RecentMails {
+        private final int[] senders;
+        private final int[] firstRecipients;
+        private final String[] subjects;
+        private final LocalDateTime[] sentDates;
+        private final long[] bodyIds;
+        private final byte[][] bodyHashes;
+        private int size;
+        private int next;
+
+        RecentMails(int capacity) {
+            senders = new int[capacity];
+            firstRecipients = new int[capacity];
+            subjects = new String[capacity];
+            sentDates = new LocalDateTime[capacity];
+            bodyIds = new long[capacity];
+            bodyHashes = new byte[capacity][];
+        }
+
+        void add(int sender, int firstRecipient, String subject, LocalDateTime sentDate,
+                 long bodyId, byte[] bodyHash) {
+            senders[next] = sender;
+            firstRecipients[next] = firstRecipient;
+            subjects[next] = subject;
+            sentDates[next] = sentDate;
+            bodyIds[next] = bodyId;
+            bodyHashes[next] = bodyHash;
+            next = (next + 1) % senders.length;
+            size = Math.min(size + 1, senders.length);
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int pick(Random random) {
+            return random.nextInt(size);
+        }
+
+        int sender(int slot) {
+            return senders[slot];
+        }
+
+        int firstRecipient(int slot) {
+            return firstRecipients[slot];
+        }
+
+        String subject(int slot) {
+            return subjects[slot];
+        }
+
+        LocalDateTime sentDate(int slot) {
+            return sentDates[slot];
+        }
+
+        long bodyId(int slot) {
+            return bodyIds[slot];
+        }
+
+        byte[] bodyHash(int slot) {
+            return bodyHashes[slot];
+        }
+    }
+
+    public static final class Builder {
+        private int users = 10_000;
+        private int mails = 100_000;
+        private long seed = 42L;
+        private double zipfExponent = 1.07;
+        private double meanRecipients = 2.5;
+        private int maxRecipients = 50;
+        private double readRatio = 0.7;
+        private double recipientDeleteRatio = 0.05;
+        private double senderDeleteRatio = 0.02;
+        private double replyRatio = 0.2;
+        private double forwardRatio = 0.05;
+        private int probeMailboxSize;
+        private int batchSize = 5_000;
+
+        private Builder() {
+        }
+
+        public Builder users(int users) {
+            this.users = users;
+            return this;
+        }
+
+        public Builder mails(int mails) {
+            this.mails = mails;
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public Builder zipfExponent(double zipfExponent) {
+            this.zipfExponent = zipfExponent;
+            return this;
+        }
+
+        public Builder meanRecipients(double meanRecipients) {
+            this.meanRecipients = meanRecipients;
+            return this;
+        }
+
+        public Builder maxRecipients(int maxRecipients) {
+            this.maxRecipients = maxRecipients;
+            return this;
+        }
+
+        public Builder readRatio(double readRatio) {
+            this.readRatio = readRatio;
+            return this;
+        }
+
+        public Builder recipientDeleteRatio(double recipientDeleteRatio) {
+            this.recipientDeleteRatio = recipientDeleteRatio;
+            return this;
+        }
+
+        public Builder senderDeleteRatio(double senderDeleteRatio) {
+            this.senderDeleteRatio = senderDeleteRatio;
+            return this;
+        }
+
+        public Builder replyRatio(double replyRatio) {
+            this.replyRatio = replyRatio;
+            return this;
+        }
+
+        public Builder forwardRatio(double forwardRatio) {
+            this.forwardRatio = forwardRatio;
+            return this;
+        }
+
+        // The first generated user receives exactly this many inbox mails and nothing else
+        public Builder probeMailboxSize(int probeMailboxSize) {
+            this.probeMailboxSize = probeMailboxSize;
+            return this;
+        }
+
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public MailboxDataGenerator build() {
+            if (users < 3) {
+                throw new IllegalArgumentException("At least three users are required.");
+            }
+            if (maxRecipients < 1 || meanRecipients < 1) {
+                throw new IllegalArgumentException("Recipients per mail must be at least one.");
+            }
+            if (probeMailboxSize > mails) {
+                throw new IllegalArgumentException("Probe mailbox cannot exceed the number of mails.");
+            }
+            if (replyRatio + forwardRatio > 1) {
+                throw new IllegalArgumentException("Reply and forward ratios must add up to at most one.");
+            }
+            return new MailboxDataGenerator(this);
+        }
+    }
+}
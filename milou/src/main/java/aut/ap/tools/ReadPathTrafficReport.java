@@ -0,0 +1,120 @@
+package aut.ap.tools;
+
+import aut.ap.mail.Mail;
+import aut.ap.mail.MailRepository;
+import aut.ap.util.HibernateUtil;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+// Measures the bytes MySQL exchanges with the application for the reads behind opening,
+// trashing and restoring a mail: authorizing through the Mail entity as those paths used to,
+// the same with the body loaded as it was when it lived in mails, and the MailHeader read
+// model they use now. Uses the server's per-connection Bytes_sent/Bytes_received counters,
+// with the second-level cache bypassed so every read reaches the database.
+//
+// Usage: ReadPathTrafficReport [userId] [samples=200]   (user defaults to the busiest recipient)
+public class ReadPathTrafficReport {
+    private final MailRepository mailRepository = new MailRepository();
+
+    public void report(SessionFactory sessionFactory, int userId, int samples) {
+        try (Session session = sessionFactory.openSession()) {
+            session.setCacheMode(CacheMode.IGNORE);
+            // One transaction keeps the session on one connection, so the counters belong to it
+            session.beginTransaction();
+            try {
+                List<Integer> mailIds = session.createNativeQuery(
+                                "SELECT mail_id FROM mail_recipients WHERE recipient_id = :userId " +
+                                        "ORDER BY mail_id DESC", Integer.class)
+                        .setParameter("userId", userId)
+                        .setMaxResults(samples)
+                        .getResultList();
+                if (mailIds.isEmpty()) {
+                    throw new IllegalStateException("User " + userId + " has no mail to measure with.");
+                }
+
+                Map<String, IntConsumer> operations = new LinkedHashMap<>();
+                operations.put("entity + recipients + body", mailId -> {
+                    Mail mail = session.get(Mail.class, mailId);
+                    mail.getRecipients().size();
+                    mail.getBody();
+                });
+                operations.put("entity + recipients", mailId -> {
+                    Mail mail = session.get(Mail.class, mailId);
+                    mail.getRecipients().size();
+                });
+                operations.put("header", mailId -> mailRepository.findHeaderById(mailId, userId, session));
+
+                long[] probe = counters(session);
+                long[] overhead = delta(probe, counters(session));
+                System.out.printf("%-28s %14s %14s%n", "authorization read", "sent B/op", "received B/op");
+                for (Map.Entry<String, IntConsumer> operation : operations.entrySet()) {
+                    long sent = 0;
+                    long received = 0;
+                    for (Integer mailId : mailIds) {
+                        session.clear();
+                        long[] before = counters(session);
+                        operation.getValue().accept(mailId);
+                        long[] used = delta(before, counters(session));
+                        sent += used[0] - overhead[0];
+                        received += used[1] - overhead[1];
+                    }
+                    System.out.printf("%-28s %14d %14d%n", operation.getKey(),
+                            sent / mailIds.size(), received / mailIds.size());
+                }
+            } finally {
+                session.getTransaction().rollback();
+            }
+        }
+    }
+
+    // Bytes the server sent to and received from this connection so far
+    private static long[] counters(Session session) {
+        return session.doReturningWork(connection -> {
+            long[] values = new long[2];
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(
+                         "SHOW SESSION STATUS WHERE Variable_name IN ('Bytes_sent', 'Bytes_received')")) {
+                while (resultSet.next()) {
+                    values["Bytes_sent".equalsIgnoreCase(resultSet.getString(1)) ? 0 : 1] = resultSet.getLong(2);
+                }
+            }
+            return values;
+        });
+    }
+
+    private static long[] delta(long[] before, long[] after) {
+        return new long[]{after[0] - before[0], after[1] - before[1]};
+    }
+
+    private static int busiestRecipient(SessionFactory sessionFactory) {
+        try (Session session = sessionFactory.openSession()) {
+            Integer userId = session.createNativeQuery(
+                            "SELECT recipient_id FROM mail_recipients GROUP BY recipient_id " +
+                                    "ORDER BY COUNT(*) DESC LIMIT 1", Integer.class)
+                    .uniqueResult();
+            if (userId == null) {
+                throw new IllegalStateException("The database has no mail to measure with.");
+            }
+            return userId;
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            SessionFactory sessionFactory = HibernateUtil.getSessionFactory();
+            int userId = args.length > 0 ? Integer.parseInt(args[0]) : busiestRecipient(sessionFactory);
+            int samples = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+            new ReadPathTrafficReport().report(sessionFactory, userId, samples);
+        } finally {
+            HibernateUtil.shutdown();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package aut.ap.tools;
+
+import java.util.Random;
+
+// Deterministic pseudo-text with a skewed word distribution, so common and rare terms both exist
+public final class SyntheticText {
+    private static final String[] WORDS = {
+            "meeting", "report", "project", "budget", "schedule", "review", "deadline", "update",
+            "team", "client", "invoice", "contract", "design", "release", "server", "database",
+            "quarter", "launch", "feedback", "draft", "agenda", "travel", "hiring", "security",
+            "network", "backup", "migration", "roadmap", "estimate", "proposal", "training", "support",
+            "holiday", "payroll", "analytics", "marketing", "research", "prototype", "vendor", "audit",
+            "compliance", "incident", "outage", "capacity", "latency", "throughput", "milestone", "sprint",
+            "retrospective", "onboarding", "workshop", "conference", "newsletter", "survey", "forecast", "ledger",
+            "shipment", "warehouse", "inventory", "procurement", "renewal", "license", "firmware", "telemetry"
+    };
+
+    private SyntheticText() {
+    }
+
+    public static String word(Random random) {
+        // Squaring a uniform sample favours the start of the vocabulary
+        double u = random.nextDouble();
+        return WORDS[(int) (u * u * WORDS.length)];
+    }
+
+    public static String subject(Random random) {
+        return capitalize(word(random)) + " " + word(random) + " " + word(random);
+    }
+
+    public static String body(Random random, int words) {
+        StringBuilder body = new StringBuilder(words * 8);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                body.append(i % 12 == 0 ? ". " : " ");
+            }
+            body.append(word(random));
+        }
+        return body.append('.').toString();
+    }
+
+    public static String rareWord() {
+        return WORDS[WORDS.length - 1];
+    }
+
+    public static String commonWord() {
+        return WORDS[0];
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+}
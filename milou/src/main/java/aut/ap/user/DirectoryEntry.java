@@ -0,0 +1,38 @@
+package aut.ap.user;
+
+import java.util.Objects;
+
+// What the address book knows about a user: enough to address mail, nothing secret
+public class DirectoryEntry {
+    private final int id;
+    private final String name;
+    private final String email;
+
+    public DirectoryEntry(int id, String name, String email) {
+        this.id = id;
+        this.name = name;
+        this.email = email;
+    }
+
+    public int getId() { return id; }
+    public String getName() { return name; }
+    public String getEmail() { return email; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        DirectoryEntry that = (DirectoryEntry) o;
+        return id == that.id && Objects.equals(email, that.email);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, email);
+    }
+
+    @Override
+    public String toString() {
+        return name + " <" + email + ">";
+    }
+}
@@ -0,0 +1,46 @@
+package aut.ap.user;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+// The original salt:hash format, a single salted SHA-256 round. Only verified, so accounts
+// created before PBKDF2 can still sign in and have their hash replaced on the way.
+public class LegacySha256PasswordEngine implements PasswordVerifier {
+    private static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
+
+    @Override
+    public boolean handles(String storedHash) {
+        return storedHash.indexOf(':') > 0 && storedHash.indexOf('$') < 0;
+    }
+
+    @Override
+    public boolean verify(char[] password, String storedHash) {
+        String[] parts = storedHash.split(":");
+        if (parts.length != 2) {
+            return false;
+        }
+        try {
+            byte[] salt = Base64.getDecoder().decode(parts[0]);
+            byte[] storedPassword = Base64.getDecoder().decode(parts[1]);
+            MessageDigest digest = digests.get();
+            digest.reset();
+            digest.update(salt);
+            // Platform charset, as the hashes were written with String.getBytes()
+            return MessageDigest.isEqual(storedPassword, digest.digest(new String(password).getBytes()));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean needsRehash(String storedHash) {
+        return true;
+    }
+}
@@ -0,0 +1,193 @@
+package aut.ap.user;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Caps failed login attempts per email and per client over a sliding window, turning further
+// attempts away before they cost a query or a password hash. Successful logins are never
+// counted, so signing in often is never throttled. Failures are counted in a count-min
+// sketch: DEPTH rows of `width` counters, so memory stays fixed however many emails and
+// clients are tried, and a key's count can only be overestimated, never under. The sliding
+// window is two fixed windows, the previous one weighted by how much of it still overlaps.
+//
+// Lock-free: a count is an increment on one of many independent cells, with conservative
+// update (only the cells at the key's current minimum grow) to keep collisions down. The
+// thread that moves a window on clears it; increments racing with the clear may be lost,
+// which only makes the limiter more lenient for that instant.
+public class LoginThrottle {
+    private static final int DEPTH = 4;
+    private static final long EMAIL_SEED = 0x9E3779B97F4A7C15L;
+    private static final long CLIENT_SEED = 0xC2B2AE3D27D4EB4FL;
+    private static LoginThrottle defaultThrottle;
+
+    private final int maxPerEmail;
+    private final int maxPerClient;
+    private final long windowMillis;
+    private final int width;
+    private final long hashKey;
+    private final AtomicIntegerArray[] windows = new AtomicIntegerArray[2];
+    private final AtomicLongArray windowEpochs = new AtomicLongArray(2);
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    // width is rounded up to a power of two; memory is 2 * DEPTH * width ints
+    public LoginThrottle(int maxPerEmail, int maxPerClient, Duration window, int width) {
+        if (maxPerEmail < 1 || maxPerClient < 1 || width < 1 || window.toMillis() < 1) {
+            throw new IllegalArgumentException("Limits, window and width must be positive.");
+        }
+        this.maxPerEmail = maxPerEmail;
+        this.maxPerClient = maxPerClient;
+        this.windowMillis = window.toMillis();
+        this.width = width == 1 ? 1 : Integer.highestOneBit(width - 1) << 1;
+        // Keyed per process, so nobody can precompute addresses that collide with a victim's
+        this.hashKey = new SecureRandom().nextLong();
+        for (int i = 0; i < windows.length; i++) {
+            windows[i] = new AtomicIntegerArray(DEPTH * this.width);
+            windowEpochs.set(i, -1);
+        }
+    }
+
+    // 10 failures per email and 100 per client in any 10 minutes, in 2 MB. Overestimates stay
+    // rare up to a few hundred thousand attempts per window: at 400,000 about one fresh
+    // address in 300 is refused.
+    public static synchronized LoginThrottle getDefault() {
+        if (defaultThrottle == null) {
+            defaultThrottle = new LoginThrottle(10, 100, Duration.ofMinutes(10), 1 << 16);
+        }
+        return defaultThrottle;
+    }
+
+    // Tells whether an attempt may go ahead, i.e. neither the client nor the email has reached
+    // its limit of failures. A rejected attempt counts as a failure, so a client that keeps
+    // trying stays locked out until it slows down.
+    public boolean tryAcquire(String email, String client) {
+        Window window = window();
+        long clientHash = hash(client, CLIENT_SEED);
+        // A client over its limit is turned away without counting against the email, so one
+        // abusive client cannot inflate the counts of every address it tries
+        if (estimate(clientHash, window) >= maxPerClient) {
+            record(clientHash, window);
+            rejected.increment();
+            return false;
+        }
+        long emailHash = hash(email, EMAIL_SEED);
+        if (estimate(emailHash, window) >= maxPerEmail) {
+            record(clientHash, window);
+            record(emailHash, window);
+            rejected.increment();
+            return false;
+        }
+        allowed.increment();
+        return true;
+    }
+
+    // Counts an attempt that went ahead but named no user or the wrong password. Attempts are
+    // not held back while others are being verified, so concurrent guesses can overshoot a
+    // limit by as many as run at once.
+    public void recordFailure(String email, String client) {
+        Window window = window();
+        record(hash(client, CLIENT_SEED), window);
+        record(hash(email, EMAIL_SEED), window);
+    }
+
+    public long getAllowed() {
+        return allowed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    private Window window() {
+        long now = System.currentTimeMillis();
+        long epoch = now / windowMillis;
+        AtomicIntegerArray current = currentWindow(epoch);
+        int previousSlot = (int) ((epoch - 1) & 1);
+        AtomicIntegerArray previous = windowEpochs.get(previousSlot) == epoch - 1 ? windows[previousSlot] : null;
+        return new Window(current, previous, 1.0 - (double) (now % windowMillis) / windowMillis);
+    }
+
+    private AtomicIntegerArray currentWindow(long epoch) {
+        int slot = (int) (epoch & 1);
+        long seen = windowEpochs.get(slot);
+        if (seen < epoch && windowEpochs.compareAndSet(slot, seen, epoch)) {
+            AtomicIntegerArray window = windows[slot];
+            for (int i = 0; i < window.length(); i++) {
+                window.set(i, 0);
+            }
+        }
+        return windows[slot];
+    }
+
+    // The key's sliding-window count
+    private double estimate(long hash, Window window) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int min = Integer.MAX_VALUE;
+        int previousMin = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int cell = cell(row, h1, h2);
+            min = Math.min(min, window.current.get(cell));
+            if (window.previous != null) {
+                previousMin = Math.min(previousMin, window.previous.get(cell));
+            }
+        }
+        return min + (window.previous != null ? window.previousWeight * previousMin : 0.0);
+    }
+
+    // Increments the key's count in the current window
+    private void record(long hash, Window window) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            min = Math.min(min, window.current.get(cell(row, h1, h2)));
+        }
+        for (int row = 0; row < DEPTH; row++) {
+            int cell = cell(row, h1, h2);
+            if (window.current.get(cell) <= min) {
+                window.current.incrementAndGet(cell);
+            }
+        }
+    }
+
+    private int cell(int row, int h1, int h2) {
+        return row * width + ((h1 + row * h2) & (width - 1));
+    }
+
+    // Keyed 64-bit hash over the lower-cased characters, without building a lower-cased copy
+    private long hash(String key, long seed) {
+        long h = seed ^ hashKey;
+        if (key != null) {
+            for (int i = 0; i < key.length(); i++) {
+                h = (h ^ Character.toLowerCase(key.charAt(i))) * 0x100000001B3L;
+            }
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LoginThrottle{allowed=%d, rejected=%d}", getAllowed(), getRejected());
+    }
+
+    // The windows one attempt is counted in, taken once per call
+    private static final class Window {
+        final AtomicIntegerArray current;
+        final AtomicIntegerArray previous;
+        final double previousWeight;
+
+        Window(AtomicIntegerArray current, AtomicIntegerArray previous, double previousWeight) {
+            this.current = current;
+            this.previous = previous;
+            this.previousWeight = previousWeight;
+        }
+    }
+}
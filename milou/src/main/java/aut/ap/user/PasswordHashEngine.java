@@ -0,0 +1,6 @@
+package aut.ap.user;
+
+// A verifier that can also write new hashes in its format.
+public interface PasswordHashEngine extends PasswordVerifier {
+    String hash(char[] password);
+}
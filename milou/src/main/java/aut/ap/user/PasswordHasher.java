@@ -1,46 +1,117 @@
 package aut.ap.user;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+// Hashes new passwords with PBKDF2, tuned once per process to -Dmilou.password.target-millis,
+// and verifies against whichever engine wrote the stored hash. The work runs on a bounded pool
+// with one thread per core: a login storm queues there, and beyond the queue is turned away,
+// instead of taking every thread that would otherwise serve the rest of the application.
 public class PasswordHasher {
-    private static final int SALT_LENGTH = 16;
-    private static final String HASH_ALGORITHM = "SHA-256";
+    public static final String TARGET_MILLIS_PROPERTY = "milou.password.target-millis";
+    private static final long DEFAULT_TARGET_MILLIS = 150;
+    private static final int MIN_ITERATIONS = 210_000;
+    private static final int QUEUE_PER_THREAD = 32;
+    private static final long WAIT_SECONDS = 30;
+
+    private final Pbkdf2PasswordEngine current;
+    private final List<PasswordVerifier> verifiers;
+    private final ThreadPoolExecutor executor;
+
+    public PasswordHasher() {
+        this(Defaults.ENGINE, Defaults.EXECUTOR);
+    }
+
+    // A null executor runs the work on the calling thread
+    public PasswordHasher(Pbkdf2PasswordEngine current, ThreadPoolExecutor executor) {
+        this.current = current;
+        this.verifiers = List.of(current, new LegacySha256PasswordEngine());
+        this.executor = executor;
+    }
+
+    // Tunes the default engine now rather than on the first login
+    public static Pbkdf2PasswordEngine defaultEngine() {
+        return Defaults.ENGINE;
+    }
 
     public String hashPassword(String password) {
-        try {
-            byte[] salt = generateSalt();
-            byte[] hashedPassword = hashWithSalt(password, salt);
-            return Base64.getEncoder().encodeToString(salt) + ":" + Base64.getEncoder().encodeToString(hashedPassword);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Failed to hash password", e);
-        }
+        return run(() -> current.hash(password.toCharArray()));
     }
 
     public boolean verifyPassword(String password, String storedHash) {
-        try {
-            String[] parts = storedHash.split(":");
-            byte[] salt = Base64.getDecoder().decode(parts[0]);
-            byte[] storedPassword = Base64.getDecoder().decode(parts[1]);
-            byte[] hashedPassword = hashWithSalt(password, salt);
-            return MessageDigest.isEqual(storedPassword, hashedPassword);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Failed to verify password", e);
+        PasswordVerifier verifier = verifierFor(storedHash);
+        return verifier != null && run(() -> verifier.verify(password.toCharArray(), storedHash));
+    }
+
+    // True when storedHash was written by an older engine or with weaker parameters
+    public boolean needsRehash(String storedHash) {
+        PasswordVerifier verifier = verifierFor(storedHash);
+        return verifier != current || current.needsRehash(storedHash);
+    }
+
+    private PasswordVerifier verifierFor(String storedHash) {
+        if (storedHash == null) {
+            return null;
+        }
+        for (PasswordVerifier verifier : verifiers) {
+            if (verifier.handles(storedHash)) {
+                return verifier;
+            }
         }
+        return null;
     }
 
-    private byte[] generateSalt() {
-        SecureRandom random = new SecureRandom();
-        byte[] salt = new byte[SALT_LENGTH];
-        random.nextBytes(salt);
-        return salt;
+    private <T> T run(Callable<T> work) {
+        if (executor == null) {
+            try {
+                return work.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        Future<T> future;
+        try {
+            future = executor.submit(work);
+        } catch (RejectedExecutionException e) {
+            throw new TooManyAttemptsException("Too many sign-ins in progress. Please try again shortly.", e);
+        }
+        try {
+            return future.get(WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                    : new RuntimeException(e.getCause());
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new TooManyAttemptsException("Password check timed out. Please try again shortly.", e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while checking the password", e);
+        }
     }
 
-    private byte[] hashWithSalt(String password, byte[] salt) throws NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
-        digest.update(salt);
-        return digest.digest(password.getBytes());
+    private static final class Defaults {
+        static final Pbkdf2PasswordEngine ENGINE = Pbkdf2PasswordEngine.tuned(
+                Long.getLong(TARGET_MILLIS_PROPERTY, DEFAULT_TARGET_MILLIS), MIN_ITERATIONS);
+        static final ThreadPoolExecutor EXECUTOR = newExecutor(Runtime.getRuntime().availableProcessors());
+
+        private static ThreadPoolExecutor newExecutor(int threads) {
+            return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(threads * QUEUE_PER_THREAD), runnable -> {
+                Thread thread = new Thread(runnable, "password-hasher");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.AbortPolicy());
+        }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
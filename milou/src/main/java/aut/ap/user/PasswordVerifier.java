@@ -0,0 +1,12 @@
+package aut.ap.user;
+
+// Checks passwords against one stored hash format. Every verifier recognizes its own format,
+// so hashes written by different engines can live side by side in users.password_hash.
+public interface PasswordVerifier {
+    boolean handles(String storedHash);
+
+    boolean verify(char[] password, String storedHash);
+
+    // True when a stored hash this verifier handles is weaker than what is written today
+    boolean needsRehash(String storedHash);
+}
@@ -0,0 +1,116 @@
+package aut.ap.user;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.logging.Logger;
+
+// PBKDF2-HMAC-SHA256, stored as pbkdf2-sha256$<iterations>$<salt>$<hash>. The iteration count
+// travels with every hash, so raising it only affects hashes written from then on; older ones
+// still verify and are reported by needsRehash.
+public class Pbkdf2PasswordEngine implements PasswordHashEngine {
+    private static final Logger logger = Logger.getLogger(Pbkdf2PasswordEngine.class.getName());
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_BITS = 256;
+    private static final int CALIBRATION_ITERATIONS = 20_000;
+    private static final int CALIBRATION_ROUNDS = 5;
+    private static final int MAX_ITERATIONS = 10_000_000;
+
+    private static final SecureRandom random = new SecureRandom();
+    // Looking a factory up goes through the provider list every time; keep one per thread
+    private static final ThreadLocal<SecretKeyFactory> factories = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    });
+
+    private final int iterations;
+
+    public Pbkdf2PasswordEngine(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Iterations must be positive.");
+        }
+        this.iterations = iterations;
+    }
+
+    // Picks the iteration count that takes about targetMillis on this machine, but never fewer
+    // than minIterations, so a start on a busy or slow host cannot weaken new hashes much
+    public static Pbkdf2PasswordEngine tuned(long targetMillis, int minIterations) {
+        char[] password = "calibration".toCharArray();
+        byte[] salt = new byte[SALT_LENGTH];
+        derive(password, salt, CALIBRATION_ITERATIONS);
+        long fastest = Long.MAX_VALUE;
+        for (int round = 0; round < CALIBRATION_ROUNDS; round++) {
+            long started = System.nanoTime();
+            derive(password, salt, CALIBRATION_ITERATIONS);
+            fastest = Math.min(fastest, System.nanoTime() - started);
+        }
+
+        long scaled = CALIBRATION_ITERATIONS * targetMillis * 1_000_000L / Math.max(1, fastest);
+        int iterations = (int) Math.min(MAX_ITERATIONS, Math.max(minIterations, scaled / 1_000 * 1_000));
+        logger.info(String.format("PBKDF2 tuned to %d iterations (%.2f ms per 1000 iterations, target %d ms)",
+                iterations, fastest / 1e6 * 1_000 / CALIBRATION_ITERATIONS, targetMillis));
+        return new Pbkdf2PasswordEngine(iterations);
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    @Override
+    public boolean handles(String storedHash) {
+        return storedHash.startsWith(PREFIX);
+    }
+
+    @Override
+    public String hash(char[] password) {
+        byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        return PREFIX + iterations + "$" + Base64.getEncoder().encodeToString(salt)
+                + "$" + Base64.getEncoder().encodeToString(derive(password, salt, iterations));
+    }
+
+    @Override
+    public boolean verify(char[] password, String storedHash) {
+        String[] parts = storedHash.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3) {
+            return false;
+        }
+        try {
+            int storedIterations = Integer.parseInt(parts[0]);
+            byte[] salt = Base64.getDecoder().decode(parts[1]);
+            byte[] expected = Base64.getDecoder().decode(parts[2]);
+            return storedIterations > 0 && MessageDigest.isEqual(expected, derive(password, salt, storedIterations));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean needsRehash(String storedHash) {
+        int end = storedHash.indexOf('$', PREFIX.length());
+        try {
+            return end < 0 || Integer.parseInt(storedHash.substring(PREFIX.length(), end)) < iterations;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private static byte[] derive(char[] password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, HASH_BITS);
+        try {
+            return factories.get().generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Failed to hash password", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package aut.ap.user;
+
+// An issued session as SessionTokenService keeps it in memory. The user is the one who signed
+// in, as loaded at that time.
+public final class SessionToken {
+    private final long id;
+    private final String token;
+    private final User user;
+    private final long expiresAtMillis;
+
+    SessionToken(long id, String token, User user, long expiresAtMillis) {
+        this.id = id;
+        this.token = token;
+        this.user = user;
+        this.expiresAtMillis = expiresAtMillis;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    // What the client presents on later requests
+    public String getToken() {
+        return token;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+
+    @Override
+    public String toString() {
+        // Never the token itself
+        return "SessionToken{id=" + Long.toHexString(id) + ", user=" + user.getId()
+                + ", expiresAtMillis=" + expiresAtMillis + "}";
+    }
+}
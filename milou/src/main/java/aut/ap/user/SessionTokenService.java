@@ -0,0 +1,287 @@
+package aut.ap.user;
+
+import aut.ap.util.HibernateUtil;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Issues and checks the tokens a signed-in client presents instead of its password. A token is
+// the Base64url form of id | user id | expiry | HMAC-SHA256 of those, truncated. Checks are
+// answered from memory: the id is decoded straight from the token's characters, looked up,
+// and the whole token compared in constant time with the one issued, so a valid check neither
+// touches the database nor computes a MAC.
+//
+// When a session factory is given, sessions are also stored in user_sessions (as a SHA-256 of
+// the token) and a token unknown to this process, e.g. after a restart, is looked up there once
+// its signature checks out. That needs the same key across restarts, see getDefault.
+// Revocation is immediate in this process; another process that already holds the token in
+// memory keeps accepting it until it expires there.
+public class SessionTokenService {
+    private static final Logger logger = Logger.getLogger(SessionTokenService.class.getName());
+    public static final String KEY_PROPERTY = "milou.session.key";
+    private static final Duration DEFAULT_TTL = Duration.ofHours(12);
+    private static final int MAC_LENGTH = 16;
+    private static final int PAYLOAD_LENGTH = 8 + 4 + 8;
+    private static final int TOKEN_BYTES = PAYLOAD_LENGTH + MAC_LENGTH;
+    private static final int TOKEN_LENGTH = (TOKEN_BYTES * 8 + 5) / 6;
+    private static final int ID_CHARS = 11;
+    private static final int[] BASE64URL = new int[128];
+    private static final SecureRandom random = new SecureRandom();
+    private static SessionTokenService defaultService;
+
+    static {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64URL[alphabet.charAt(i)] = i;
+        }
+    }
+
+    private final SessionFactory sessionFactory;
+    private final UserSessionRepository sessionRepository;
+    private final ThreadLocal<Mac> macs;
+    private final long ttlMillis;
+    private final Map<Long, SessionToken> sessions = new ConcurrentHashMap<>();
+
+    // A null sessionFactory keeps sessions in memory only
+    public SessionTokenService(SessionFactory sessionFactory, byte[] key, Duration ttl) {
+        if (key.length < 32) {
+            throw new IllegalArgumentException("Session key must be at least 32 bytes.");
+        }
+        SecretKeySpec secret = new SecretKeySpec(key, "HmacSHA256");
+        this.sessionFactory = sessionFactory;
+        this.sessionRepository = new UserSessionRepository();
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(secret);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 is not available", e);
+            }
+        });
+        this.ttlMillis = ttl.toMillis();
+    }
+
+    // Persistent when -Dmilou.session.key holds a Base64 key of at least 32 bytes; otherwise the
+    // key is random and sessions end with the process
+    public static synchronized SessionTokenService getDefault() {
+        if (defaultService == null) {
+            String configured = System.getProperty(KEY_PROPERTY);
+            if (configured != null) {
+                defaultService = new SessionTokenService(HibernateUtil.getSessionFactory(),
+                        Base64.getDecoder().decode(configured.trim()), DEFAULT_TTL);
+            } else {
+                byte[] key = new byte[32];
+                random.nextBytes(key);
+                logger.info(KEY_PROPERTY + " not set, session tokens will not survive a restart");
+                defaultService = new SessionTokenService(null, key, DEFAULT_TTL);
+            }
+        }
+        return defaultService;
+    }
+
+    public SessionToken issue(User user, Session session) {
+        long expiresAtMillis = System.currentTimeMillis() + ttlMillis;
+        long id;
+        String token;
+        SessionToken issued;
+        do {
+            id = random.nextLong();
+            ByteBuffer bytes = ByteBuffer.allocate(TOKEN_BYTES)
+                    .putLong(id)
+                    .putInt(user.getId())
+                    .putLong(expiresAtMillis);
+            bytes.put(sign(bytes.array()));
+            token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.array());
+            issued = new SessionToken(id, token, user, expiresAtMillis);
+        } while (sessions.putIfAbsent(id, issued) != null);
+
+        if (sessionFactory != null) {
+            persist(issued, session);
+        }
+        return issued;
+    }
+
+    // The session the token belongs to, or null when it is unknown, expired or revoked.
+    // Returns null rather than an Optional so that a check allocates nothing.
+    public SessionToken validate(String token) {
+        if (token == null || token.length() != TOKEN_LENGTH) {
+            return null;
+        }
+        long id = decodeId(token);
+        SessionToken session = sessions.get(id);
+        if (session == null && sessionFactory != null) {
+            session = restore(id, token);
+        }
+        if (session == null || !constantTimeEquals(session.getToken(), token)) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= session.getExpiresAtMillis()) {
+            sessions.remove(id, session);
+            return null;
+        }
+        return session;
+    }
+
+    public void revoke(String token) {
+        SessionToken session = validate(token);
+        if (session == null) {
+            return;
+        }
+        sessions.remove(session.getId(), session);
+        if (sessionFactory != null) {
+            inTransaction(s -> sessionRepository.delete(session.getId(), s));
+        }
+    }
+
+    // Signs the user out everywhere, e.g. after a password change
+    public void revokeAll(int userId) {
+        sessions.values().removeIf(session -> session.getUser().getId() == userId);
+        if (sessionFactory != null) {
+            inTransaction(s -> sessionRepository.deleteByUser(userId, s));
+        }
+    }
+
+    // Periodic job: forgets expired sessions, in memory and in user_sessions
+    public void purgeExpired() {
+        try {
+            long now = System.currentTimeMillis();
+            sessions.values().removeIf(session -> now >= session.getExpiresAtMillis());
+            if (sessionFactory != null) {
+                int rows = inTransaction(s -> sessionRepository.deleteExpired(LocalDateTime.now(), s));
+                logger.info("Purged " + rows + " expired sessions");
+            }
+        } catch (Exception e) {
+            // Never let a failed run cancel the schedule
+            logger.log(Level.SEVERE, "Session purge failed", e);
+        }
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private void persist(SessionToken issued, Session session) {
+        boolean transactionOwner = !session.getTransaction().isActive();
+        try {
+            if (transactionOwner) {
+                session.beginTransaction();
+            }
+            session.persist(new UserSession(issued.getId(), issued.getUser().getId(), sha256(issued.getToken()),
+                    LocalDateTime.now(), toLocal(issued.getExpiresAtMillis())));
+            if (transactionOwner) {
+                session.getTransaction().commit();
+            }
+        } catch (Exception e) {
+            sessions.remove(issued.getId(), issued);
+            if (transactionOwner && session.getTransaction().isActive()) {
+                session.getTransaction().rollback();
+            }
+            throw new RuntimeException("Error storing session", e);
+        }
+    }
+
+    // Only tokens this service signed reach the database, so forged ones cost a MAC, not a query
+    private SessionToken restore(long id, String token) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (bytes.length != TOKEN_BYTES
+                || !MessageDigest.isEqual(sign(bytes), Arrays.copyOfRange(bytes, PAYLOAD_LENGTH, TOKEN_BYTES))) {
+            return null;
+        }
+        long expiresAtMillis = ByteBuffer.wrap(bytes).getLong(12);
+        if (System.currentTimeMillis() >= expiresAtMillis) {
+            return null;
+        }
+
+        try (Session session = sessionFactory.openSession()) {
+            UserSession stored = sessionRepository.findById(id, session);
+            if (stored == null || !MessageDigest.isEqual(stored.getTokenHash(), sha256(token))) {
+                return null;
+            }
+            User user = session.get(User.class, stored.getUserId());
+            if (user == null) {
+                return null;
+            }
+            SessionToken restored = new SessionToken(id, token, user, expiresAtMillis);
+            SessionToken existing = sessions.putIfAbsent(id, restored);
+            return existing != null ? existing : restored;
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to restore session " + Long.toHexString(id), e);
+            return null;
+        }
+    }
+
+    // MAC over the payload at the start of tokenBytes
+    private byte[] sign(byte[] tokenBytes) {
+        Mac mac = macs.get();
+        mac.update(tokenBytes, 0, PAYLOAD_LENGTH);
+        return Arrays.copyOf(mac.doFinal(), MAC_LENGTH);
+    }
+
+    // The first 8 bytes of the token, straight from its first 11 characters. Characters outside
+    // the alphabet decode as anything; the comparison with the issued token rejects them.
+    private static long decodeId(String token) {
+        long bits = 0;
+        for (int i = 0; i < ID_CHARS - 1; i++) {
+            bits = (bits << 6) | BASE64URL[token.charAt(i) & 0x7f];
+        }
+        return (bits << 4) | (BASE64URL[token.charAt(ID_CHARS - 1) & 0x7f] >>> 2);
+    }
+
+    private static boolean constantTimeEquals(String expected, String actual) {
+        int diff = 0;
+        for (int i = 0; i < expected.length(); i++) {
+            diff |= expected.charAt(i) ^ actual.charAt(i);
+        }
+        return diff == 0;
+    }
+
+    private static byte[] sha256(String token) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static LocalDateTime toLocal(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    private <T> T inTransaction(Function<Session, T> work) {
+        try (Session session = sessionFactory.openSession()) {
+            session.beginTransaction();
+            try {
+                T result = work.apply(session);
+                session.getTransaction().commit();
+                return result;
+            } catch (RuntimeException e) {
+                if (session.getTransaction().isActive()) session.getTransaction().rollback();
+                throw e;
+            }
+        }
+    }
+}
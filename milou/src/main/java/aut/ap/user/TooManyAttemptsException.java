@@ -0,0 +1,13 @@
+package aut.ap.user;
+
+// A sign-in refused for load rather than for its credentials: the throttle's limits were
+// reached or the password hasher is saturated. The caller may try again later.
+public class TooManyAttemptsException extends RuntimeException {
+    public TooManyAttemptsException(String message) {
+        super(message);
+    }
+
+    public TooManyAttemptsException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,201 @@
+package aut.ap.user;
+
+import org.hibernate.Session;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.logging.Logger;
+
+// Resolves addresses to users for compose, reply and forward. Lookups go through a bounded
+// LRU cache whose entries expire, unknown addresses included (for a shorter time), and the
+// misses of one call are resolved together with a single IN query. Address autocomplete is
+// answered from an in-memory snapshot of the directory, so typing never waits on the database.
+// Addresses compare case-insensitively, like the email column.
+public class UserDirectory {
+    private static final Logger logger = Logger.getLogger(UserDirectory.class.getName());
+    private static final int IN_LIST_LIMIT = 500;
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final int maxSuggestionEntries;
+    private final Map<String, CachedLookup> cache;
+    private volatile SuggestionIndex suggestions;
+    private volatile boolean suggestionsStale;
+
+    public UserDirectory() {
+        this(10_000, Duration.ofMinutes(10), Duration.ofSeconds(30), 200_000);
+    }
+
+    public UserDirectory(int maxEntries, Duration ttl, Duration negativeTtl, int maxSuggestionEntries) {
+        if (maxEntries < 1 || maxSuggestionEntries < 1) {
+            throw new IllegalArgumentException("Directory sizes must be positive.");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.negativeTtlNanos = negativeTtl.toNanos();
+        this.maxSuggestionEntries = maxSuggestionEntries;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedLookup> eldest) {
+                return size() > UserDirectory.this.maxEntries;
+            }
+        };
+    }
+
+    public Optional<DirectoryEntry> findByEmail(String email, Session session) {
+        return Optional.ofNullable(findByEmails(List.of(email), session).get(email));
+    }
+
+    // Keyed by the addresses as given; unknown addresses are left out
+    public Map<String, DirectoryEntry> findByEmails(Collection<String> emails, Session session) {
+        Map<String, DirectoryEntry> found = new LinkedHashMap<>();
+        Set<String> misses = new LinkedHashSet<>();
+        long now = System.nanoTime();
+        synchronized (cache) {
+            for (String email : emails) {
+                CachedLookup cached = cache.get(normalize(email));
+                if (cached == null || cached.expiresAt - now < 0) {
+                    misses.add(normalize(email));
+                } else if (cached.entry != null) {
+                    found.put(email, cached.entry);
+                }
+            }
+        }
+        if (misses.isEmpty()) {
+            return found;
+        }
+
+        Map<String, DirectoryEntry> loaded = load(misses, session);
+        long loadedAt = System.nanoTime();
+        synchronized (cache) {
+            for (String key : misses) {
+                DirectoryEntry entry = loaded.get(key);
+                cache.put(key, new CachedLookup(entry, loadedAt + (entry != null ? ttlNanos : negativeTtlNanos)));
+            }
+        }
+        for (String email : emails) {
+            DirectoryEntry entry = loaded.get(normalize(email));
+            if (entry != null) {
+                found.put(email, entry);
+            }
+        }
+        return found;
+    }
+
+    private Map<String, DirectoryEntry> load(Collection<String> keys, Session session) {
+        Map<String, DirectoryEntry> loaded = new LinkedHashMap<>();
+        List<String> pending = new ArrayList<>(keys);
+        for (int from = 0; from < pending.size(); from += IN_LIST_LIMIT) {
+            List<Object[]> rows = session.createQuery(
+                            "SELECT u.id, u.name, u.email FROM User u WHERE u.email IN (:emails)", Object[].class)
+                    .setParameterList("emails", pending.subList(from, Math.min(pending.size(), from + IN_LIST_LIMIT)))
+                    .getResultList();
+            for (Object[] row : rows) {
+                DirectoryEntry entry = new DirectoryEntry((Integer) row[0], (String) row[1], (String) row[2]);
+                loaded.put(normalize(entry.getEmail()), entry);
+            }
+        }
+        return loaded;
+    }
+
+    // After a user registers or changes, so neither a negative entry nor the snapshot hides it
+    public void invalidate(String email) {
+        synchronized (cache) {
+            cache.remove(normalize(email));
+        }
+        suggestionsStale = true;
+    }
+
+    // Users whose email or name starts with the prefix, from the last loaded snapshot.
+    // Empty until refreshSuggestions has run once; never touches the database.
+    public List<DirectoryEntry> suggest(String prefix, int limit) {
+        SuggestionIndex index = suggestions;
+        String key = normalize(prefix);
+        if (index == null || key.isEmpty()) {
+            return List.of();
+        }
+        return index.find(key, limit);
+    }
+
+    // Loads the autocomplete snapshot if there is none yet or it is older than the TTL.
+    // Returns whether a load happened.
+    public synchronized boolean refreshSuggestions(Session session) {
+        SuggestionIndex current = suggestions;
+        if (current != null && !suggestionsStale && System.nanoTime() - current.loadedAt < ttlNanos) {
+            return false;
+        }
+        suggestionsStale = false;
+        List<DirectoryEntry> entries = new ArrayList<>();
+        for (Object[] row : session.createQuery("SELECT u.id, u.name, u.email FROM User u ORDER BY u.id", Object[].class)
+                .setMaxResults(maxSuggestionEntries + 1)
+                .getResultList()) {
+            entries.add(new DirectoryEntry((Integer) row[0], (String) row[1], (String) row[2]));
+        }
+        if (entries.size() > maxSuggestionEntries) {
+            entries = entries.subList(0, maxSuggestionEntries);
+            logger.warning("Autocomplete covers only the first " + maxSuggestionEntries + " users");
+        }
+        suggestions = new SuggestionIndex(entries, System.nanoTime());
+        return true;
+    }
+
+    private static String normalize(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // A null entry records that the address is unknown
+    private static final class CachedLookup {
+        final DirectoryEntry entry;
+        final long expiresAt;
+
+        CachedLookup(DirectoryEntry entry, long expiresAt) {
+            this.entry = entry;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // Every user under two keys, lowercased email and name, sorted for binary-searched prefix scans
+    private static final class SuggestionIndex {
+        final String[] keys;
+        final DirectoryEntry[] entries;
+        final long loadedAt;
+
+        SuggestionIndex(List<DirectoryEntry> users, long loadedAt) {
+            List<Map.Entry<String, DirectoryEntry>> pairs = new ArrayList<>(users.size() * 2);
+            for (DirectoryEntry user : users) {
+                pairs.add(Map.entry(normalize(user.getEmail()), user));
+                pairs.add(Map.entry(normalize(user.getName()), user));
+            }
+            pairs.sort(Map.Entry.comparingByKey());
+            this.keys = new String[pairs.size()];
+            this.entries = new DirectoryEntry[pairs.size()];
+            for (int i = 0; i < pairs.size(); i++) {
+                keys[i] = pairs.get(i).getKey();
+                entries[i] = pairs.get(i).getValue();
+            }
+            this.loadedAt = loadedAt;
+        }
+
+        List<DirectoryEntry> find(String prefix, int limit) {
+            int i = Arrays.binarySearch(keys, prefix);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            Set<DirectoryEntry> found = new LinkedHashSet<>();
+            for (; i < keys.length && found.size() < limit && keys[i].startsWith(prefix); i++) {
+                found.add(entries[i]);
+            }
+            return new ArrayList<>(found);
+        }
+    }
+}
@@ -24,6 +24,8 @@ public class UserRepository {
         try {
             User user = session.createQuery("FROM User WHERE email = :email", User.class)
                     .setParameter("email", email)
+                    .setCacheable(true)
+                    .setCacheRegion("query.users-by-email")
                     .uniqueResult();
             return Optional.ofNullable(user);
         } catch (NoResultException e) {
@@ -1,19 +1,36 @@
 package aut.ap.user;
 
+import aut.ap.list.DistributionListRepository;
 import aut.ap.util.HibernateUtil;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
 import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class UserService {
+    private static final Logger logger = Logger.getLogger(UserService.class.getName());
+    // Client id of logins made from this desktop application
+    private static final String LOCAL_CLIENT = "local";
+
     private final UserRepository userRepository;
     private final UserValidation userValidation;
     private final PasswordHasher passwordHasher;
+    private final DistributionListRepository listRepository;
+    private final SessionTokenService sessionTokens;
+    private final LoginThrottle loginThrottle;
 
     public UserService() {
+        this(LoginThrottle.getDefault());
+    }
+
+    public UserService(LoginThrottle loginThrottle) {
         this.userRepository = new UserRepository();
         this.userValidation = new UserValidation();
         this.passwordHasher = new PasswordHasher();
+        this.listRepository = new DistributionListRepository();
+        this.sessionTokens = SessionTokenService.getDefault();
+        this.loginThrottle = loginThrottle;
     }
 
     public User registerUser(String name, String email, String password) {
@@ -24,8 +41,8 @@ public class UserService {
         try (Session session = HibernateUtil.getSessionFactory().openSession()) {
             Transaction tx = session.beginTransaction();
             try {
-                // Check if email exists
-                if (userRepository.existsByEmail(email, session)) {
+                // Check if email exists, as a user or as a distribution list
+                if (userRepository.existsByEmail(email, session) || listRepository.existsByAddress(email, session)) {
                     throw new IllegalArgumentException("Email already registered");
                 }
 
@@ -42,20 +59,79 @@ public class UserService {
     }
 
     public Optional<User> loginUser(String email, String password, Session session) {
+        return loginUser(email, password, LOCAL_CLIENT, session);
+    }
+
+    // clientId names where the attempt comes from, e.g. a remote address. Only failed attempts
+    // count against the throttle; once over its limits they fail before any lookup or hashing.
+    public Optional<User> loginUser(String email, String password, String clientId, Session session) {
+        if (!loginThrottle.tryAcquire(email, clientId)) {
+            throw new TooManyAttemptsException("Too many login attempts. Please wait a few minutes and try again.");
+        }
         try {
             Optional<User> userOptional = userRepository.findByEmail(email, session);
             if (userOptional.isPresent()) {
                 User user = userOptional.get();
                 if (passwordHasher.verifyPassword(password, user.getPasswordHash())) {
+                    if (passwordHasher.needsRehash(user.getPasswordHash())) {
+                        rehashQuietly(user, password, session);
+                    }
                     return Optional.of(user);
                 }
             }
+            loginThrottle.recordFailure(email, clientId);
             return Optional.empty();
+        } catch (TooManyAttemptsException e) {
+            // The password hasher is saturated; let the user try again
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Login failed", e);
         }
     }
 
+    // Replaces a legacy or weaker hash while the plain password is at hand. A failure only
+    // postpones the upgrade to the next login.
+    private void rehashQuietly(User user, String password, Session session) {
+        boolean transactionOwner = !session.getTransaction().isActive();
+        try {
+            if (transactionOwner) {
+                session.beginTransaction();
+            }
+            user.setPasswordHash(passwordHasher.hashPassword(password));
+            if (transactionOwner) {
+                session.getTransaction().commit();
+            }
+        } catch (Exception e) {
+            if (transactionOwner && session.getTransaction().isActive()) {
+                session.getTransaction().rollback();
+            }
+            logger.log(Level.WARNING, "Failed to upgrade the password hash of user " + user.getId(), e);
+        }
+    }
+
+    // Signs in and issues the token later calls present instead of the password
+    public Optional<SessionToken> startSession(String email, String password, Session session) {
+        return startSession(email, password, LOCAL_CLIENT, session);
+    }
+
+    public Optional<SessionToken> startSession(String email, String password, String clientId, Session session) {
+        return loginUser(email, password, clientId, session).map(user -> sessionTokens.issue(user, session));
+    }
+
+    // The signed-in user, checked in memory; empty once the token expired or was revoked
+    public Optional<User> resumeSession(String token) {
+        SessionToken sessionToken = sessionTokens.validate(token);
+        return sessionToken == null ? Optional.empty() : Optional.of(sessionToken.getUser());
+    }
+
+    public void endSession(String token) {
+        try {
+            sessionTokens.revoke(token);
+        } catch (Exception e) {
+            throw new RuntimeException("Error ending session", e);
+        }
+    }
+
     public Optional<User> findByEmail(String email, Session session) {
         try {
             return userRepository.findByEmail(email, session);
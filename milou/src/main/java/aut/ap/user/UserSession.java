@@ -0,0 +1,59 @@
+package aut.ap.user;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+// A session token that outlives the process. Only a SHA-256 of the token is stored, so the
+// table alone is not enough to sign in as anyone.
+@Entity
+@Table(name = "user_sessions")
+public class UserSession {
+    @Id
+    @Column(name = "id")
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Integer userId;
+
+    @Column(name = "token_hash", nullable = false, length = 32)
+    private byte[] tokenHash;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+
+    protected UserSession() {
+        // Required by JPA
+    }
+
+    public UserSession(long id, int userId, byte[] tokenHash, LocalDateTime createdAt, LocalDateTime expiresAt) {
+        this.id = id;
+        this.userId = userId;
+        this.tokenHash = tokenHash;
+        this.createdAt = createdAt;
+        this.expiresAt = expiresAt;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public byte[] getTokenHash() {
+        return tokenHash;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public LocalDateTime getExpiresAt() {
+        return expiresAt;
+    }
+}
@@ -0,0 +1,32 @@
+package aut.ap.user;
+
+import org.hibernate.Session;
+
+import java.time.LocalDateTime;
+
+public class UserSessionRepository {
+    public UserSession findById(long id, Session session) {
+        return session.get(UserSession.class, id);
+    }
+
+    public int delete(long id, Session session) {
+        return session.createNativeQuery("DELETE FROM user_sessions WHERE id = :id")
+                .addSynchronizedEntityClass(UserSession.class)
+                .setParameter("id", id)
+                .executeUpdate();
+    }
+
+    public int deleteByUser(int userId, Session session) {
+        return session.createNativeQuery("DELETE FROM user_sessions WHERE user_id = :userId")
+                .addSynchronizedEntityClass(UserSession.class)
+                .setParameter("userId", userId)
+                .executeUpdate();
+    }
+
+    public int deleteExpired(LocalDateTime now, Session session) {
+        return session.createNativeQuery("DELETE FROM user_sessions WHERE expires_at <= :now")
+                .addSynchronizedEntityClass(UserSession.class)
+                .setParameter("now", now)
+                .executeUpdate();
+    }
+}
@@ -1,20 +1,54 @@
 package aut.ap.util;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import org.hibernate.SessionFactory;
 import org.hibernate.boot.Metadata;
 import org.hibernate.boot.MetadataSources;
 import org.hibernate.boot.registry.StandardServiceRegistry;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
+import java.sql.Connection;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
 
 public class HibernateUtil {
+    private static final String HIKARI_PREFIX = "hibernate.hikari.";
+    private static final String POOL_NAME = "milou-pool";
+    // Set in hibernate.cfg.xml to run SchemaMigrator before the SessionFactory is built
+    private static final String MIGRATE_SETTING = "milou.schema.migrate";
+    // Benchmarks and tools point this at their own configuration, e.g. an embedded database
+    static final String CONFIG_RESOURCE = System.getProperty("milou.hibernate.config", "hibernate.cfg.xml");
+    private static final Logger logger = Logger.getLogger(HibernateUtil.class.getName());
+
+    private static HikariDataSource dataSource;
+    private static ConnectionPoolMetrics poolMetrics;
     private static final SessionFactory sessionFactory = buildSessionFactory();
 
     private static SessionFactory buildSessionFactory() {
         try {
-            // Create the ServiceRegistry from hibernate.cfg.xml
-            StandardServiceRegistry standardRegistry = new StandardServiceRegistryBuilder()
-                    .configure("hibernate.cfg.xml")
-                    .build();
+            // Read hibernate.cfg.xml, then hand Hibernate a pooled DataSource built from it
+            StandardServiceRegistryBuilder registryBuilder = new StandardServiceRegistryBuilder()
+                    .configure(CONFIG_RESOURCE);
+
+            poolMetrics = new ConnectionPoolMetrics();
+            dataSource = buildDataSource(registryBuilder.getSettings(), poolMetrics);
+            if (Boolean.parseBoolean(setting(registryBuilder.getSettings(), MIGRATE_SETTING))) {
+                try (Connection connection = dataSource.getConnection()) {
+                    new SchemaMigrator().migrate(connection);
+                }
+            }
+            registryBuilder.applySetting(AvailableSettings.DATASOURCE, dataSource);
+            // The pool already has the credentials; with them set Hibernate would call
+            // getConnection(user, password), which HikariDataSource does not support
+            registryBuilder.getSettings().remove(AvailableSettings.USER);
+            registryBuilder.getSettings().remove(AvailableSettings.PASS);
+
+            StandardServiceRegistry standardRegistry = registryBuilder.build();
 
             // Create MetadataSources
             MetadataSources metadataSources = new MetadataSources(standardRegistry);
@@ -26,15 +60,74 @@ public class HibernateUtil {
             return metadata.getSessionFactoryBuilder().build();
         } catch (Exception ex) {
             System.err.println("Initial SessionFactory creation failed." + ex);
+            if (dataSource != null) {
+                dataSource.close();
+            }
             throw new ExceptionInInitializerError(ex);
         }
     }
 
+    private static HikariDataSource buildDataSource(Map<String, Object> settings, ConnectionPoolMetrics metrics) {
+        // Every hibernate.hikari.* property is passed through to HikariCP
+        Properties hikariProperties = new Properties();
+        settings.forEach((key, value) -> {
+            if (key.startsWith(HIKARI_PREFIX) && value != null) {
+                hikariProperties.setProperty(key.substring(HIKARI_PREFIX.length()), value.toString().trim());
+            }
+        });
+
+        HikariConfig config = new HikariConfig(hikariProperties);
+        config.setPoolName(POOL_NAME);
+        config.setDriverClassName(setting(settings, AvailableSettings.DRIVER));
+        config.setJdbcUrl(setting(settings, AvailableSettings.URL));
+        config.setUsername(setting(settings, AvailableSettings.USER));
+        config.setPassword(setting(settings, AvailableSettings.PASS));
+        config.setAutoCommit(Boolean.parseBoolean(setting(settings, AvailableSettings.AUTOCOMMIT)));
+        config.setMetricsTrackerFactory(metrics);
+        return new HikariDataSource(config);
+    }
+
+    private static String setting(Map<String, Object> settings, String key) {
+        Object value = settings.get(key);
+        return value != null ? value.toString().trim() : null;
+    }
+
     public static SessionFactory getSessionFactory() {
         return sessionFactory;
     }
 
+    public static ConnectionPoolMetrics getPoolMetrics() {
+        return poolMetrics;
+    }
+
+    public static Statistics getStatistics() {
+        return sessionFactory.getStatistics();
+    }
+
+    // Hit/miss/put counts of every second-level cache region and of the query cache
+    public static String describeCacheStatistics() {
+        Statistics stats = getStatistics();
+        StringBuilder report = new StringBuilder("Second-level cache statistics:");
+        for (String region : stats.getSecondLevelCacheRegionNames()) {
+            // Domain data or query results; getDomainDataRegionStatistics throws for the latter
+            CacheRegionStatistics regionStats = stats.getCacheRegionStatistics(region);
+            if (regionStats != null) {
+                report.append(String.format("%n  %s: hits=%d, misses=%d, puts=%d, inMemory=%d",
+                        region, regionStats.getHitCount(), regionStats.getMissCount(),
+                        regionStats.getPutCount(), regionStats.getElementCountInMemory()));
+            }
+        }
+        report.append(String.format("%n  query cache: hits=%d, misses=%d, puts=%d",
+                stats.getQueryCacheHitCount(), stats.getQueryCacheMissCount(), stats.getQueryCachePutCount()));
+        return report.toString();
+    }
+
     public static void shutdown() {
+        logger.info(describeCacheStatistics());
+        logger.info(String.valueOf(poolMetrics));
         getSessionFactory().close();
+        if (dataSource != null) {
+            dataSource.close();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,283 @@
+package aut.ap.util;
+
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cfg.AvailableSettings;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+// Applies the versioned SQL scripts under db/migration in order and records each one in
+// schema_version. Scripts that were already applied are checksummed so an edited script
+// is caught instead of silently diverging from what the database holds.
+//
+// Offline usage: SchemaMigrator [migrate|info], using the connection settings of the
+// Hibernate configuration (milou.hibernate.config).
+public class SchemaMigrator {
+    private static final Logger logger = Logger.getLogger(SchemaMigrator.class.getName());
+    private static final String MIGRATION_DIRECTORY = "db/migration/";
+    private static final String MIGRATION_INDEX = MIGRATION_DIRECTORY + "migrations.txt";
+    private static final Pattern SCRIPT_NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+    private static final String LOCK_NAME = "milou_schema_migration";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+
+    private final List<Migration> migrations;
+
+    public SchemaMigrator() {
+        this.migrations = loadMigrations();
+    }
+
+    // Returns the number of migrations applied
+    public int migrate(Connection connection) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        try {
+            connection.setAutoCommit(true);
+            boolean locked = acquireLock(connection);
+            try {
+                createVersionTable(connection);
+                Map<Integer, Long> applied = appliedChecksums(connection);
+                verifyChecksums(applied);
+
+                int count = 0;
+                for (Migration migration : migrations) {
+                    if (applied.containsKey(migration.version)) {
+                        continue;
+                    }
+                    apply(connection, migration);
+                    count++;
+                }
+                logger.info(count == 0 ? "Schema is up to date"
+                        : "Applied " + count + " schema migration(s)");
+                return count;
+            } finally {
+                if (locked) {
+                    releaseLock(connection);
+                }
+            }
+        } finally {
+            // Also when the lock times out or cannot be released
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    public List<String> describe(Connection connection) throws SQLException {
+        createVersionTable(connection);
+        Map<Integer, Long> applied = appliedChecksums(connection);
+        return migrations.stream()
+                .map(migration -> String.format("V%d %-24s %s", migration.version, migration.description,
+                        !applied.containsKey(migration.version) ? "pending"
+                                : applied.get(migration.version) == migration.checksum ? "applied" : "CHANGED"))
+                .collect(Collectors.toList());
+    }
+
+    private void apply(Connection connection, Migration migration) throws SQLException {
+        long started = System.currentTimeMillis();
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : migration.statements()) {
+                statement.execute(sql);
+            }
+        } catch (SQLException e) {
+            // DDL is not transactional in MySQL: statements before the failing one stay applied
+            throw new IllegalStateException("Migration V" + migration.version + " (" + migration.resource +
+                    ") failed; fix the database by hand before retrying", e);
+        }
+
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO schema_version (version, description, script, checksum, installed_on, execution_ms) " +
+                        "VALUES (?, ?, ?, ?, ?, ?)")) {
+            insert.setInt(1, migration.version);
+            insert.setString(2, migration.description);
+            insert.setString(3, migration.resource);
+            insert.setLong(4, migration.checksum);
+            insert.setTimestamp(5, Timestamp.valueOf(LocalDateTime.now()));
+            insert.setLong(6, System.currentTimeMillis() - started);
+            insert.executeUpdate();
+        }
+        logger.info("Applied migration V" + migration.version + " " + migration.description);
+    }
+
+    private void verifyChecksums(Map<Integer, Long> applied) {
+        for (Migration migration : migrations) {
+            Long checksum = applied.get(migration.version);
+            if (checksum != null && checksum != migration.checksum) {
+                throw new IllegalStateException("Migration V" + migration.version +
+                        " was changed after it was applied; add a new version instead");
+            }
+        }
+    }
+
+    private static void createVersionTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                    "version INT PRIMARY KEY, " +
+                    "description VARCHAR(200) NOT NULL, " +
+                    "script VARCHAR(200) NOT NULL, " +
+                    "checksum BIGINT NOT NULL, " +
+                    "installed_on TIMESTAMP NOT NULL, " +
+                    "execution_ms BIGINT NOT NULL)");
+        }
+    }
+
+    private static Map<Integer, Long> appliedChecksums(Connection connection) throws SQLException {
+        Map<Integer, Long> applied = new LinkedHashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(
+                     "SELECT version, checksum FROM schema_version ORDER BY version")) {
+            while (resultSet.next()) {
+                applied.put(resultSet.getInt(1), resultSet.getLong(2));
+            }
+        }
+        return applied;
+    }
+
+    // Serializes application instances starting at the same time (MySQL only)
+    private static boolean acquireLock(Connection connection) throws SQLException {
+        if (!isMySql(connection)) {
+            return false;
+        }
+        try (PreparedStatement statement = connection.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            statement.setString(1, LOCK_NAME);
+            statement.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next() || resultSet.getInt(1) != 1) {
+                    throw new IllegalStateException("Timed out waiting for the schema migration lock");
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void releaseLock(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            statement.setString(1, LOCK_NAME);
+            statement.executeQuery().close();
+        }
+    }
+
+    private static boolean isMySql(Connection connection) throws SQLException {
+        return connection.getMetaData().getDatabaseProductName().toLowerCase().contains("mysql");
+    }
+
+    private static List<Migration> loadMigrations() {
+        List<Migration> loaded = new ArrayList<>();
+        int previousVersion = 0;
+        for (String line : readResource(MIGRATION_INDEX).split("\n")) {
+            String name = line.trim();
+            if (name.isEmpty() || name.startsWith("#")) {
+                continue;
+            }
+            Matcher matcher = SCRIPT_NAME.matcher(name);
+            if (!matcher.matches()) {
+                throw new IllegalStateException("Invalid migration script name: " + name);
+            }
+            int version = Integer.parseInt(matcher.group(1));
+            if (version <= previousVersion) {
+                throw new IllegalStateException("Migrations must be listed in increasing version order: " + name);
+            }
+            previousVersion = version;
+            loaded.add(new Migration(version, matcher.group(2).replace('_', ' '), name,
+                    readResource(MIGRATION_DIRECTORY + name)));
+        }
+        return loaded;
+    }
+
+    private static String readResource(String resource) {
+        InputStream stream = SchemaMigrator.class.getClassLoader().getResourceAsStream(resource);
+        if (stream == null) {
+            throw new IllegalStateException("Missing migration resource " + resource);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.joining("\n"));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + resource, e);
+        }
+    }
+
+    private static final class Migration {
+        final int version;
+        final String description;
+        final String resource;
+        final String script;
+        final long checksum;
+
+        Migration(int version, String description, String resource, String script) {
+            this.version = version;
+            this.description = description;
+            this.resource = resource;
+            this.script = script;
+            CRC32 crc = new CRC32();
+            crc.update(script.getBytes(StandardCharsets.UTF_8));
+            this.checksum = crc.getValue();
+        }
+
+        // Statements end with ';' at the end of a line; whole-line "--" comments are dropped
+        List<String> statements() {
+            List<String> statements = new ArrayList<>();
+            StringBuilder current = new StringBuilder();
+            for (String line : script.split("\n")) {
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("--")) {
+                    continue;
+                }
+                current.append(line).append('\n');
+                if (trimmed.endsWith(";")) {
+                    String sql = current.toString().trim();
+                    statements.add(sql.substring(0, sql.length() - 1));
+                    current.setLength(0);
+                }
+            }
+            if (!current.toString().trim().isEmpty()) {
+                statements.add(current.toString().trim());
+            }
+            return statements;
+        }
+    }
+
+    public static void main(String[] args) throws SQLException {
+        String command = args.length > 0 ? args[0] : "migrate";
+        Map<String, Object> settings = new StandardServiceRegistryBuilder()
+                .configure(HibernateUtil.CONFIG_RESOURCE)
+                .getSettings();
+        try (Connection connection = DriverManager.getConnection(
+                setting(settings, AvailableSettings.URL),
+                setting(settings, AvailableSettings.USER),
+                setting(settings, AvailableSettings.PASS))) {
+            SchemaMigrator migrator = new SchemaMigrator();
+            switch (command) {
+                case "migrate":
+                    migrator.migrate(connection);
+                    break;
+                case "info":
+                    migrator.describe(connection).forEach(System.out::println);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown command " + command + " (use migrate or info)");
+            }
+        }
+    }
+
+    private static String setting(Map<String, Object> settings, String key) {
+        return Objects.toString(settings.get(key), "").trim();
+    }
+}
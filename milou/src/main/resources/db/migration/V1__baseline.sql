@@ -0,0 +1,43 @@
+-- Schema as previously created by sql/mail-database.sql or hbm2ddl. IF NOT EXISTS lets
+-- databases that predate the migrations adopt this version without changes.
+CREATE TABLE IF NOT EXISTS users (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    name VARCHAR(100) NOT NULL,
+    email VARCHAR(255) NOT NULL UNIQUE,
+    password_hash VARCHAR(255) NOT NULL,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
+) ENGINE=InnoDB;
+
+CREATE TABLE IF NOT EXISTS mails (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    code VARCHAR(36) NOT NULL UNIQUE,
+    sender_id INT NOT NULL,
+    subject VARCHAR(255) NOT NULL,
+    body TEXT NOT NULL,
+    sent_date TIMESTAMP NOT NULL,
+    is_deleted BOOLEAN DEFAULT FALSE,
+    deleted_at TIMESTAMP NULL,
+    deleted_by_id INT NULL,
+    FOREIGN KEY (sender_id) REFERENCES users(id) ON DELETE CASCADE,
+    FOREIGN KEY (deleted_by_id) REFERENCES users(id) ON DELETE SET NULL
+) ENGINE=InnoDB;
+
+CREATE TABLE IF NOT EXISTS mail_recipients (
+    mail_id INT NOT NULL,
+    recipient_id INT NOT NULL,
+    is_read BOOLEAN DEFAULT FALSE,
+    is_deleted BOOLEAN DEFAULT FALSE,
+    deleted_at TIMESTAMP NULL,
+    PRIMARY KEY (mail_id, recipient_id),
+    FOREIGN KEY (mail_id) REFERENCES mails(id) ON DELETE CASCADE,
+    FOREIGN KEY (recipient_id) REFERENCES users(id) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+CREATE TABLE IF NOT EXISTS mailbox_counters (
+    user_id INT PRIMARY KEY,
+    inbox_count INT NOT NULL DEFAULT 0,
+    unread_count INT NOT NULL DEFAULT 0,
+    trash_count INT NOT NULL DEFAULT 0,
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+) ENGINE=InnoDB;
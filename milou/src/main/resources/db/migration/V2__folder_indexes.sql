@@ -0,0 +1,8 @@
+-- Inbox and unread: seek a recipient's live rows and read is_read without touching the table.
+-- Also serves the recipient trash lookup (recipient_id, is_deleted = true).
+CREATE INDEX idx_mail_recipients_folder
+    ON mail_recipients (recipient_id, is_deleted, is_read, mail_id);
+
+-- Sent: a sender's live mails come out of the index already ordered by sent_date
+CREATE INDEX idx_mails_sender_folder
+    ON mails (sender_id, is_deleted, sent_date);
@@ -0,0 +1,28 @@
+-- Bodies move out of mails into a content-addressed table, so identical bodies are stored once.
+-- content_hash is SHA-256 over the UTF-8 text of a fragment followed by the hash of the fragment
+-- it continues in (next_id), as computed by MailBody.hash. Existing bodies become single-fragment
+-- rows; SHA2() hashes the utf8mb4 bytes of the column, which are its UTF-8 encoding.
+CREATE TABLE mail_bodies (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    content_hash BINARY(32) NOT NULL UNIQUE,
+    body TEXT NOT NULL,
+    next_id BIGINT NULL,
+    ref_count INT NOT NULL DEFAULT 0,
+    FOREIGN KEY (next_id) REFERENCES mail_bodies(id)
+) ENGINE=InnoDB;
+
+INSERT INTO mail_bodies (content_hash, body, ref_count)
+SELECT UNHEX(SHA2(body, 256)), MIN(body), COUNT(*)
+FROM mails
+GROUP BY UNHEX(SHA2(body, 256));
+
+ALTER TABLE mails ADD COLUMN body_id BIGINT NULL AFTER subject;
+
+UPDATE mails m
+JOIN mail_bodies b ON b.content_hash = UNHEX(SHA2(m.body, 256))
+SET m.body_id = b.id;
+
+ALTER TABLE mails
+    MODIFY body_id BIGINT NOT NULL,
+    ADD CONSTRAINT fk_mails_body FOREIGN KEY (body_id) REFERENCES mail_bodies (id),
+    DROP COLUMN body;
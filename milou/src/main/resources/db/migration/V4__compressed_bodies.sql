@@ -0,0 +1,5 @@
+-- mail_bodies.body becomes binary in the format of CompressedTextConverter: a format byte,
+-- then the text. Existing rows get the plain-UTF-8 header; only new bodies are deflated.
+ALTER TABLE mail_bodies MODIFY body MEDIUMBLOB NOT NULL;
+
+UPDATE mail_bodies SET body = CONCAT(X'00', body);
@@ -0,0 +1,23 @@
+-- Sending writes the mail plus one mail_outbox row naming its recipients; OutboxDispatcher
+-- writes the mail_recipients rows afterwards and deletes the entry. Entries it gave up on
+-- stay behind as FAILED with the last error.
+CREATE TABLE mail_outbox (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    mail_id INT NOT NULL,
+    recipient_ids TEXT NOT NULL,
+    status VARCHAR(16) NOT NULL,
+    attempts INT NOT NULL DEFAULT 0,
+    created_at DATETIME(3) NOT NULL,
+    next_attempt_at DATETIME(3) NOT NULL,
+    last_error VARCHAR(500) NULL,
+    FOREIGN KEY (mail_id) REFERENCES mails(id) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+CREATE INDEX idx_mail_outbox_status ON mail_outbox (status, id);
+
+-- One row per singleton job; the owner may work until expires_at (database clock)
+CREATE TABLE outbox_leases (
+    name VARCHAR(64) PRIMARY KEY,
+    owner VARCHAR(64) NOT NULL,
+    expires_at DATETIME(3) NOT NULL
+) ENGINE=InnoDB;
@@ -0,0 +1,38 @@
+-- Distribution lists: named groups addressed like a mailbox. A send to a list records the list
+-- in mail_lists and queues one mail_outbox entry for it, which OutboxDispatcher expands into
+-- mail_recipients rows chunk by chunk (list_cursor) with INSERT ... SELECT.
+CREATE TABLE distribution_lists (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    address VARCHAR(255) NOT NULL UNIQUE,
+    name VARCHAR(100) NOT NULL,
+    owner_id INT NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (owner_id) REFERENCES users(id) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+CREATE TABLE distribution_list_members (
+    list_id INT NOT NULL,
+    user_id INT NOT NULL,
+    PRIMARY KEY (list_id, user_id),
+    FOREIGN KEY (list_id) REFERENCES distribution_lists(id) ON DELETE CASCADE,
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+CREATE TABLE mail_lists (
+    mail_id INT NOT NULL,
+    list_id INT NOT NULL,
+    PRIMARY KEY (mail_id, list_id),
+    FOREIGN KEY (mail_id) REFERENCES mails(id) ON DELETE CASCADE,
+    FOREIGN KEY (list_id) REFERENCES distribution_lists(id)
+) ENGINE=InnoDB;
+
+-- Rows expanded from a list name it; directly addressed recipients keep NULL. A trailing
+-- nullable column is added in place by MySQL 8 without rebuilding the table.
+ALTER TABLE mail_recipients ADD COLUMN list_id INT NULL;
+
+-- The lists a user received mail through, for scoping search
+CREATE INDEX idx_mail_recipients_list ON mail_recipients (recipient_id, list_id);
+
+ALTER TABLE mail_outbox
+    ADD COLUMN list_id INT NULL AFTER recipient_ids,
+    ADD COLUMN list_cursor INT NOT NULL DEFAULT 0 AFTER list_id;
@@ -0,0 +1,13 @@
+-- Sessions issued by SessionTokenService, kept so tokens survive a restart. The token itself is
+-- never stored, only its SHA-256.
+CREATE TABLE user_sessions (
+    id BIGINT PRIMARY KEY,
+    user_id INT NOT NULL,
+    token_hash BINARY(32) NOT NULL,
+    created_at DATETIME(3) NOT NULL,
+    expires_at DATETIME(3) NOT NULL,
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+CREATE INDEX idx_user_sessions_user ON user_sessions (user_id);
+CREATE INDEX idx_user_sessions_expires ON user_sessions (expires_at);
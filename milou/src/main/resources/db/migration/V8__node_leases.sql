@@ -0,0 +1,7 @@
+-- Snowflake node ids leased by NodeIdLease, so processes sharing the database issue mail
+-- codes under distinct nodes; the owner may use node_id until expires_at (database clock)
+CREATE TABLE node_leases (
+    node_id INT PRIMARY KEY,
+    owner VARCHAR(64) NOT NULL,
+    expires_at DATETIME(3) NOT NULL
+) ENGINE=InnoDB;
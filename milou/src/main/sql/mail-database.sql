@@ -1,3 +1,6 @@
+-- Reference copy of the schema. The application creates and upgrades its database from
+-- the versioned scripts in resources/db/migration (see SchemaMigrator); change those instead.
+
 CREATE TABLE users (
     id INT AUTO_INCREMENT PRIMARY KEY,
     name VARCHAR(100) NOT NULL,
@@ -7,18 +10,31 @@ CREATE TABLE users (
     updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP
 );
 
+-- Content-addressed mail bodies (migration V3); a forward's body is its header fragment
+-- chained through next_id onto the forwarded body. body holds a format byte and then
+-- plain or deflated UTF-8 (migration V4, CompressedTextConverter).
+CREATE TABLE mail_bodies (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    content_hash BINARY(32) NOT NULL UNIQUE,
+    body MEDIUMBLOB NOT NULL,
+    next_id BIGINT NULL,
+    ref_count INT NOT NULL DEFAULT 0,
+    FOREIGN KEY (next_id) REFERENCES mail_bodies(id)
+) ENGINE=InnoDB;
+
 CREATE TABLE mails (
     id INT AUTO_INCREMENT PRIMARY KEY,
     code VARCHAR(36) NOT NULL UNIQUE,
     sender_id INT NOT NULL,
     subject VARCHAR(255) NOT NULL,
-    body TEXT NOT NULL,
+    body_id BIGINT NOT NULL,
     sent_date TIMESTAMP NOT NULL,
     is_deleted BOOLEAN DEFAULT FALSE,
     deleted_at TIMESTAMP NULL,
     deleted_by_id INT NULL,
     FOREIGN KEY (sender_id) REFERENCES users(id) ON DELETE CASCADE,
-    FOREIGN KEY (deleted_by_id) REFERENCES users(id) ON DELETE SET NULL
+    FOREIGN KEY (deleted_by_id) REFERENCES users(id) ON DELETE SET NULL,
+    FOREIGN KEY (body_id) REFERENCES mail_bodies(id)
 );
 
 -- First, drop the existing index if it exists (since there's an incomplete alter statement in the original)
@@ -55,10 +71,97 @@ CREATE TABLE mail_recipients (
     is_read BOOLEAN DEFAULT FALSE,
     is_deleted BOOLEAN DEFAULT FALSE,
     deleted_at TIMESTAMP NULL,
+    list_id INT NULL,
     PRIMARY KEY (mail_id, recipient_id),
     FOREIGN KEY (mail_id) REFERENCES mails(id) ON DELETE CASCADE,
     FOREIGN KEY (recipient_id) REFERENCES users(id) ON DELETE CASCADE
 ) ENGINE=InnoDB;
 
 -- Recreate the index for better performance on read status checks
-CREATE INDEX idx_mail_recipients_read ON mail_recipients (mail_id, recipient_id, is_read);
\ No newline at end of file
+CREATE INDEX idx_mail_recipients_read ON mail_recipients (mail_id, recipient_id, is_read);
+
+-- Denormalized per-user folder sizes, maintained by MailService on every write
+-- and rebuilt from mail_recipients/mails by MailboxCounterReconciler
+CREATE TABLE mailbox_counters (
+    user_id INT PRIMARY KEY,
+    inbox_count INT NOT NULL DEFAULT 0,
+    unread_count INT NOT NULL DEFAULT 0,
+    trash_count INT NOT NULL DEFAULT 0,
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+-- Folder listing indexes (migration V2)
+CREATE INDEX idx_mail_recipients_folder ON mail_recipients (recipient_id, is_deleted, is_read, mail_id);
+CREATE INDEX idx_mails_sender_folder ON mails (sender_id, is_deleted, sent_date);
+
+-- Send pipeline (migration V5): recipients of a sent mail wait here until OutboxDispatcher
+-- writes their mail_recipients rows; outbox_leases picks the one process that dispatches
+CREATE TABLE mail_outbox (
+    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+    mail_id INT NOT NULL,
+    recipient_ids TEXT NOT NULL,
+    list_id INT NULL,
+    list_cursor INT NOT NULL DEFAULT 0,
+    status VARCHAR(16) NOT NULL,
+    attempts INT NOT NULL DEFAULT 0,
+    created_at DATETIME(3) NOT NULL,
+    next_attempt_at DATETIME(3) NOT NULL,
+    last_error VARCHAR(500) NULL,
+    FOREIGN KEY (mail_id) REFERENCES mails(id) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+CREATE INDEX idx_mail_outbox_status ON mail_outbox (status, id);
+
+CREATE TABLE outbox_leases (
+    name VARCHAR(64) PRIMARY KEY,
+    owner VARCHAR(64) NOT NULL,
+    expires_at DATETIME(3) NOT NULL
+) ENGINE=InnoDB;
+
+-- Distribution lists (migration V6); mail_recipients.list_id names the list a row was expanded from
+CREATE TABLE distribution_lists (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    address VARCHAR(255) NOT NULL UNIQUE,
+    name VARCHAR(100) NOT NULL,
+    owner_id INT NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (owner_id) REFERENCES users(id) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+CREATE TABLE distribution_list_members (
+    list_id INT NOT NULL,
+    user_id INT NOT NULL,
+    PRIMARY KEY (list_id, user_id),
+    FOREIGN KEY (list_id) REFERENCES distribution_lists(id) ON DELETE CASCADE,
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+CREATE TABLE mail_lists (
+    mail_id INT NOT NULL,
+    list_id INT NOT NULL,
+    PRIMARY KEY (mail_id, list_id),
+    FOREIGN KEY (mail_id) REFERENCES mails(id) ON DELETE CASCADE,
+    FOREIGN KEY (list_id) REFERENCES distribution_lists(id)
+) ENGINE=InnoDB;
+
+CREATE INDEX idx_mail_recipients_list ON mail_recipients (recipient_id, list_id);
+
+-- Persisted login sessions (migration V7); only a SHA-256 of each token is stored
+CREATE TABLE user_sessions (
+    id BIGINT PRIMARY KEY,
+    user_id INT NOT NULL,
+    token_hash BINARY(32) NOT NULL,
+    created_at DATETIME(3) NOT NULL,
+    expires_at DATETIME(3) NOT NULL,
+    FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+CREATE INDEX idx_user_sessions_user ON user_sessions (user_id);
+CREATE INDEX idx_user_sessions_expires ON user_sessions (expires_at);
+
+-- Mail code node ids leased by NodeIdLease (migration V8)
+CREATE TABLE node_leases (
+    node_id INT PRIMARY KEY,
+    owner VARCHAR(64) NOT NULL,
+    expires_at DATETIME(3) NOT NULL
+) ENGINE=InnoDB;